@@ -13,32 +13,52 @@
 
 package org.mortbay.jetty.orchestrator;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.mortbay.jetty.orchestrator.configuration.ClusterConfiguration;
+import org.mortbay.jetty.orchestrator.configuration.Harvest;
 import org.mortbay.jetty.orchestrator.configuration.HostLauncher;
 import org.mortbay.jetty.orchestrator.configuration.LocalHostLauncher;
 import org.mortbay.jetty.orchestrator.configuration.Node;
 import org.mortbay.jetty.orchestrator.configuration.NodeArrayConfiguration;
+import org.mortbay.jetty.orchestrator.configuration.OutputCapture;
+import org.mortbay.jetty.orchestrator.nodefs.DownloadOptions;
+import org.mortbay.jetty.orchestrator.nodefs.NodeFiles;
 import org.mortbay.jetty.orchestrator.rpc.GlobalNodeId;
 import org.mortbay.jetty.orchestrator.rpc.NodeProcess;
+import org.mortbay.jetty.orchestrator.rpc.RemoteClassLoader;
 import org.mortbay.jetty.orchestrator.rpc.RpcClient;
-import org.mortbay.jetty.orchestrator.rpc.command.CheckNodeCommand;
+import org.mortbay.jetty.orchestrator.rpc.RpcServer;
+import org.mortbay.jetty.orchestrator.rpc.command.CheckNodesCommand;
+import org.mortbay.jetty.orchestrator.rpc.command.GetStartupTimelineCommand;
 import org.mortbay.jetty.orchestrator.rpc.command.KillNodeCommand;
 import org.mortbay.jetty.orchestrator.rpc.command.SpawnNodeCommand;
 import org.mortbay.jetty.orchestrator.util.IOUtil;
+import org.mortbay.jetty.orchestrator.util.StartupTimeline;
 import org.mortbay.jetty.orchestrator.util.ZooKeeperClient;
 import org.mortbay.jetty.orchestrator.util.ZooKeeperServer;
 import org.slf4j.Logger;
@@ -47,17 +67,24 @@ import org.slf4j.LoggerFactory;
 public class Cluster implements AutoCloseable
 {
     private static final Logger LOG = LoggerFactory.getLogger(Cluster.class);
+    private static final String STARTUP_TIMELINE_DUMP_PROPERTY = "org.mortbay.jetty.orchestrator.startupTimelineDir";
+    private static final String DRIVER_ENTITY = "driver";
 
     private final String id;
     private final ClusterConfiguration configuration;
     private final LocalHostLauncher localHostLauncher = new LocalHostLauncher();
     private final HostLauncher hostLauncher;
     private final Map<String, NodeArray> nodeArrays = new HashMap<>(); // keyed by NodeArrayId
-    private final Map<GlobalNodeId, Host> hosts = new HashMap<>(); // keyed by HostId
-    private final Timer hostsCheckerTimer = new Timer();
+    private final Map<GlobalNodeId, Host> hosts = new ConcurrentHashMap<>(); // keyed by HostId, read by the liveness watch
+    private final StartupTimeline startupTimeline = new StartupTimeline();
     private ZooKeeperServer zkServer;
     private ZooKeeperClient zkClient;
     private ClusterTools clusterTools;
+    private ScheduledExecutorService healthCheckScheduler;
+    private AutoCloseable livenessWatch;
+    private RpcServer classServer;
+    private final Set<GlobalNodeId> deadHosts = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
 
     public Cluster(ClusterConfiguration configuration) throws Exception
     {
@@ -90,10 +117,34 @@ public class Cluster implements AutoCloseable
 
     private void init() throws Exception
     {
-        zkServer = new ZooKeeperServer();
+        try (StartupTimeline.Phase ignored = startupTimeline.begin(DRIVER_ENTITY, "zookeeper-server-start"))
+        {
+            zkServer = new ZooKeeperServer();
+        }
         String connectString = zkServer.getConnectString();
-        zkClient = new ZooKeeperClient(connectString);
+        try (StartupTimeline.Phase ignored = startupTimeline.begin(DRIVER_ENTITY, "zookeeper-connect"))
+        {
+            zkClient = new ZooKeeperClient(connectString);
+        }
         clusterTools = new ClusterTools(zkClient, new GlobalNodeId(id, LocalHostLauncher.HOSTNAME));
+        List<String> nodeArgList = new ArrayList<>();
+        nodeArgList.add(Long.toString(configuration.healthCheckTimeout()));
+        if (configuration.ephemeralLiveness())
+        {
+            nodeArgList.add(NodeProcess.EPHEMERAL_LIVENESS_ARG);
+            // Watch before launching anything so that no death can be missed.
+            livenessWatch = zkClient.watchLiveness(clusterTools.getGlobalNodeId().getClusterId(), this::onNodeDeath);
+        }
+        if (configuration.remoteClassLoading())
+        {
+            nodeArgList.add(NodeProcess.REMOTE_CLASS_LOADING_ARG);
+            // Must be serving before the hosts start as they need it to load the classes of the commands they receive.
+            classServer = new RpcServer(zkClient, RemoteClassLoader.classServerId(clusterTools.getGlobalNodeId().getClusterId()));
+            Thread thread = new Thread(classServer::run, "class-server-" + id);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        String[] nodeArgs = nodeArgList.toArray(new String[0]);
 
         // start all host nodes
         List<String> hostnames = configuration.nodeArrays().stream()
@@ -113,8 +164,11 @@ public class Cluster implements AutoCloseable
                     throw new IllegalStateException("No configured host launcher to start node on " + hostname);
                 futures.add(executor.submit(() ->
                 {
-                    long healthCheckTimeout = configuration.healthCheckTimeout();
-                    String remoteConnectString = launcher.launch(globalNodeId, connectString, Long.toString(healthCheckTimeout));
+                    String remoteConnectString;
+                    try (StartupTimeline.Phase ignored = startupTimeline.begin(hostname, "launch"))
+                    {
+                        remoteConnectString = launcher.launch(globalNodeId, connectString, startupTimeline, nodeArgs);
+                    }
                     return new AbstractMap.SimpleImmutableEntry<>(globalNodeId, remoteConnectString);
                 }));
             }
@@ -130,23 +184,34 @@ public class Cluster implements AutoCloseable
             String remoteConnectString = entry.getValue();
             hosts.put(globalNodeId, new Host(globalNodeId, new RpcClient(zkClient, globalNodeId), remoteConnectString));
         }
+        checkNoDeadHost();
 
-        // start heath check timer
-        long healthCheckDelay = configuration.healthCheckDelay();
-        hostsCheckerTimer.schedule(new TimerTask() {
-            @Override
-            public void run()
+        // start heath checks, unless liveness is tracked by ephemeral znodes
+        if (livenessWatch == null)
+        {
+            // Each host gets checked on its own schedule so that a slow host cannot delay the others.
+            AtomicInteger threadIdGenerator = new AtomicInteger();
+            healthCheckScheduler = Executors.newScheduledThreadPool(Math.min(hosts.size(), Runtime.getRuntime().availableProcessors()), r ->
+            {
+                Thread thread = new Thread(r, "health-check-" + threadIdGenerator.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            long healthCheckDelay = configuration.healthCheckDelay();
+            for (Host host : hosts.values())
             {
-                for (Host host : hosts.values())
+                healthCheckScheduler.scheduleWithFixedDelay(() ->
                 {
                     if (LOG.isDebugEnabled())
                         LOG.debug("Checking health of host {}", host);
-                    host.check();
-                }
+                    host.check(healthCheckScheduler);
+                }, healthCheckDelay, healthCheckDelay, TimeUnit.MILLISECONDS);
             }
-        }, healthCheckDelay, healthCheckDelay);
+        }
 
         // start all worker nodes
+        Map<GlobalNodeId, RpcClient> hostRpcClients = hosts.values().stream()
+            .collect(Collectors.toMap(host -> host.globalNodeId, host -> host.rpcClient));
         for (NodeArrayConfiguration nodeArrayConfig : configuration.nodeArrays())
         {
             Map<String, NodeArray.Node> nodeArrayNodes = new HashMap<>();
@@ -154,9 +219,11 @@ public class Cluster implements AutoCloseable
             {
                 GlobalNodeId globalNodeId = new GlobalNodeId(id, nodeArrayConfig, nodeConfig);
                 Host host = hosts.get(globalNodeId.getHostGlobalId());
-                try
+                String shortNodeId = globalNodeId.getNodeId().substring(id.length() + 1);
+                String linePrefix = nodeArrayConfig.prefixOutput() ? "[" + shortNodeId + "] " : null;
+                try (StartupTimeline.Phase ignored = startupTimeline.begin(shortNodeId, "spawn"))
                 {
-                    NodeProcess remoteProcess = (NodeProcess)host.rpcClient.call(new SpawnNodeCommand(nodeArrayConfig.jvm(), globalNodeId.getHostname(), globalNodeId.getHostId(), globalNodeId.getNodeId(), host.remoteConnectString, Long.toString(configuration.healthCheckTimeout())), 10, TimeUnit.SECONDS);
+                    NodeProcess remoteProcess = (NodeProcess)host.rpcClient.call(new SpawnNodeCommand(nodeArrayConfig.jvm(), globalNodeId.getHostname(), globalNodeId.getHostId(), globalNodeId.getNodeId(), host.remoteConnectString, linePrefix, nodeArrayConfig.outputCapture(), nodeArrayConfig.outputAggregation(), nodeArgs), 10, TimeUnit.SECONDS);
                     NodeArray.Node node = new NodeArray.Node(globalNodeId, remoteProcess, new RpcClient(zkClient, globalNodeId));
                     host.nodes.add(node);
                     nodeArrayNodes.put(nodeConfig.getId(), node);
@@ -166,7 +233,85 @@ public class Cluster implements AutoCloseable
                     throw new Exception("Error spawning node '" + globalNodeId.getHostId() + "'", e);
                 }
             }
-            nodeArrays.put(nodeArrayConfig.id(), new NodeArray(nodeArrayNodes));
+            nodeArrays.put(nodeArrayConfig.id(), new NodeArray(nodeArrayNodes, nodeArrayConfig.outputCapture(), hostRpcClients));
+        }
+
+        checkNoDeadHost();
+        collectStartupTimeline();
+    }
+
+    /**
+     * Deaths reported before their host got registered cannot close it, so fail the startup instead.
+     */
+    private void checkNoDeadHost()
+    {
+        if (!deadHosts.isEmpty())
+            throw new IllegalStateException("Node(s) of host(s) " + deadHosts + " died during startup");
+    }
+
+    private void onNodeDeath(String nodeId)
+    {
+        GlobalNodeId hostGlobalId = new GlobalNodeId(nodeId).getHostGlobalId();
+        // Closing the host kills its other nodes, do not report them as dead too.
+        if (closed || !deadHosts.add(hostGlobalId))
+            return;
+        Host host = hosts.get(hostGlobalId);
+        LOG.error("Forcibly closing the cluster as node {} died", nodeId);
+        if (host == null)
+            return; // not registered yet, the startup is going to fail
+        // Do not block the ZooKeeper event thread with the RPCs needed to kill the other nodes.
+        Thread thread = new Thread(host::close, "liveness-close-" + nodeId);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collectStartupTimeline()
+    {
+        // Query the hosts and their nodes in parallel, each of them recorded its own phases.
+        Map<Object, CompletableFuture<Object>> futures = new LinkedHashMap<>();
+        for (Host host : hosts.values())
+        {
+            try
+            {
+                futures.put(host, host.rpcClient.callAsync(new GetStartupTimelineCommand()));
+                for (NodeArray.Node node : host.nodes)
+                    futures.put(node, node.startupTimelineAsync());
+            }
+            catch (Exception e)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Error requesting startup timeline of host {}", host, e);
+            }
+        }
+        for (Map.Entry<Object, CompletableFuture<Object>> entry : futures.entrySet())
+        {
+            try
+            {
+                startupTimeline.addAll((List<StartupTimeline.Entry>)entry.getValue().get(10, TimeUnit.SECONDS));
+            }
+            catch (Exception e)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Error collecting startup timeline of {}", entry.getKey(), e);
+            }
+        }
+        if (LOG.isDebugEnabled())
+            LOG.debug("Startup timeline of cluster {}:\n{}", id, startupTimeline);
+
+        String dumpFolder = System.getProperty(STARTUP_TIMELINE_DUMP_PROPERTY);
+        if (dumpFolder != null)
+        {
+            Path path = Paths.get(dumpFolder, id + "-startup-timeline.json");
+            try
+            {
+                Files.createDirectories(path.getParent());
+                startupTimeline.writeJson(path);
+            }
+            catch (IOException e)
+            {
+                LOG.warn("Error writing startup timeline to {}", path, e);
+            }
         }
     }
 
@@ -175,19 +320,114 @@ public class Cluster implements AutoCloseable
         return clusterTools;
     }
 
+    /**
+     * @return the duration of each startup phase of the driver, the hosts and the nodes.
+     * Set the {@code org.mortbay.jetty.orchestrator.startupTimelineDir} system property to
+     * also have it written as JSON to that directory.
+     */
+    public StartupTimeline startupTimeline()
+    {
+        return startupTimeline;
+    }
+
     @Override
     public void close()
     {
-        hostsCheckerTimer.cancel();
+        closed = true;
+        if (healthCheckScheduler != null)
+            healthCheckScheduler.shutdownNow();
+        IOUtil.close(livenessWatch);
         hosts.values().forEach(IOUtil::close);
+        mergeCapturedOutputs();
+        harvest();
         hosts.clear();
         nodeArrays.clear();
         IOUtil.close(hostLauncher);
         IOUtil.close(localHostLauncher);
+        IOUtil.close(classServer);
         IOUtil.close(zkClient);
         IOUtil.close(zkServer);
     }
 
+    private void mergeCapturedOutputs()
+    {
+        // Must happen before the host launchers are closed as that deletes the captured files.
+        for (Map.Entry<String, NodeArray> entry : nodeArrays.entrySet())
+        {
+            OutputCapture outputCapture = entry.getValue().getOutputCapture();
+            if (outputCapture == null || outputCapture.getMergeOnCloseDirectory() == null)
+                continue;
+            Path path = Paths.get(outputCapture.getMergeOnCloseDirectory(), id + "-" + entry.getKey() + "-output.log");
+            try
+            {
+                Files.createDirectories(path.getParent());
+                entry.getValue().mergeCapturedOutput(path);
+            }
+            catch (IOException e)
+            {
+                LOG.warn("Error writing captured output to {}", path, e);
+            }
+        }
+    }
+
+    private void harvest()
+    {
+        // Must happen before the host launchers are closed as that deletes the node directories.
+        Harvest harvest = configuration.harvest();
+        if (harvest == null)
+            return;
+        AtomicInteger threadIdGenerator = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(harvest.getParallelism(), r ->
+        {
+            Thread thread = new Thread(r, "harvest-" + threadIdGenerator.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try
+        {
+            Map<String, Future<?>> futures = new LinkedHashMap<>();
+            for (Map.Entry<String, List<String>> entry : harvest.getNodeArrayGlobs().entrySet())
+            {
+                NodeArray nodeArray = nodeArrays.get(entry.getKey());
+                if (nodeArray == null)
+                {
+                    LOG.warn("Cannot harvest files of unknown node array {}", entry.getKey());
+                    continue;
+                }
+                DownloadOptions options = new DownloadOptions(harvest.getDownloadOptions()).include(entry.getValue().toArray(new String[0]));
+                for (String nodeId : nodeArray.ids())
+                {
+                    Path target = Paths.get(harvest.getDirectory(), id, entry.getKey(), nodeId);
+                    futures.put(entry.getKey() + "/" + nodeId, executor.submit(() ->
+                    {
+                        NodeFiles.download(nodeArray.rootPathOf(nodeId), target, options);
+                        return null;
+                    }));
+                }
+            }
+            for (Map.Entry<String, Future<?>> entry : futures.entrySet())
+            {
+                try
+                {
+                    entry.getValue().get();
+                }
+                catch (ExecutionException e)
+                {
+                    LOG.warn("Error harvesting files of node {}", entry.getKey(), e.getCause());
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while harvesting files", e);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
     public NodeArray nodeArray(String id)
     {
         return nodeArrays.get(id);
@@ -199,6 +439,9 @@ public class Cluster implements AutoCloseable
         private final RpcClient rpcClient;
         private final String remoteConnectString;
         private final List<NodeArray.Node> nodes = new CopyOnWriteArrayList<>();
+        private final Map<NodeArray.Node, CompletableFuture<Object>> pendingSelfChecks = new ConcurrentHashMap<>();
+        private volatile CompletableFuture<Object> pendingHostCheck = CompletableFuture.completedFuture(Collections.emptyList());
+        private volatile boolean closed;
 
         private Host(GlobalNodeId globalNodeId, RpcClient rpcClient, String remoteConnectString)
         {
@@ -207,44 +450,141 @@ public class Cluster implements AutoCloseable
             this.remoteConnectString = remoteConnectString;
         }
 
-        private void check()
+        /**
+         * Send the checks without waiting for their replies, so that a slow host or node does not
+         * hold back the checks of the other hosts; the replies are evaluated on the given executor as soon as
+         * one of them reports a failure, or once they all arrived. The host and each node only get a new
+         * check once they replied to their previous one, so that their checks do not pile up.
+         */
+        private void check(Executor executor)
+        {
+            if (closed)
+                return;
+            // The host gets checked even without nodes, as the check is also its heartbeat.
+            List<NodeArray.Node> nodes = new ArrayList<>(this.nodes);
+            List<NodeProcess> nodeProcesses = nodes.stream().map(NodeArray.Node::getNodeProcess).collect(Collectors.toList());
+            if (LOG.isDebugEnabled())
+                LOG.debug("client checking nodes {}", nodes);
+            // Ask the host node to check all the spawned nodes in one go.
+            CompletableFuture<Object> hostCheck;
+            if (pendingHostCheck.isDone())
+            {
+                hostCheck = send(() -> rpcClient.callAsync(new CheckNodesCommand(nodeProcesses)));
+                pendingHostCheck = hostCheck;
+            }
+            else
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Skipping check of host {} as its previous check is still pending", globalNodeId.getHostId());
+                hostCheck = CompletableFuture.completedFuture(Collections.emptyList());
+            }
+            // Ask the spawned nodes to check themselves. Must happen to create
+            // a heartbeat for the health checks.
+            List<NodeProcess> selfCheckedProcesses = new ArrayList<>();
+            List<CompletableFuture<Object>> selfChecks = new ArrayList<>();
+            for (NodeArray.Node node : nodes)
+            {
+                CompletableFuture<Object> pendingSelfCheck = pendingSelfChecks.get(node);
+                if (pendingSelfCheck != null && !pendingSelfCheck.isDone())
+                {
+                    // Typically a node that is still booting.
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Skipping self check of {} as its previous check is still pending", node);
+                    continue;
+                }
+                CompletableFuture<Object> selfCheck = send(node::selfCheckAsync);
+                pendingSelfChecks.put(node, selfCheck);
+                selfCheckedProcesses.add(node.getNodeProcess());
+                selfChecks.add(selfCheck);
+            }
+
+            List<CompletableFuture<Object>> checks = new ArrayList<>(selfChecks);
+            checks.add(hostCheck);
+            CompletableFuture<Object> firstFailure = new CompletableFuture<>();
+            hostCheck.whenComplete((r, x) ->
+            {
+                if (x != null || !((List<?>)r).isEmpty())
+                    firstFailure.complete(null);
+            });
+            selfChecks.forEach(selfCheck -> selfCheck.whenComplete((r, x) ->
+            {
+                if (x != null)
+                    firstFailure.complete(null);
+            }));
+            CompletableFuture.anyOf(CompletableFuture.allOf(checks.toArray(new CompletableFuture[0])), firstFailure)
+                .whenCompleteAsync((r, x) -> report(nodeProcesses, hostCheck, selfCheckedProcesses, selfChecks), executor);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void report(List<NodeProcess> nodeProcesses, CompletableFuture<Object> hostCheck, List<NodeProcess> selfCheckedProcesses, List<CompletableFuture<Object>> selfChecks)
         {
             List<String> unsaneHostIds = new ArrayList<>();
             Exception failure = null;
-            for (NodeArray.Node node : nodes)
+            // Checks that are still pending when another one failed are not reported.
+            try
             {
-                NodeProcess nodeProcess = node.getNodeProcess();
+                List<NodeProcess> deadProcesses = (List<NodeProcess>)hostCheck.getNow(Collections.emptyList());
+                for (NodeProcess deadProcess : deadProcesses)
+                {
+                    unsaneHostIds.add(String.format(" Host %s failed check of %s", globalNodeId.getHostId(), deadProcess));
+                    failure = addFailure(failure, new IllegalStateException("Process died unexpectedly: " + deadProcess));
+                }
+            }
+            catch (Exception e)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Host {} failed check of {}", globalNodeId.getHostId(), nodeProcesses, e);
+                unsaneHostIds.add(String.format(" Host %s failed check of %s", globalNodeId.getHostId(), nodeProcesses));
+                failure = addFailure(failure, e);
+            }
+            for (int i = 0; i < selfChecks.size(); i++)
+            {
+                NodeProcess nodeProcess = selfCheckedProcesses.get(i);
                 try
                 {
-                    if (LOG.isDebugEnabled())
-                       LOG.debug("client checking node {}", node);
-                    // Ask the host node to check the spawned node.
-                    rpcClient.call(new CheckNodeCommand(nodeProcess), 10, TimeUnit.SECONDS);
-                    // Ask the spawned node to check itself. Must happen to create
-                    // a heartbeat for the health checks.
-                    node.selfCheck();
+                    selfChecks.get(i).getNow(null);
                 }
                 catch (Exception e)
                 {
                     if (LOG.isDebugEnabled())
-                        LOG.debug("Host {} failed check of {}", globalNodeId.getHostId(), nodeProcess, e);
-                    unsaneHostIds.add(String.format(" Host %s failed check of %s", globalNodeId.getHostId(), nodeProcess));
-                    if (failure == null)
-                        failure = e;
-                    else
-                        failure.addSuppressed(e);
+                        LOG.debug("Host {} failed self check of {}", globalNodeId.getHostId(), nodeProcess, e);
+                    unsaneHostIds.add(String.format(" Host %s failed self check of %s", globalNodeId.getHostId(), nodeProcess));
+                    failure = addFailure(failure, e);
                 }
             }
-            if (!unsaneHostIds.isEmpty())
+            if (!unsaneHostIds.isEmpty() && !closed)
             {
                 LOG.error("Forcibly closing the cluster as {} host(s) failed its/their health check:\n{}", unsaneHostIds.size(), String.join("\n", unsaneHostIds), failure);
                 close();
             }
         }
 
+        private static CompletableFuture<Object> send(Callable<CompletableFuture<Object>> call)
+        {
+            try
+            {
+                return call.call().orTimeout(10, TimeUnit.SECONDS);
+            }
+            catch (Exception e)
+            {
+                CompletableFuture<Object> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                return future;
+            }
+        }
+
+        private static Exception addFailure(Exception failure, Exception e)
+        {
+            if (failure == null)
+                return e;
+            failure.addSuppressed(e);
+            return failure;
+        }
+
         @Override
         public void close()
         {
+            closed = true;
             for (NodeArray.Node node : nodes)
             {
                 NodeProcess nodeProcess = node.getNodeProcess();
@@ -261,6 +601,7 @@ public class Cluster implements AutoCloseable
             IOUtil.close(rpcClient);
             nodes.forEach(IOUtil::close);
             nodes.clear();
+            pendingSelfChecks.clear();
         }
 
         @Override
@@ -20,10 +20,14 @@ import org.mortbay.jetty.orchestrator.rpc.GlobalNodeId;
 import org.mortbay.jetty.orchestrator.tools.AtomicCounter;
 import org.mortbay.jetty.orchestrator.tools.Barrier;
 import org.mortbay.jetty.orchestrator.tools.DistributedQueue;
+import org.mortbay.jetty.orchestrator.tools.Telemetry;
+import org.mortbay.jetty.orchestrator.tools.TelemetryListener;
 import org.mortbay.jetty.orchestrator.util.ZooKeeperClient;
 
 public class ClusterTools
 {
+    private static final int DEFAULT_TELEMETRY_BUFFER_SIZE = 8192;
+
     private final ZooKeeperClient zkClient;
     private final GlobalNodeId globalNodeId;
     private final ConcurrentMap<String, Object> localEnvironment = new ConcurrentHashMap<>();
@@ -54,6 +58,32 @@ public class ClusterTools
         return zkClient.createDistributedQueue(globalNodeId, name);
     }
 
+    /**
+     * Create a publisher of samples to the telemetry stream with the given name, that flushes
+     * its buffer every second. Close it once done recording so that the last samples get sent.
+     */
+    public Telemetry telemetry(String name)
+    {
+        return telemetry(name, DEFAULT_TELEMETRY_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize how many samples can be recorded between two flushes before samples get dropped.
+     */
+    public Telemetry telemetry(String name, int bufferSize)
+    {
+        return zkClient.createTelemetry(globalNodeId, name, bufferSize);
+    }
+
+    /**
+     * Receive the samples published to the telemetry stream with the given name by all nodes.
+     * Close the returned object to stop receiving them, after the publishers got closed.
+     */
+    public AutoCloseable subscribeTelemetry(String name, TelemetryListener listener)
+    {
+        return zkClient.watchTelemetry(globalNodeId.getClusterId(), name, listener);
+    }
+
     public ConcurrentMap<String, Object> localEnvironment()
     {
         return localEnvironment;
@@ -13,31 +13,51 @@
 
 package org.mortbay.jetty.orchestrator;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import org.mortbay.jetty.orchestrator.configuration.LocalHostLauncher;
+import org.mortbay.jetty.orchestrator.configuration.OutputCapture;
 import org.mortbay.jetty.orchestrator.nodefs.NodeFileSystemProvider;
 import org.mortbay.jetty.orchestrator.rpc.GlobalNodeId;
 import org.mortbay.jetty.orchestrator.rpc.NodeProcess;
 import org.mortbay.jetty.orchestrator.rpc.RpcClient;
 import org.mortbay.jetty.orchestrator.rpc.command.CheckNodeCommand;
+import org.mortbay.jetty.orchestrator.rpc.command.GetStartupTimelineCommand;
+import org.mortbay.jetty.orchestrator.rpc.command.Command;
+import org.mortbay.jetty.orchestrator.rpc.command.ExecuteNodeCallableCommand;
 import org.mortbay.jetty.orchestrator.rpc.command.ExecuteNodeJobCommand;
+import org.mortbay.jetty.orchestrator.rpc.command.ReduceOnHostCommand;
+import org.mortbay.jetty.orchestrator.rpc.command.RegisterNodeFunctionCommand;
+import org.mortbay.jetty.orchestrator.util.CapturedOutput;
 import org.mortbay.jetty.orchestrator.util.IOUtil;
 
 public class NodeArray
 {
     private final Map<String, Node> nodes;
+    private final OutputCapture outputCapture;
+    private final Map<GlobalNodeId, RpcClient> hostRpcClients;
 
-    NodeArray(Map<String, Node> nodes)
+    NodeArray(Map<String, Node> nodes, OutputCapture outputCapture, Map<GlobalNodeId, RpcClient> hostRpcClients)
     {
         this.nodes = nodes;
+        this.outputCapture = outputCapture;
+        this.hostRpcClients = hostRpcClients;
     }
 
     public String hostnameOf(String id)
@@ -69,73 +89,169 @@ public class NodeArray
         return nodes.keySet();
     }
 
-    public NodeArrayFuture executeOn(String id, NodeJob nodeJob)
+    /**
+     * Download the output captured by all the nodes of this array and merge it into a single
+     * time-ordered log written to the given file.
+     * @see org.mortbay.jetty.orchestrator.configuration.NodeArrayConfiguration#outputCapture()
+     */
+    public void mergeCapturedOutput(Path target) throws IOException
     {
-        Node node = nodes.get(id);
-        if (node == null)
-            throw new IllegalArgumentException("No such node with ID " + id);
-
-        Map<String, CompletableFuture<Object>> futures = new HashMap<>();
-        try
+        if (outputCapture == null)
+            throw new IllegalStateException("Output capture is not enabled for this node array");
+        Map<String, Path> nodeRootPaths = new TreeMap<>();
+        for (Map.Entry<String, Node> entry : nodes.entrySet())
         {
-            CompletableFuture<Object> future = node.rpcClient.callAsync(new ExecuteNodeJobCommand(nodeJob));
-            futures.put(id, future);
+            GlobalNodeId globalNodeId = entry.getValue().globalNodeId;
+            String name = globalNodeId.getNodeId().substring(globalNodeId.getClusterId().length() + 1);
+            nodeRootPaths.put(name, rootPathOf(entry.getKey()));
         }
-        catch (Exception e)
+        try (Writer writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8))
         {
-            CompletableFuture<Object> future = new CompletableFuture<>();
-            future.completeExceptionally(e);
-            futures.put(id, future);
+            CapturedOutput.merge(nodeRootPaths, outputCapture.getMaxFiles(), writer);
         }
-        return new NodeArrayFuture(futures);
     }
 
-    public NodeArrayFuture executeOn(Set<String> ids, NodeJob nodeJob)
+    OutputCapture getOutputCapture()
     {
-        Set<String> missingIds = new HashSet<>(nodes.keySet());
-        ids.forEach(missingIds::remove);
-        if (!missingIds.isEmpty())
-            throw new IllegalArgumentException("No such node with ID " + missingIds);
+        return outputCapture;
+    }
 
-        Map<String, CompletableFuture<Object>> futures = new HashMap<>();
-        for (String id : ids)
+    public NodeArrayFuture<Void> executeOn(String id, NodeJob nodeJob)
+    {
+        return callAsync(Set.of(id), new ExecuteNodeJobCommand(nodeJob));
+    }
+
+    public NodeArrayFuture<Void> executeOn(Set<String> ids, NodeJob nodeJob)
+    {
+        return callAsync(ids, new ExecuteNodeJobCommand(nodeJob));
+    }
+
+    public NodeArrayFuture<Void> executeOnAll(NodeJob nodeJob)
+    {
+        return callAsync(nodes.keySet(), new ExecuteNodeJobCommand(nodeJob));
+    }
+
+    /**
+     * Execute the given callable on a node; its result can be retrieved with {@link NodeArrayFuture#getResult(String)}.
+     */
+    public <T> NodeArrayFuture<T> callOn(String id, NodeCallable<T> nodeCallable)
+    {
+        return callAsync(Set.of(id), new ExecuteNodeCallableCommand(nodeCallable));
+    }
+
+    /**
+     * Execute the given callable on some nodes; their results can be retrieved with {@link NodeArrayFuture#getResults()}.
+     */
+    public <T> NodeArrayFuture<T> callOn(Set<String> ids, NodeCallable<T> nodeCallable)
+    {
+        return callAsync(ids, new ExecuteNodeCallableCommand(nodeCallable));
+    }
+
+    /**
+     * Execute the given callable on all nodes; their results can be retrieved with {@link NodeArrayFuture#getResults()}.
+     */
+    public <T> NodeArrayFuture<T> callOnAll(NodeCallable<T> nodeCallable)
+    {
+        return callAsync(nodes.keySet(), new ExecuteNodeCallableCommand(nodeCallable));
+    }
+
+    /**
+     * Execute the given callable on all nodes and combine their results into a single one, without time limit.
+     * @see #reduce(NodeCallable, NodeCombiner, long, TimeUnit)
+     */
+    public <T> CompletableFuture<T> reduce(NodeCallable<T> nodeCallable, NodeCombiner<T> nodeCombiner)
+    {
+        return reduce(nodeCallable, nodeCombiner, -1L, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Execute the given callable on all nodes and combine their results into a single one.
+     * Each host combines the results of its own nodes first and only sends that partial result back,
+     * so the number of results that reach the cluster is the number of hosts, not the number of nodes.
+     * @param timeout how long each host waits for the results of its nodes before failing the reduction, or a negative value for no limit.
+     * @return a future completed with the combined result.
+     */
+    public <T> CompletableFuture<T> reduce(NodeCallable<T> nodeCallable, NodeCombiner<T> nodeCombiner, long timeout, TimeUnit unit)
+    {
+        long timeoutMillis = timeout < 0 ? -1L : unit.toMillis(timeout);
+        Map<GlobalNodeId, List<String>> nodeIdsPerHost = new HashMap<>();
+        for (Node node : nodes.values())
+        {
+            GlobalNodeId globalNodeId = node.globalNodeId;
+            nodeIdsPerHost.computeIfAbsent(globalNodeId.getHostGlobalId(), k -> new ArrayList<>()).add(globalNodeId.getNodeId());
+        }
+
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (Map.Entry<GlobalNodeId, List<String>> entry : nodeIdsPerHost.entrySet())
         {
-            Node node = nodes.get(id);
             try
             {
-                CompletableFuture<Object> future = node.rpcClient.callAsync(new ExecuteNodeJobCommand(nodeJob));
-                futures.put(id, future);
+                futures.add(hostRpcClients.get(entry.getKey()).callAsync(new ReduceOnHostCommand(entry.getValue(), nodeCallable, nodeCombiner, timeoutMillis)));
             }
             catch (Exception e)
             {
-                CompletableFuture<Object> future = new CompletableFuture<>();
-                future.completeExceptionally(e);
-                futures.put(id, future);
+                futures.add(CompletableFuture.failedFuture(e));
             }
         }
-        return new NodeArrayFuture(futures);
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(ignored ->
+        {
+            T result = null;
+            boolean combined = false;
+            for (CompletableFuture<Object> future : futures)
+            {
+                @SuppressWarnings("unchecked")
+                T hostResult = (T)future.join();
+                try
+                {
+                    result = combined ? nodeCombiner.combine(result, hostResult) : hostResult;
+                }
+                catch (Exception e)
+                {
+                    throw new CompletionException(e);
+                }
+                combined = true;
+            }
+            return result;
+        });
     }
 
-    public NodeArrayFuture executeOnAll(NodeJob nodeJob)
+    /**
+     * Deploy a function to all nodes once so that it can then be invoked many times through the returned handle,
+     * which only sends the function's name and argument instead of the serialized function with everything it captured.
+     * Registering another function under the same name replaces it.
+     */
+    public <A, T> NodeFunctionHandle<A, T> register(String name, NodeFunction<A, T> nodeFunction) throws ExecutionException
     {
+        // Wait for the nodes to have the function as commands are executed concurrently, in no particular order.
+        callAsync(nodes.keySet(), new RegisterNodeFunctionCommand(name, nodeFunction)).get();
+        return new NodeFunctionHandle<>(this, name);
+    }
+
+    <T> NodeArrayFuture<T> callAsync(Set<String> ids, Command command)
+    {
+        Set<String> missingIds = new HashSet<>(ids);
+        missingIds.removeAll(nodes.keySet());
+        if (!missingIds.isEmpty())
+            throw new IllegalArgumentException("No such node with ID " + missingIds);
+
         Map<String, CompletableFuture<Object>> futures = new HashMap<>();
-        for (Map.Entry<String, Node> entry : nodes.entrySet())
+        for (String id : ids)
         {
-            String nodeId = entry.getKey();
-            Node node = entry.getValue();
+            Node node = nodes.get(id);
             try
             {
-                CompletableFuture<Object> future = node.rpcClient.callAsync(new ExecuteNodeJobCommand(nodeJob));
-                futures.put(nodeId, future);
+                CompletableFuture<Object> future = node.rpcClient.callAsync(command);
+                futures.put(id, future);
             }
             catch (Exception e)
             {
                 CompletableFuture<Object> future = new CompletableFuture<>();
                 future.completeExceptionally(e);
-                futures.put(nodeId, future);
+                futures.put(id, future);
             }
         }
-        return new NodeArrayFuture(futures);
+        return new NodeArrayFuture<>(futures);
     }
 
     static class Node implements AutoCloseable
@@ -156,9 +272,14 @@ public class NodeArray
             return nodeProcess;
         }
 
-        void selfCheck() throws Exception
+        CompletableFuture<Object> selfCheckAsync() throws Exception
+        {
+            return rpcClient.callAsync(new CheckNodeCommand(nodeProcess));
+        }
+
+        CompletableFuture<Object> startupTimelineAsync() throws Exception
         {
-            rpcClient.call(new CheckNodeCommand(nodeProcess), 10, TimeUnit.SECONDS);
+            return rpcClient.callAsync(new GetStartupTimelineCommand());
         }
 
         @Override
@@ -14,6 +14,7 @@
 package org.mortbay.jetty.orchestrator;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -24,7 +25,11 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
-public class NodeArrayFuture
+/**
+ * The pending executions of a job on the nodes of a {@link NodeArray}.
+ * @param <T> the type of the per-node results, {@link Void} for {@link NodeJob}s.
+ */
+public class NodeArrayFuture<T>
 {
     private final Map<String, CompletableFuture<Object>> futures;
 
@@ -105,6 +110,49 @@ public class NodeArrayFuture
         }
     }
 
+    /**
+     * Wait for the given node to be done and return its result.
+     */
+    public T getResult(String id) throws ExecutionException
+    {
+        CompletableFuture<Object> future = futures.get(id);
+        if (future == null)
+            throw new IllegalArgumentException("No such node with ID " + id);
+        new NodeArrayFuture<T>(Map.of(id, future)).get();
+        return cast(future.getNow(null));
+    }
+
+    /**
+     * Wait for all nodes to be done and return their results, keyed by node ID.
+     */
+    public Map<String, T> getResults(long timeout, TimeUnit unit) throws ExecutionException, TimeoutException
+    {
+        get(timeout, unit);
+        return collectResults();
+    }
+
+    /**
+     * Wait for all nodes to be done and return their results, keyed by node ID.
+     */
+    public Map<String, T> getResults() throws ExecutionException
+    {
+        get();
+        return collectResults();
+    }
+
+    private Map<String, T> collectResults()
+    {
+        Map<String, T> results = new HashMap<>();
+        futures.forEach((id, f) -> results.put(id, cast(f.getNow(null))));
+        return results;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T cast(Object result)
+    {
+        return (T)result;
+    }
+
     public Set<String> getAllNodeIds()
     {
         return futures.keySet();
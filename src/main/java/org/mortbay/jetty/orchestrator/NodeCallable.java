@@ -0,0 +1,26 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator;
+
+import java.io.Serializable;
+
+/**
+ * A {@link NodeJob} that produces a result, which is serialized back to the caller.
+ * @param <T> the type of the result, must be serializable.
+ */
+@FunctionalInterface
+public interface NodeCallable<T> extends Serializable
+{
+    T call(ClusterTools env) throws Exception;
+}
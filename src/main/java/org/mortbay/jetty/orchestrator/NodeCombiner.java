@@ -0,0 +1,28 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator;
+
+import java.io.Serializable;
+
+/**
+ * Merges two results of a {@link NodeCallable} into one, used by
+ * {@link NodeArray#reduce(NodeCallable, NodeCombiner)}.
+ * Results get combined in no particular order, so the operation must be associative and commutative.
+ * @param <T> the type of the results.
+ */
+@FunctionalInterface
+public interface NodeCombiner<T> extends Serializable
+{
+    T combine(T left, T right) throws Exception;
+}
@@ -0,0 +1,97 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.mortbay.jetty.orchestrator.rpc.command.InvokeNodeFunctionCommand;
+import org.mortbay.jetty.orchestrator.rpc.command.RegisterNodeFunctionCommand;
+
+/**
+ * A {@link NodeFunction} deployed on all the nodes of a {@link NodeArray}. Invoking it only sends
+ * its name and the argument to the nodes, which keep the function deserialized until it gets unregistered.
+ * @param <A> the type of the argument.
+ * @param <T> the type of the result.
+ * @see NodeArray#register(String, NodeFunction)
+ */
+public class NodeFunctionHandle<A, T>
+{
+    private final NodeArray nodeArray;
+    private final String name;
+
+    NodeFunctionHandle(NodeArray nodeArray, String name)
+    {
+        this.nodeArray = nodeArray;
+        this.name = name;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public NodeArrayFuture<T> executeOn(String id, A argument)
+    {
+        return nodeArray.callAsync(Set.of(id), new InvokeNodeFunctionCommand(name, argument));
+    }
+
+    public NodeArrayFuture<T> executeOn(Set<String> ids, A argument)
+    {
+        return nodeArray.callAsync(ids, new InvokeNodeFunctionCommand(name, argument));
+    }
+
+    public NodeArrayFuture<T> executeOnAll(A argument)
+    {
+        return nodeArray.callAsync(nodeArray.ids(), new InvokeNodeFunctionCommand(name, argument));
+    }
+
+    /**
+     * Invoke the function on all nodes and combine their results.
+     * @see NodeArray#reduce(NodeCallable, NodeCombiner)
+     */
+    public CompletableFuture<T> reduce(A argument, NodeCombiner<T> nodeCombiner)
+    {
+        return reduce(argument, nodeCombiner, -1L, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Invoke the function on all nodes and combine their results.
+     * @see NodeArray#reduce(NodeCallable, NodeCombiner, long, TimeUnit)
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<T> reduce(A argument, NodeCombiner<T> nodeCombiner, long timeout, TimeUnit unit)
+    {
+        // Only capture the name and argument, not this handle.
+        String name = this.name;
+        return nodeArray.reduce(tools -> (T)InvokeNodeFunctionCommand.invoke(tools, name, argument), nodeCombiner, timeout, unit);
+    }
+
+    /**
+     * Remove the function from all nodes.
+     */
+    public NodeArrayFuture<Void> unregister()
+    {
+        return nodeArray.callAsync(nodeArray.ids(), new RegisterNodeFunctionCommand(name, null));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "NodeFunctionHandle{" +
+            "name='" + name + '\'' +
+            '}';
+    }
+}
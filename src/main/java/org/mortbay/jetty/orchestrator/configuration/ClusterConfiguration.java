@@ -22,4 +22,29 @@ public interface ClusterConfiguration
     HostLauncher hostLauncher();
     long healthCheckTimeout();
     long healthCheckDelay();
+
+    /**
+     * @return true to detect dead nodes with ZooKeeper ephemeral znodes instead of periodic health check RPCs.
+     */
+    default boolean ephemeralLiveness()
+    {
+        return false;
+    }
+
+    /**
+     * @return true to only copy the classes nodes need to start to the hosts and have the nodes load everything else
+     * from the cluster when they first need it, instead of copying the whole classpath upfront.
+     */
+    default boolean remoteClassLoading()
+    {
+        return false;
+    }
+
+    /**
+     * @return the files to collect from the nodes when the cluster gets closed, or null to collect nothing.
+     */
+    default Harvest harvest()
+    {
+        return null;
+    }
 }
@@ -0,0 +1,156 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.configuration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mortbay.jetty.orchestrator.util.IOUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single thread multiplexing the local sockets of all the forwarded SSH tunnels of a launcher.
+ */
+class ForwardingSelector implements AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ForwardingSelector.class);
+    private static final AtomicInteger ID_GENERATOR = new AtomicInteger();
+    static final int BUFFER_SIZE = 32 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final long PAUSED_POLL_MILLIS = 10L;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+    private final Set<NioRemotePortForwarder.TunnelChannel> paused = ConcurrentHashMap.newKeySet();
+    // Heap buffer as the sshj channel streams only accept byte arrays.
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private volatile boolean closed;
+
+    ForwardingSelector() throws IOException
+    {
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, "ssh-forwarding-" + ID_GENERATOR.incrementAndGet());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void execute(Runnable task)
+    {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    ByteBuffer acquireBuffer()
+    {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null)
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        pooledBuffers.decrementAndGet();
+        return buffer;
+    }
+
+    void releaseBuffer(ByteBuffer buffer)
+    {
+        buffer.clear();
+        if (pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS)
+            bufferPool.add(buffer);
+        else
+            pooledBuffers.decrementAndGet();
+    }
+
+    ByteBuffer readBuffer()
+    {
+        return readBuffer;
+    }
+
+    Selector selector()
+    {
+        return selector;
+    }
+
+    /**
+     * Stop reading from the tunnel's socket until the remote SSH window opens up again.
+     */
+    void pause(NioRemotePortForwarder.TunnelChannel tunnel)
+    {
+        paused.add(tunnel);
+    }
+
+    private void run()
+    {
+        while (!closed)
+        {
+            try
+            {
+                selector.select(paused.isEmpty() ? 0L : PAUSED_POLL_MILLIS);
+                Runnable task;
+                while ((task = tasks.poll()) != null)
+                    task.run();
+
+                for (NioRemotePortForwarder.TunnelChannel tunnel : paused)
+                {
+                    if (tunnel.tryResume())
+                        paused.remove(tunnel);
+                }
+
+                Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                for (SelectionKey key : selectedKeys)
+                {
+                    NioRemotePortForwarder.TunnelChannel tunnel = (NioRemotePortForwarder.TunnelChannel)key.attachment();
+                    try
+                    {
+                        if (key.isValid() && key.isWritable())
+                            tunnel.onWritable();
+                        if (key.isValid() && key.isReadable())
+                            tunnel.onReadable();
+                    }
+                    catch (CancelledKeyException e)
+                    {
+                        // tunnel got closed concurrently
+                    }
+                }
+                selectedKeys.clear();
+            }
+            catch (Throwable x)
+            {
+                if (closed)
+                    break;
+                LOG.warn("Error in SSH forwarding selector loop", x);
+            }
+        }
+        for (SelectionKey key : selector.keys())
+            IOUtil.close(key.channel());
+        IOUtil.close(selector);
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        closed = true;
+        selector.wakeup();
+        thread.join(1000);
+    }
+}
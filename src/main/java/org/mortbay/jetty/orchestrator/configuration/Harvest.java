@@ -0,0 +1,111 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.configuration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mortbay.jetty.orchestrator.nodefs.DownloadOptions;
+
+/**
+ * Files to collect from the nodes when the cluster gets closed, before their directories are deleted.
+ * The files of each node are copied to {@code <directory>/<cluster id>/<node array id>/<node id>},
+ * with the nodes being harvested in parallel.
+ */
+public class Harvest
+{
+    private final String directory;
+    private final Map<String, List<String>> nodeArrayGlobs = new LinkedHashMap<>();
+    private int parallelism = 8;
+    private DownloadOptions downloadOptions = new DownloadOptions().archiveSmallFiles(true).compress(true);
+
+    /**
+     * @param directory the local directory to copy the files to.
+     */
+    public Harvest(String directory)
+    {
+        this.directory = directory;
+    }
+
+    public String getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Collect the files of the nodes of the given array whose path relative to the node's root path
+     * matches one of the given glob patterns, e.g. {@code "*.log"} or {@code "reports/*.hlog"}.
+     * @see DownloadOptions#include(String...)
+     */
+    public Harvest nodeArray(String nodeArrayId, String... globs)
+    {
+        if (globs.length == 0)
+            throw new IllegalArgumentException("At least one glob pattern is needed");
+        nodeArrayGlobs.put(nodeArrayId, Arrays.asList(globs.clone()));
+        return this;
+    }
+
+    /**
+     * @return the glob patterns keyed by node array ID.
+     */
+    public Map<String, List<String>> getNodeArrayGlobs()
+    {
+        return Collections.unmodifiableMap(nodeArrayGlobs);
+    }
+
+    /**
+     * @param parallelism how many nodes are harvested at the same time.
+     */
+    public Harvest parallelism(int parallelism)
+    {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * @param downloadOptions how the files of a node are transferred; by default the small ones are
+     * transferred as a single compressed archive. The include patterns are replaced by the ones of the node array.
+     */
+    public Harvest downloadOptions(DownloadOptions downloadOptions)
+    {
+        this.downloadOptions = downloadOptions;
+        return this;
+    }
+
+    public DownloadOptions getDownloadOptions()
+    {
+        return downloadOptions;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Harvest{" +
+            "directory='" + directory + '\'' +
+            ", nodeArrayGlobs=" + nodeArrayGlobs +
+            ", parallelism=" + parallelism +
+            ", downloadOptions=" + downloadOptions +
+            '}';
+    }
+}
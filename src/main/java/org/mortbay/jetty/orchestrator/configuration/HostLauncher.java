@@ -14,6 +14,7 @@
 package org.mortbay.jetty.orchestrator.configuration;
 
 import org.mortbay.jetty.orchestrator.rpc.GlobalNodeId;
+import org.mortbay.jetty.orchestrator.util.StartupTimeline;
 
 public interface HostLauncher extends AutoCloseable
 {
@@ -21,4 +22,14 @@ public interface HostLauncher extends AutoCloseable
      * @return the modified {@code connectString} that nodes running on this host must connect to.
      */
     String launch(GlobalNodeId hostId, String connectString, String... extraArgs) throws Exception;
+
+    /**
+     * Same as {@link #launch(GlobalNodeId, String, String...)} but records the duration of each launch phase
+     * in the given timeline. Launchers that do not break their launch down into phases do not need to override this.
+     * @return the modified {@code connectString} that nodes running on this host must connect to.
+     */
+    default String launch(GlobalNodeId hostId, String connectString, StartupTimeline startupTimeline, String... extraArgs) throws Exception
+    {
+        return launch(hostId, connectString, extraArgs);
+    }
 }
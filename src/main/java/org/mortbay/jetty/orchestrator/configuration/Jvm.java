@@ -24,6 +24,7 @@ public class Jvm implements Serializable
 {
     private final FilenameSupplier executableSupplier;
     private final List<String> opts;
+    private boolean appCds;
 
     public Jvm(FilenameSupplier executableSupplier, String... opts)
     {
@@ -40,4 +41,23 @@ public class Jvm implements Serializable
     {
         return opts;
     }
+
+    /**
+     * Opt into an application class-data-sharing archive for the node JVMs.
+     * The archive is dumped on each host by the first node that exits, keyed by
+     * the JVM executable and version, its options and the node classpath, then reused
+     * by all later nodes spawned with that same JVM and classpath. Requires JDK 13 or
+     * later on the hosts, older JVMs simply ignore it. Note that enabling this
+     * makes the classpath directories get packed into jars before being used.
+     */
+    public Jvm appCds(boolean appCds)
+    {
+        this.appCds = appCds;
+        return this;
+    }
+
+    public boolean isAppCds()
+    {
+        return appCds;
+    }
 }
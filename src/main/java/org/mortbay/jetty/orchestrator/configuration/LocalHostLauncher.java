@@ -18,12 +18,14 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import org.mortbay.jetty.orchestrator.nodefs.NodeFileSystemProvider;
 import org.mortbay.jetty.orchestrator.rpc.GlobalNodeId;
 import org.mortbay.jetty.orchestrator.rpc.NodeProcess;
 import org.mortbay.jetty.orchestrator.util.IOUtil;
+import org.mortbay.jetty.orchestrator.util.StartupTimeline;
 
 public class LocalHostLauncher implements HostLauncher
 {
@@ -35,6 +37,12 @@ public class LocalHostLauncher implements HostLauncher
 
     @Override
     public String launch(GlobalNodeId globalNodeId, String connectString, String... extraArgs) throws Exception
+    {
+        return launch(globalNodeId, connectString, new StartupTimeline(), extraArgs);
+    }
+
+    @Override
+    public String launch(GlobalNodeId globalNodeId, String connectString, StartupTimeline startupTimeline, String... extraArgs) throws Exception
     {
         lock.lock();
         try
@@ -48,25 +56,30 @@ public class LocalHostLauncher implements HostLauncher
                 throw new IllegalStateException("local launcher already spawned 'localhost' thread");
             this.nodeId = nodeId;
 
-            String[] classpathEntries = System.getProperty("java.class.path").split(File.pathSeparator);
-            for (String classpathEntry : classpathEntries)
+            List<String> classpathEntries = NodeProcess.classPathToCopy(extraArgs);
+            try (StartupTimeline.Phase phase = startupTimeline.begin(HOSTNAME, "classpath-copy"))
             {
-                File cpFile = new File(classpathEntry);
-                if (cpFile.isDirectory())
-                {
-                    copyDir(nodeId.getHostId(), cpFile, 1);
-                }
-                else
+                long[] copied = new long[2]; // files, bytes
+                for (String classpathEntry : classpathEntries)
                 {
-                    String filename = cpFile.getName();
-                    try (InputStream is = new FileInputStream(cpFile))
+                    File cpFile = new File(classpathEntry);
+                    if (cpFile.isDirectory())
+                    {
+                        copyDir(nodeId.getHostId(), cpFile, 1, copied);
+                    }
+                    else
                     {
-                        copyFile(nodeId.getHostId(), filename, is);
+                        String filename = cpFile.getName();
+                        try (InputStream is = new FileInputStream(cpFile))
+                        {
+                            copyFile(nodeId.getHostId(), filename, is, cpFile.lastModified(), copied);
+                        }
                     }
                 }
+                phase.attribute("files", copied[0]).attribute("bytes", copied[1]);
             }
 
-            try
+            try (StartupTimeline.Phase ignored = startupTimeline.begin(HOSTNAME, "thread-start"))
             {
                 this.thread = NodeProcess.spawnThread(nodeId.getHostId(), connectString, extraArgs);
             }
@@ -96,12 +109,10 @@ public class LocalHostLauncher implements HostLauncher
 
                 File rootPath = rootPathOf(nodeId.getHostId());
                 File parentPath = rootPath.getParentFile();
-                if (!skipDiskCleanup() && IOUtil.deltree(rootPath) && parentPath != null)
-                {
-                    String[] files = parentPath.list();
-                    if (files != null && files.length == 0)
-                        IOUtil.deltree(parentPath);
-                }
+                // Removing a folder only succeeds when it is empty, so this cannot race with nodes of the same cluster
+                // still creating their own folders in it.
+                if (!skipDiskCleanup() && IOUtil.deltreeInBackground(rootPath, NodeProcess.tombstonesPath()) && parentPath != null)
+                    parentPath.delete();
                 nodeId = null;
             }
         }
@@ -116,7 +127,7 @@ public class LocalHostLauncher implements HostLauncher
         return new File(System.getProperty("user.home") + "/." + NodeFileSystemProvider.PREFIX + "/" + hostId);
     }
 
-    private static void copyFile(String hostId, String filename, InputStream contents) throws Exception
+    private static void copyFile(String hostId, String filename, InputStream contents, long lastModified, long[] copied) throws Exception
     {
         File rootPath = rootPathOf(hostId);
         File libPath = new File(rootPath, NodeProcess.CLASSPATH_FOLDER_NAME);
@@ -127,9 +138,13 @@ public class LocalHostLauncher implements HostLauncher
         {
             IOUtil.copy(contents, fos);
         }
+        // Keep the original timestamp so that an AppCDS archive built off this classpath stays valid across runs.
+        file.setLastModified(lastModified);
+        copied[0]++;
+        copied[1] += file.length();
     }
 
-    private static void copyDir(String hostId, File cpFile, int depth) throws Exception
+    private static void copyDir(String hostId, File cpFile, int depth, long[] copied) throws Exception
     {
         File[] files = cpFile.listFiles();
         if (files == null)
@@ -139,7 +154,7 @@ public class LocalHostLauncher implements HostLauncher
         {
             if (file.isDirectory())
             {
-                copyDir(hostId, file, depth + 1);
+                copyDir(hostId, file, depth + 1, copied);
             }
             else
             {
@@ -153,7 +168,7 @@ public class LocalHostLauncher implements HostLauncher
                 }
                 try (InputStream is = new FileInputStream(file))
                 {
-                    copyFile(hostId, filename, is);
+                    copyFile(hostId, filename, is, file.lastModified(), copied);
                 }
             }
         }
@@ -0,0 +1,393 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.configuration;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Map;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.common.Buffer;
+import net.schmizz.sshj.common.Message;
+import net.schmizz.sshj.common.SSHException;
+import net.schmizz.sshj.common.SSHPacket;
+import net.schmizz.sshj.connection.Connection;
+import net.schmizz.sshj.connection.ConnectionException;
+import net.schmizz.sshj.connection.channel.ChannelInputStream;
+import net.schmizz.sshj.connection.channel.OpenFailException;
+import net.schmizz.sshj.connection.channel.forwarded.ConnectListener;
+import net.schmizz.sshj.connection.channel.forwarded.ForwardedChannelOpener;
+import net.schmizz.sshj.connection.channel.forwarded.RemotePortForwarder;
+import net.schmizz.sshj.transport.TransportException;
+import org.mortbay.jetty.orchestrator.util.IOUtil;
+
+/**
+ * A {@link RemotePortForwarder} whose channels hand their data straight to a non-blocking socket
+ * instead of buffering it in a stream that a dedicated thread has to drain.
+ */
+class NioRemotePortForwarder extends RemotePortForwarder
+{
+    private NioRemotePortForwarder(Connection conn)
+    {
+        super(conn);
+    }
+
+    /**
+     * Install this forwarder on the given client, unless a forwarder is already installed.
+     * Must be called before {@link SSHClient#getRemotePortForwarder()} for it to return this forwarder.
+     */
+    static RemotePortForwarder install(SSHClient sshClient)
+    {
+        Connection conn = sshClient.getConnection();
+        synchronized (conn)
+        {
+            ForwardedChannelOpener opener = conn.get(ForwardedTCPIPChannel.TYPE);
+            if (opener == null)
+                conn.attach(opener = new NioRemotePortForwarder(conn));
+            return (RemotePortForwarder)opener;
+        }
+    }
+
+    @Override
+    public void handleOpen(SSHPacket buf) throws ConnectionException, TransportException
+    {
+        TunnelChannel chan;
+        try
+        {
+            chan = new TunnelChannel(conn, buf.readUInt32AsInt(), buf.readUInt32(), buf.readUInt32(),
+                new Forward(buf.readString(), buf.readUInt32AsInt()),
+                buf.readString(), buf.readUInt32AsInt());
+        }
+        catch (Buffer.BufferException be)
+        {
+            throw new ConnectionException(be);
+        }
+
+        ConnectListener listener = null;
+        for (Map.Entry<Forward, ConnectListener> entry : listeners.entrySet())
+        {
+            if (entry.getKey().getPort() == chan.getParentForward().getPort())
+                listener = entry.getValue();
+        }
+        if (listener == null)
+        {
+            chan.reject(OpenFailException.Reason.ADMINISTRATIVELY_PROHIBITED, "Forwarding was not requested on `" + chan.getParentForward() + "`");
+            return;
+        }
+
+        // The listener only connects a local socket, so call it directly rather than from a new thread.
+        try
+        {
+            listener.gotConnect(chan);
+        }
+        catch (IOException e)
+        {
+            log.warn("In callback to {}: {}", listener, e.toString());
+            if (chan.isOpen())
+                chan.closeQuietly();
+            else
+                chan.reject(OpenFailException.Reason.CONNECT_FAILED, "");
+        }
+    }
+
+    /**
+     * A forwarded channel bridged to a local non-blocking socket served by a {@link ForwardingSelector}.
+     * Incoming data is written to the socket from the transport reader thread; whatever the socket
+     * cannot take right away is queued in pooled buffers and the local window is only re-opened
+     * once the queue is flushed, so a slow socket pushes back on the remote end.
+     */
+    static class TunnelChannel extends ForwardedTCPIPChannel
+    {
+        private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+        private ForwardingSelector forwardingSelector;
+        private SocketChannel socketChannel;
+        private SelectionKey key;
+        private boolean remoteEof;
+        private boolean localEof;
+        private boolean closed;
+
+        private TunnelChannel(Connection conn, int recipient, long remoteWinSize, long remoteMaxPacketSize, Forward fwd, String origIP, int origPort)
+        {
+            super(conn, recipient, remoteWinSize, remoteMaxPacketSize, fwd, origIP, origPort);
+        }
+
+        /**
+         * Start shuttling bytes between this channel and the given connected socket.
+         */
+        void bridge(ForwardingSelector forwardingSelector, SocketChannel socketChannel) throws IOException
+        {
+            socketChannel.configureBlocking(false);
+            synchronized (this)
+            {
+                this.forwardingSelector = forwardingSelector;
+                this.socketChannel = socketChannel;
+            }
+            forwardingSelector.execute(() ->
+            {
+                try
+                {
+                    synchronized (this)
+                    {
+                        if (closed)
+                            return;
+                        key = socketChannel.register(forwardingSelector.selector(), pending.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+                    }
+                }
+                catch (IOException e)
+                {
+                    log.debug("Error registering tunnel socket {}", socketChannel, e);
+                    closeQuietly();
+                }
+            });
+        }
+
+        @Override
+        protected void receiveInto(ChannelInputStream stream, SSHPacket buf) throws SSHException
+        {
+            int len;
+            try
+            {
+                len = buf.readUInt32AsInt();
+            }
+            catch (Buffer.BufferException be)
+            {
+                throw new ConnectionException(be);
+            }
+            if (len < 0 || len > getLocalMaxPacketSize() || len > buf.available())
+                throw new ConnectionException("Bad item length: " + len);
+            lwin.consume(len);
+
+            synchronized (this)
+            {
+                if (closed)
+                    return;
+                ByteBuffer data = ByteBuffer.wrap(buf.array(), buf.rpos(), len);
+                if (pending.isEmpty())
+                {
+                    try
+                    {
+                        socketChannel.write(data);
+                    }
+                    catch (IOException e)
+                    {
+                        log.debug("Error writing to tunnel socket {}", socketChannel, e);
+                        closeQuietly();
+                        return;
+                    }
+                }
+                while (data.hasRemaining())
+                {
+                    ByteBuffer buffer = forwardingSelector.acquireBuffer();
+                    int chunk = Math.min(buffer.remaining(), data.remaining());
+                    ByteBuffer slice = data.slice();
+                    slice.limit(chunk);
+                    buffer.put(slice).flip();
+                    data.position(data.position() + chunk);
+                    pending.add(buffer);
+                }
+                if (pending.isEmpty())
+                    adjustWindow();
+                else
+                    updateInterest();
+            }
+        }
+
+        void onWritable()
+        {
+            synchronized (this)
+            {
+                try
+                {
+                    while (!pending.isEmpty())
+                    {
+                        ByteBuffer buffer = pending.peek();
+                        socketChannel.write(buffer);
+                        if (buffer.hasRemaining())
+                            return;
+                        forwardingSelector.releaseBuffer(pending.poll());
+                    }
+                    adjustWindow();
+                    if (remoteEof)
+                        socketChannel.shutdownOutput();
+                    updateInterest();
+                }
+                catch (IOException e)
+                {
+                    log.debug("Error flushing to tunnel socket {}", socketChannel, e);
+                    closeQuietly();
+                }
+            }
+        }
+
+        void onReadable()
+        {
+            long remoteWindow = getRemoteWinSize();
+            if (remoteWindow <= 0)
+            {
+                pauseReading();
+                return;
+            }
+            ByteBuffer readBuffer = forwardingSelector.readBuffer();
+            readBuffer.clear();
+            readBuffer.limit((int)Math.min(readBuffer.capacity(), Math.min(remoteWindow, getRemoteMaxPacketSize())));
+            try
+            {
+                int read = socketChannel.read(readBuffer);
+                if (read < 0)
+                {
+                    synchronized (this)
+                    {
+                        localEof = true;
+                        updateInterest();
+                    }
+                    getOutputStream().close(); // sends EOF
+                    return;
+                }
+                if (read > 0)
+                {
+                    // The write cannot block as it never exceeds the remote window.
+                    OutputStream out = getOutputStream();
+                    out.write(readBuffer.array(), 0, read);
+                    out.flush();
+                }
+            }
+            catch (IOException e)
+            {
+                log.debug("Error reading from tunnel socket {}", socketChannel, e);
+                closeQuietly();
+            }
+        }
+
+        boolean tryResume()
+        {
+            synchronized (this)
+            {
+                if (closed)
+                    return true;
+                if (getRemoteWinSize() <= 0)
+                    return false;
+                updateInterest();
+                return true;
+            }
+        }
+
+        private void pauseReading()
+        {
+            synchronized (this)
+            {
+                if (key != null && key.isValid())
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            forwardingSelector.pause(this);
+        }
+
+        private void updateInterest()
+        {
+            if (key == null || !key.isValid())
+                return;
+            int ops = 0;
+            if (!localEof)
+                ops |= SelectionKey.OP_READ;
+            if (!pending.isEmpty())
+                ops |= SelectionKey.OP_WRITE;
+            key.interestOps(ops);
+            key.selector().wakeup();
+        }
+
+        private void adjustWindow()
+        {
+            try
+            {
+                synchronized (lwin)
+                {
+                    long adjustment = lwin.neededAdjustment();
+                    if (adjustment > 0)
+                    {
+                        trans.write(new SSHPacket(Message.CHANNEL_WINDOW_ADJUST).putUInt32FromInt(getRecipient()).putUInt32(adjustment));
+                        lwin.expand(adjustment);
+                    }
+                }
+            }
+            catch (TransportException e)
+            {
+                log.debug("Error adjusting window of {}", this, e);
+            }
+        }
+
+        @Override
+        protected void eofInputStreams()
+        {
+            super.eofInputStreams();
+            synchronized (this)
+            {
+                remoteEof = true;
+                if (socketChannel != null && pending.isEmpty())
+                {
+                    try
+                    {
+                        socketChannel.shutdownOutput();
+                    }
+                    catch (IOException e)
+                    {
+                        log.debug("Error shutting down output of tunnel socket {}", socketChannel, e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void closeAllStreams()
+        {
+            super.closeAllStreams();
+            synchronized (this)
+            {
+                closeSocket();
+            }
+        }
+
+        private void closeQuietly()
+        {
+            synchronized (this)
+            {
+                closeSocket();
+            }
+            try
+            {
+                // Do not wait for the remote end to acknowledge as this runs on the selector or the transport thread.
+                sendClose();
+            }
+            catch (TransportException e)
+            {
+                log.debug("Error closing {}", this, e);
+            }
+        }
+
+        private void closeSocket()
+        {
+            if (closed)
+                return;
+            closed = true;
+            if (key != null)
+                key.cancel();
+            IOUtil.close(socketChannel);
+            ByteBuffer buffer;
+            while ((buffer = pending.poll()) != null)
+                forwardingSelector.releaseBuffer(buffer);
+        }
+    }
+}
@@ -20,4 +20,28 @@ public interface NodeArrayConfiguration
     String id();
     Jvm jvm();
     Collection<Node> nodes();
+
+    /**
+     * @return true to have each line of the nodes' output prefixed with the ID of the node that printed it.
+     */
+    default boolean prefixOutput()
+    {
+        return false;
+    }
+
+    /**
+     * @return how to capture the nodes' output to files, or null to stream it all to the driver.
+     */
+    default OutputCapture outputCapture()
+    {
+        return null;
+    }
+
+    /**
+     * @return how to collapse the identical lines printed by the nodes, or null to print them all.
+     */
+    default OutputAggregation outputAggregation()
+    {
+        return null;
+    }
 }
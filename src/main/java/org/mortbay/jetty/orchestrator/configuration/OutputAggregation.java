@@ -0,0 +1,68 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.configuration;
+
+import java.io.Serializable;
+
+/**
+ * Makes the hosts collapse the identical lines printed by their nodes within a short window
+ * into a single line carrying the number of occurrences, e.g. {@code [x500] warmup done},
+ * and limit how many lines per second a single node can print.
+ */
+public class OutputAggregation implements Serializable
+{
+    private long windowMillis = 200L;
+    private int maxLinesPerSecond = 1000;
+
+    /**
+     * @param windowMillis how long a line is held back waiting for identical ones.
+     */
+    public OutputAggregation windowMillis(long windowMillis)
+    {
+        if (windowMillis <= 0)
+            throw new IllegalArgumentException("windowMillis must be positive");
+        this.windowMillis = windowMillis;
+        return this;
+    }
+
+    public long getWindowMillis()
+    {
+        return windowMillis;
+    }
+
+    /**
+     * @param maxLinesPerSecond how many lines a single node may print per second, the excess being dropped.
+     */
+    public OutputAggregation maxLinesPerSecond(int maxLinesPerSecond)
+    {
+        if (maxLinesPerSecond <= 0)
+            throw new IllegalArgumentException("maxLinesPerSecond must be positive");
+        this.maxLinesPerSecond = maxLinesPerSecond;
+        return this;
+    }
+
+    public int getMaxLinesPerSecond()
+    {
+        return maxLinesPerSecond;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "OutputAggregation{" +
+            "windowMillis=" + windowMillis +
+            ", maxLinesPerSecond=" + maxLinesPerSecond +
+            '}';
+    }
+}
@@ -0,0 +1,103 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.configuration;
+
+import java.io.Serializable;
+
+/**
+ * Makes the nodes write their output to rotating files under their root path instead of
+ * streaming all of it to the driver. Each line is timestamped by the host that spawned the node
+ * so that the output of all the nodes can later be merged into a single time-ordered log, see
+ * {@link org.mortbay.jetty.orchestrator.NodeArray#mergeCapturedOutput(java.nio.file.Path)}.
+ */
+public class OutputCapture implements Serializable
+{
+    private long maxFileSize = 10 * 1024 * 1024;
+    private int maxFiles = 5;
+    private String liveFilter;
+    private String mergeOnCloseDirectory;
+
+    /**
+     * @param maxFileSize the size in bytes a file can reach before being rotated.
+     */
+    public OutputCapture maxFileSize(long maxFileSize)
+    {
+        if (maxFileSize < 1)
+            throw new IllegalArgumentException("maxFileSize must be at least 1");
+        this.maxFileSize = maxFileSize;
+        return this;
+    }
+
+    public long getMaxFileSize()
+    {
+        return maxFileSize;
+    }
+
+    /**
+     * @param maxFiles how many files to keep per node, including the one being written to.
+     */
+    public OutputCapture maxFiles(int maxFiles)
+    {
+        if (maxFiles < 1)
+            throw new IllegalArgumentException("maxFiles must be at least 1");
+        this.maxFiles = maxFiles;
+        return this;
+    }
+
+    public int getMaxFiles()
+    {
+        return maxFiles;
+    }
+
+    /**
+     * @param liveFilter a regular expression; the lines in which it is found are also
+     * streamed to the driver's console, e.g. {@code "ERROR|WARN"}. Null streams nothing.
+     */
+    public OutputCapture liveFilter(String liveFilter)
+    {
+        this.liveFilter = liveFilter;
+        return this;
+    }
+
+    public String getLiveFilter()
+    {
+        return liveFilter;
+    }
+
+    /**
+     * @param mergeOnCloseDirectory where to write the merged output of the node array when the cluster
+     * gets closed, as {@code <cluster id>-<node array id>-output.log}. Null does not write anything.
+     */
+    public OutputCapture mergeOnCloseDirectory(String mergeOnCloseDirectory)
+    {
+        this.mergeOnCloseDirectory = mergeOnCloseDirectory;
+        return this;
+    }
+
+    public String getMergeOnCloseDirectory()
+    {
+        return mergeOnCloseDirectory;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "OutputCapture{" +
+            "maxFileSize=" + maxFileSize +
+            ", maxFiles=" + maxFiles +
+            ", liveFilter='" + liveFilter + '\'' +
+            ", mergeOnCloseDirectory='" + mergeOnCloseDirectory + '\'' +
+            '}';
+    }
+}
@@ -25,6 +25,9 @@ public class SimpleClusterConfiguration implements ClusterConfiguration, JvmDepe
     private final Map<String, NodeArrayConfiguration> nodeArrayConfigurations = new HashMap<>();
     private long healthCheckTimeout = 30_000L;
     private long healthCheckDelay = 5000L;
+    private boolean ephemeralLiveness;
+    private boolean remoteClassLoading;
+    private Harvest harvest;
     private HostLauncher hostLauncher = new SshRemoteHostLauncher();
 
     public SimpleClusterConfiguration()
@@ -81,6 +84,42 @@ public class SimpleClusterConfiguration implements ClusterConfiguration, JvmDepe
         return healthCheckDelay;
     }
 
+    public SimpleClusterConfiguration ephemeralLiveness(boolean ephemeralLiveness)
+    {
+        this.ephemeralLiveness = ephemeralLiveness;
+        return this;
+    }
+
+    @Override
+    public boolean ephemeralLiveness()
+    {
+        return ephemeralLiveness;
+    }
+
+    public SimpleClusterConfiguration remoteClassLoading(boolean remoteClassLoading)
+    {
+        this.remoteClassLoading = remoteClassLoading;
+        return this;
+    }
+
+    @Override
+    public boolean remoteClassLoading()
+    {
+        return remoteClassLoading;
+    }
+
+    public SimpleClusterConfiguration harvest(Harvest harvest)
+    {
+        this.harvest = harvest;
+        return this;
+    }
+
+    @Override
+    public Harvest harvest()
+    {
+        return harvest;
+    }
+
     public SimpleClusterConfiguration nodeArray(NodeArrayConfiguration nodeArrayConfiguration)
     {
         String id = nodeArrayConfiguration.id();
@@ -23,6 +23,9 @@ public class SimpleNodeArrayConfiguration implements NodeArrayConfiguration, Jvm
     private final String id;
     private final Map<String, Node> nodes = new HashMap<>();
     private Jvm jvm;
+    private boolean prefixOutput;
+    private OutputCapture outputCapture;
+    private OutputAggregation outputAggregation;
 
     public SimpleNodeArrayConfiguration(String id)
     {
@@ -59,4 +62,40 @@ public class SimpleNodeArrayConfiguration implements NodeArrayConfiguration, Jvm
         this.jvm = jvm;
         return this;
     }
+
+    @Override
+    public boolean prefixOutput()
+    {
+        return prefixOutput;
+    }
+
+    public SimpleNodeArrayConfiguration prefixOutput(boolean prefixOutput)
+    {
+        this.prefixOutput = prefixOutput;
+        return this;
+    }
+
+    @Override
+    public OutputCapture outputCapture()
+    {
+        return outputCapture;
+    }
+
+    public SimpleNodeArrayConfiguration outputCapture(OutputCapture outputCapture)
+    {
+        this.outputCapture = outputCapture;
+        return this;
+    }
+
+    @Override
+    public OutputAggregation outputAggregation()
+    {
+        return outputAggregation;
+    }
+
+    public SimpleNodeArrayConfiguration outputAggregation(OutputAggregation outputAggregation)
+    {
+        this.outputAggregation = outputAggregation;
+        return this;
+    }
 }
@@ -0,0 +1,308 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.configuration;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.sftp.SFTPClient;
+import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
+import org.mortbay.jetty.orchestrator.util.IOUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of authenticated SSH connections, keyed by host, port and username, that can outlive a
+ * {@link org.mortbay.jetty.orchestrator.Cluster}. Share a single instance between the
+ * {@link SshRemoteHostLauncher}s of successive clusters to skip the connect, key exchange,
+ * authentication and OS probe steps when the same hosts are used over and over.
+ * Connections idle for longer than the configured timeout are disconnected.
+ */
+public class SshConnectionPool implements AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SshConnectionPool.class);
+
+    private final Map<Key, Deque<Connection>> idleConnections = new HashMap<>();
+    private final long idleTimeoutMillis;
+    private final ScheduledExecutorService evictor;
+    private boolean closed;
+
+    public SshConnectionPool()
+    {
+        this(5, TimeUnit.MINUTES);
+    }
+
+    public SshConnectionPool(long idleTimeout, TimeUnit unit)
+    {
+        this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread thread = new Thread(r, "ssh-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1L, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hand out a connection authenticated against the given host, reusing an idle one when possible.
+     * The connection must be given back with {@link #release(Connection)} once done with it.
+     */
+    public Connection acquire(String hostname, int port, String username, char[] password) throws IOException
+    {
+        Key key = new Key(hostname, port, username);
+        while (true)
+        {
+            Connection connection;
+            synchronized (this)
+            {
+                if (closed)
+                    throw new IllegalStateException("SSH connection pool is closed");
+                Deque<Connection> deque = idleConnections.get(key);
+                connection = deque == null ? null : deque.pollFirst();
+            }
+            if (connection == null)
+                break;
+            if (connection.isValid())
+            {
+                connection.reused = true;
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Reusing pooled ssh connection to {}", key);
+                return connection;
+            }
+            if (LOG.isDebugEnabled())
+                LOG.debug("Discarding invalid pooled ssh connection to {}", key);
+            connection.disconnect();
+        }
+
+        SSHClient sshClient = new SSHClient();
+        try
+        {
+            sshClient.addHostKeyVerifier(new PromiscuousVerifier()); // or loadKnownHosts() instead?
+            sshClient.connect(hostname, port);
+            if (password == null)
+                sshClient.authPublickey(username); // public key auth
+            else
+                sshClient.authPassword(username, password); // pw auth
+        }
+        catch (IOException e)
+        {
+            IOUtil.close(sshClient);
+            throw e;
+        }
+        if (LOG.isDebugEnabled())
+            LOG.debug("Opened new pooled ssh connection to {}", key);
+        return new Connection(key, sshClient);
+    }
+
+    /**
+     * Give back a connection to the pool. Connections that are not healthy anymore are disconnected instead.
+     */
+    public void release(Connection connection)
+    {
+        if (connection.isValid())
+        {
+            synchronized (this)
+            {
+                if (!closed)
+                {
+                    connection.lastReleased = System.nanoTime();
+                    idleConnections.computeIfAbsent(connection.key, k -> new ArrayDeque<>()).addFirst(connection);
+                    return;
+                }
+            }
+        }
+        connection.disconnect();
+    }
+
+    /**
+     * Disconnect a connection that must not be handed out again, e.g. because it was left in an unknown state.
+     */
+    public void discard(Connection connection)
+    {
+        connection.disconnect();
+    }
+
+    private void evictIdle()
+    {
+        List<Connection> evicted = new ArrayList<>();
+        long now = System.nanoTime();
+        synchronized (this)
+        {
+            for (Iterator<Deque<Connection>> it = idleConnections.values().iterator(); it.hasNext(); )
+            {
+                Deque<Connection> deque = it.next();
+                deque.removeIf(connection ->
+                {
+                    boolean expired = TimeUnit.NANOSECONDS.toMillis(now - connection.lastReleased) > idleTimeoutMillis;
+                    if (expired)
+                        evicted.add(connection);
+                    return expired;
+                });
+                if (deque.isEmpty())
+                    it.remove();
+            }
+        }
+        for (Connection connection : evicted)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Evicting idle ssh connection to {}", connection.key);
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        List<Connection> connections = new ArrayList<>();
+        synchronized (this)
+        {
+            closed = true;
+            idleConnections.values().forEach(connections::addAll);
+            idleConnections.clear();
+        }
+        evictor.shutdownNow();
+        connections.forEach(Connection::disconnect);
+    }
+
+    public static class Connection
+    {
+        private final Key key;
+        private final SSHClient sshClient;
+        private SFTPClient sftpClient;
+        private Boolean windows;
+        private volatile long lastReleased;
+        private volatile boolean reused;
+
+        private Connection(Key key, SSHClient sshClient)
+        {
+            this.key = key;
+            this.sshClient = sshClient;
+        }
+
+        public SSHClient getSshClient()
+        {
+            return sshClient;
+        }
+
+        /**
+         * @return a SFTP session that lives as long as the connection, do not close it.
+         */
+        public synchronized SFTPClient getSftpClient() throws IOException
+        {
+            if (sftpClient == null || !sftpClient.getSFTPEngine().getSubsystem().isOpen())
+                sftpClient = sshClient.newStatefulSFTPClient();
+            return sftpClient;
+        }
+
+        /**
+         * @return whether this connection was handed out before.
+         */
+        public boolean isReused()
+        {
+            return reused;
+        }
+
+        /**
+         * @return the cached result of the OS probe, or null if it has not been done yet.
+         */
+        public Boolean getWindows()
+        {
+            return windows;
+        }
+
+        public void setWindows(Boolean windows)
+        {
+            this.windows = windows;
+        }
+
+        private boolean isValid()
+        {
+            return sshClient.isConnected() && sshClient.isAuthenticated();
+        }
+
+        private void disconnect()
+        {
+            IOUtil.close(sftpClient);
+            try
+            {
+                sshClient.disconnect();
+            }
+            catch (Exception e)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("error disconnecting ssh client {}", sshClient, e);
+            }
+            IOUtil.close(sshClient);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Connection{" +
+                "key=" + key +
+                ", reused=" + reused +
+                '}';
+        }
+    }
+
+    private static class Key
+    {
+        private final String hostname;
+        private final int port;
+        private final String username;
+
+        private Key(String hostname, int port, String username)
+        {
+            this.hostname = hostname;
+            this.port = port;
+            this.username = username;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            Key key = (Key)o;
+            return port == key.port && hostname.equals(key.hostname) && Objects.equals(username, key.username);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(hostname, port, username);
+        }
+
+        @Override
+        public String toString()
+        {
+            return username + "@" + hostname + ":" + port;
+        }
+    }
+}
@@ -19,7 +19,9 @@ import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.net.URI;
+import java.nio.channels.SocketChannel;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.util.ArrayList;
@@ -28,10 +30,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.Connection;
+import net.schmizz.sshj.connection.ConnectionException;
 import net.schmizz.sshj.connection.channel.Channel;
 import net.schmizz.sshj.connection.channel.direct.Session;
 import net.schmizz.sshj.connection.channel.forwarded.ConnectListener;
@@ -41,10 +46,13 @@ import net.schmizz.sshj.sftp.SFTPClient;
 import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
 import net.schmizz.sshj.xfer.FileSystemFile;
 import net.schmizz.sshj.xfer.LocalSourceFile;
+import org.mortbay.jetty.orchestrator.nodefs.NodeFileCache;
 import org.mortbay.jetty.orchestrator.nodefs.NodeFileSystemProvider;
 import org.mortbay.jetty.orchestrator.rpc.GlobalNodeId;
 import org.mortbay.jetty.orchestrator.rpc.NodeProcess;
 import org.mortbay.jetty.orchestrator.util.IOUtil;
+import org.mortbay.jetty.orchestrator.util.OutputPump;
+import org.mortbay.jetty.orchestrator.util.StartupTimeline;
 import org.mortbay.jetty.orchestrator.util.StreamCopier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,6 +67,13 @@ public class SshRemoteHostLauncher implements HostLauncher, JvmDependent
     private final char[] password;
     private final int port;
     private Jvm jvm;
+    private SshConnectionPool connectionPool;
+    private NodeFileCache fileCache;
+    private int readAheadRequests = NodeFileSystemProvider.DEFAULT_READ_AHEAD_REQUESTS;
+    private int unconfirmedWrites = NodeFileSystemProvider.DEFAULT_UNCONFIRMED_WRITES;
+    private long attributeCacheTtlMillis = NodeFileSystemProvider.DEFAULT_ATTRIBUTE_CACHE_TTL_MILLIS;
+    private int sftpChannels = NodeFileSystemProvider.DEFAULT_SFTP_CHANNELS;
+    private ForwardingSelector forwardingSelector;
 
     public SshRemoteHostLauncher()
     {
@@ -85,8 +100,21 @@ public class SshRemoteHostLauncher implements HostLauncher, JvmDependent
     @Override
     public void close()
     {
-        nodes.values().forEach(IOUtil::close);
+        // Close the hosts concurrently so that the cleanup time does not add up.
+        nodes.values().parallelStream().forEach(IOUtil::close);
         nodes.clear();
+        synchronized (this)
+        {
+            IOUtil.close(forwardingSelector);
+            forwardingSelector = null;
+        }
+    }
+
+    private synchronized ForwardingSelector forwardingSelector() throws IOException
+    {
+        if (forwardingSelector == null)
+            forwardingSelector = new ForwardingSelector();
+        return forwardingSelector;
     }
 
     @Override
@@ -102,8 +130,112 @@ public class SshRemoteHostLauncher implements HostLauncher, JvmDependent
         return this;
     }
 
+    public SshConnectionPool connectionPool()
+    {
+        return connectionPool;
+    }
+
+    /**
+     * Take the SSH connections from the given pool instead of opening new ones, and give them back
+     * to the pool when closed instead of disconnecting them. The pool is not closed by this launcher.
+     */
+    public SshRemoteHostLauncher connectionPool(SshConnectionPool connectionPool)
+    {
+        this.connectionPool = connectionPool;
+        return this;
+    }
+
+    public NodeFileCache fileCache()
+    {
+        return fileCache;
+    }
+
+    /**
+     * Keep local copies of the files read from the nodes' file systems in the given cache, so that reading
+     * them again is served from the local disk. The cache can be shared between launchers.
+     */
+    public SshRemoteHostLauncher fileCache(NodeFileCache fileCache)
+    {
+        this.fileCache = fileCache;
+        return this;
+    }
+
+    public int readAheadRequests()
+    {
+        return readAheadRequests;
+    }
+
+    /**
+     * Set how many SFTP read requests may be in flight at once when streaming a file from a node's file system.
+     */
+    public SshRemoteHostLauncher readAheadRequests(int readAheadRequests)
+    {
+        if (readAheadRequests <= 0)
+            throw new IllegalArgumentException("readAheadRequests must be positive");
+        this.readAheadRequests = readAheadRequests;
+        return this;
+    }
+
+    public int unconfirmedWrites()
+    {
+        return unconfirmedWrites;
+    }
+
+    /**
+     * Set how many SFTP write requests may be left unacknowledged when streaming a file to a node's file system.
+     */
+    public SshRemoteHostLauncher unconfirmedWrites(int unconfirmedWrites)
+    {
+        if (unconfirmedWrites <= 0)
+            throw new IllegalArgumentException("unconfirmedWrites must be positive");
+        this.unconfirmedWrites = unconfirmedWrites;
+        return this;
+    }
+
+    public long attributeCacheTtlMillis()
+    {
+        return attributeCacheTtlMillis;
+    }
+
+    /**
+     * Set for how long the attributes and directory listings of a node's file system are cached, 0 to disable caching,
+     * which is the default. Only the changes made through the node's file system itself invalidate the cache, so the
+     * files that the nodes write are only seen once the cache expired or got invalidated.
+     * @see org.mortbay.jetty.orchestrator.nodefs.NodeFiles#invalidateCache(java.nio.file.Path)
+     */
+    public SshRemoteHostLauncher attributeCacheTtlMillis(long attributeCacheTtlMillis)
+    {
+        if (attributeCacheTtlMillis < 0)
+            throw new IllegalArgumentException("attributeCacheTtlMillis must not be negative");
+        this.attributeCacheTtlMillis = attributeCacheTtlMillis;
+        return this;
+    }
+
+    public int sftpChannels()
+    {
+        return sftpChannels;
+    }
+
+    /**
+     * Set how many SFTP channels a node's file system may open on the host's SSH connection
+     * to serve concurrent operations.
+     */
+    public SshRemoteHostLauncher sftpChannels(int sftpChannels)
+    {
+        if (sftpChannels <= 0)
+            throw new IllegalArgumentException("sftpChannels must be positive");
+        this.sftpChannels = sftpChannels;
+        return this;
+    }
+
     @Override
     public String launch(GlobalNodeId globalNodeId, String connectString, String... extraArgs) throws Exception
+    {
+        return launch(globalNodeId, connectString, new StartupTimeline(), extraArgs);
+    }
+
+    @Override
+    public String launch(GlobalNodeId globalNodeId, String connectString, StartupTimeline startupTimeline, String... extraArgs) throws Exception
     {
         long start = System.nanoTime();
         GlobalNodeId nodeId = globalNodeId.getHostGlobalId();
@@ -114,7 +246,8 @@ public class SshRemoteHostLauncher implements HostLauncher, JvmDependent
         if (nodes.putIfAbsent(nodeId.getHostname(), RemoteNodeHolder.NULL) != null)
             throw new IllegalArgumentException("ssh launcher already launched node on host " + nodeId.getHostname());
 
-        SSHClient sshClient = new SSHClient();
+        SshConnectionPool.Connection pooledConnection = null;
+        SSHClient sshClient = null;
         FileSystem fileSystem = null;
         SocketForwardingConnectListener forwardingConnectListener = null;
         AutoCloseable forwarding = null;
@@ -122,40 +255,83 @@ public class SshRemoteHostLauncher implements HostLauncher, JvmDependent
         Session session = null;
         try
         {
-            sshClient.addHostKeyVerifier(new PromiscuousVerifier()); // or loadKnownHosts() instead?
-            sshClient.connect(nodeId.getHostname(), port);
-
+            String hostname = nodeId.getHostname();
             if (LOG.isDebugEnabled())
-                LOG.debug("ssh to {} with username {} and empty password {}", nodeId.getHostname(), username, password == null);
+                LOG.debug("ssh to {} with username {} and empty password {}", hostname, username, password == null);
 
-            if (password == null)
-                sshClient.authPublickey(username); // public key auth
+            if (connectionPool != null)
+            {
+                try (StartupTimeline.Phase phase = startupTimeline.begin(hostname, "ssh-acquire"))
+                {
+                    pooledConnection = connectionPool.acquire(hostname, port, username, password);
+                    phase.attribute("reused", pooledConnection.isReused());
+                }
+                sshClient = pooledConnection.getSshClient();
+            }
             else
-                sshClient.authPassword(username, password); // pw auth
+            {
+                sshClient = new SSHClient();
+                sshClient.addHostKeyVerifier(new PromiscuousVerifier()); // or loadKnownHosts() instead?
+                try (StartupTimeline.Phase ignored = startupTimeline.begin(hostname, "ssh-connect"))
+                {
+                    sshClient.connect(hostname, port);
+                }
+
+                try (StartupTimeline.Phase ignored = startupTimeline.begin(hostname, "ssh-auth"))
+                {
+                    if (password == null)
+                        sshClient.authPublickey(username); // public key auth
+                    else
+                        sshClient.authPassword(username, password); // pw auth
+                }
+            }
 
             // detect windows
-            boolean windows = isWindows(sshClient);
+            Boolean windows = pooledConnection == null ? null : pooledConnection.getWindows();
+            if (windows == null)
+            {
+                try (StartupTimeline.Phase ignored = startupTimeline.begin(hostname, "windows-probe"))
+                {
+                    windows = isWindows(sshClient);
+                }
+                if (pooledConnection != null)
+                    pooledConnection.setWindows(windows);
+            }
 
             // do remote port forwarding
             int zkPort = Integer.parseInt(connectString.split(":")[1]);
-            forwardingConnectListener = new SocketForwardingConnectListener(nodeId.getHostname(), new InetSocketAddress("localhost", zkPort));
-            RemotePortForwarder.Forward forward = sshClient.getRemotePortForwarder().bind(
-                new RemotePortForwarder.Forward(0), // remote port, dynamically choose one
-                forwardingConnectListener
-            );
-            forwarding = () -> sshClient.getRemotePortForwarder().cancel(forward);
+            forwardingConnectListener = new SocketForwardingConnectListener(hostname, new InetSocketAddress("localhost", zkPort), forwardingSelector());
+            RemotePortForwarder remotePortForwarder = NioRemotePortForwarder.install(sshClient);
+            RemotePortForwarder.Forward forward;
+            try (StartupTimeline.Phase ignored = startupTimeline.begin(hostname, "port-forward-bind"))
+            {
+                forward = remotePortForwarder.bind(
+                    new RemotePortForwarder.Forward(0), // remote port, dynamically choose one
+                    forwardingConnectListener
+                );
+            }
+            forwarding = () -> remotePortForwarder.cancel(forward);
             String remoteConnectString = "localhost:" + forward.getPort();
 
             HashMap<String, Object> env = new HashMap<>();
             env.put(SFTPClient.class.getName(), sshClient.newStatefulSFTPClient());
+            env.put(SSHClient.class.getName(), sshClient);
             env.put(NodeFileSystemProvider.IS_WINDOWS_ENV_PROPERTY, windows);
+            env.put(NodeFileSystemProvider.READ_AHEAD_REQUESTS_ENV_PROPERTY, readAheadRequests);
+            env.put(NodeFileSystemProvider.UNCONFIRMED_WRITES_ENV_PROPERTY, unconfirmedWrites);
+            env.put(NodeFileSystemProvider.ATTRIBUTE_CACHE_TTL_ENV_PROPERTY, attributeCacheTtlMillis);
+            env.put(NodeFileSystemProvider.SFTP_CHANNELS_ENV_PROPERTY, sftpChannels);
+            if (fileCache != null)
+                env.put(NodeFileCache.class.getName(), fileCache);
             fileSystem = FileSystems.newFileSystem(URI.create(NodeFileSystemProvider.PREFIX + ":" + nodeId.getHostId()), env);
 
             List<String> remoteClasspathEntries = new ArrayList<>();
-            String[] classpathEntries = System.getProperty("java.class.path").split(File.pathSeparator);
+            List<String> classpathEntries = NodeProcess.classPathToCopy(extraArgs);
             String delimiter = windows ? "\\" : "/";
-            try (SFTPClient sftpClient = sshClient.newStatefulSFTPClient())
+            SFTPClient sftpClient = pooledConnection == null ? sshClient.newStatefulSFTPClient() : pooledConnection.getSftpClient();
+            try (StartupTimeline.Phase phase = startupTimeline.begin(hostname, "classpath-upload"))
             {
+                long[] uploaded = new long[2]; // files, bytes
                 for (String classpathEntry : classpathEntries)
                 {
                     File cpFile = new File(classpathEntry);
@@ -163,27 +339,41 @@ public class SshRemoteHostLauncher implements HostLauncher, JvmDependent
                     if (!cpFileName.endsWith(".jar") && !cpFileName.endsWith(".JAR"))
                         remoteClasspathEntries.add("." + NodeFileSystemProvider.PREFIX + delimiter + nodeId.getHostId() + delimiter + NodeProcess.CLASSPATH_FOLDER_NAME + delimiter + cpFileName);
                     if (cpFile.isDirectory())
-                        copyDir(sftpClient, nodeId.getHostId(), cpFile, 1);
+                        copyDir(sftpClient, nodeId.getHostId(), cpFile, 1, uploaded);
                     else
-                        copyFile(sftpClient, nodeId.getHostId(), cpFileName, new FileSystemFile(cpFile));
+                        copyFile(sftpClient, nodeId.getHostId(), cpFileName, new FileSystemFile(cpFile), uploaded);
                 }
+                phase.attribute("files", uploaded[0]).attribute("bytes", uploaded[1]);
+            }
+            finally
+            {
+                if (pooledConnection == null)
+                    IOUtil.close(sftpClient);
             }
             remoteClasspathEntries.add("." + NodeFileSystemProvider.PREFIX + delimiter + nodeId.getHostId() + delimiter + NodeProcess.CLASSPATH_FOLDER_NAME + delimiter + "*");
 
             String cmdLine = String.join(" ", buildCommandLine(fileSystem, jvm, remoteClasspathEntries, windows ? ";" : ":", nodeId.getHostId(), nodeId.getHostname(), remoteConnectString, extraArgs));
-            session = sshClient.startSession();
-            cmd = session.exec(cmdLine);
+            try (StartupTimeline.Phase ignored = startupTimeline.begin(hostname, "jvm-exec"))
+            {
+                session = sshClient.startSession();
+                cmd = session.exec(cmdLine);
+            }
 
-            new StreamCopier(cmd.getInputStream(), System.out, true).spawnDaemon(nodeId.getHostname() + "-stdout");
-            new StreamCopier(cmd.getErrorStream(), System.err, true).spawnDaemon(nodeId.getHostname() + "-stderr");
+            Session.Command finalCmd = cmd;
+            OutputPump.shared().pump(cmd.getInputStream(), System.out, null, finalCmd::isOpen);
+            OutputPump.shared().pump(cmd.getErrorStream(), System.err, null, finalCmd::isOpen);
 
-            RemoteNodeHolder remoteNodeHolder = new RemoteNodeHolder(nodeId, fileSystem, sshClient, forwardingConnectListener, forwarding, session, cmd);
+            RemoteNodeHolder remoteNodeHolder = new RemoteNodeHolder(nodeId, windows, fileSystem, sshClient, connectionPool, pooledConnection, forwardingConnectListener, forwarding, session, cmd);
             nodes.put(nodeId.getHostname(), remoteNodeHolder);
             return remoteConnectString;
         }
         catch (Exception e)
         {
-            IOUtil.close(fileSystem, cmd, session, forwardingConnectListener, forwarding, sshClient);
+            IOUtil.close(fileSystem, cmd, session, forwardingConnectListener, forwarding);
+            if (pooledConnection != null)
+                connectionPool.discard(pooledConnection);
+            else
+                IOUtil.close(sshClient);
             throw new Exception("Error launching host '" + nodeId.getHostname() + "'", e);
         }
         finally
@@ -247,16 +437,18 @@ public class SshRemoteHostLauncher implements HostLauncher, JvmDependent
         return opts.stream().filter(s -> !s.trim().isEmpty()).collect(Collectors.toList());
     }
 
-    private static void copyFile(SFTPClient sftpClient, String hostId, String filename, LocalSourceFile localSourceFile) throws Exception
+    private static void copyFile(SFTPClient sftpClient, String hostId, String filename, LocalSourceFile localSourceFile, long[] uploaded) throws Exception
     {
         String destFilename = "." + NodeFileSystemProvider.PREFIX + "/" + hostId + "/" + NodeProcess.CLASSPATH_FOLDER_NAME + "/" + filename;
         String parentFilename = destFilename.substring(0, destFilename.lastIndexOf('/'));
 
         sftpClient.mkdirs(parentFilename);
         sftpClient.put(localSourceFile, destFilename);
+        uploaded[0]++;
+        uploaded[1] += localSourceFile.getLength();
     }
 
-    private static void copyDir(SFTPClient sftpClient, String hostId, File cpFile, int depth) throws Exception
+    private static void copyDir(SFTPClient sftpClient, String hostId, File cpFile, int depth, long[] uploaded) throws Exception
     {
         File[] files = cpFile.listFiles();
         if (files == null)
@@ -266,7 +458,7 @@ public class SshRemoteHostLauncher implements HostLauncher, JvmDependent
         {
             if (file.isDirectory())
             {
-                copyDir(sftpClient, hostId, file, depth + 1);
+                copyDir(sftpClient, hostId, file, depth + 1, uploaded);
             }
             else
             {
@@ -277,26 +469,34 @@ public class SshRemoteHostLauncher implements HostLauncher, JvmDependent
                     currentFile = currentFile.getParentFile();
                     filename = currentFile.getName() + "/" + filename;
                 }
-                copyFile(sftpClient, hostId, filename, new FileSystemFile(file));
+                copyFile(sftpClient, hostId, filename, new FileSystemFile(file), uploaded);
             }
         }
     }
 
     private static class RemoteNodeHolder implements AutoCloseable {
-        private static final RemoteNodeHolder NULL = new RemoteNodeHolder(null, null, null, null, null, null, null);
+        private static final RemoteNodeHolder NULL = new RemoteNodeHolder(null, false, null, null, null, null, null, null, null, null);
+        private static final int REMOTE_DELETE_TIMEOUT_MS = 30_000;
+        private static final int POOLED_COMMAND_CLOSE_TIMEOUT_MS = 5000;
 
         private final GlobalNodeId nodeId;
+        private final boolean windows;
         private final FileSystem fileSystem;
         private final SSHClient sshClient;
+        private final SshConnectionPool connectionPool;
+        private final SshConnectionPool.Connection pooledConnection;
         private final SocketForwardingConnectListener forwardingConnectListener;
         private final AutoCloseable forwarding;
         private final Session session;
         private final Session.Command command;
 
-        private RemoteNodeHolder(GlobalNodeId nodeId, FileSystem fileSystem, SSHClient sshClient, SocketForwardingConnectListener forwardingConnectListener, AutoCloseable forwarding, Session session, Session.Command command) {
+        private RemoteNodeHolder(GlobalNodeId nodeId, boolean windows, FileSystem fileSystem, SSHClient sshClient, SshConnectionPool connectionPool, SshConnectionPool.Connection pooledConnection, SocketForwardingConnectListener forwardingConnectListener, AutoCloseable forwarding, Session session, Session.Command command) {
             this.nodeId = nodeId;
+            this.windows = windows;
             this.fileSystem = fileSystem;
             this.sshClient = sshClient;
+            this.connectionPool = connectionPool;
+            this.pooledConnection = pooledConnection;
             this.forwardingConnectListener = forwardingConnectListener;
             this.forwarding = forwarding;
             this.session = session;
@@ -307,17 +507,36 @@ public class SshRemoteHostLauncher implements HostLauncher, JvmDependent
         public void close()
         {
             IOUtil.close(fileSystem);
-            if (!LocalHostLauncher.skipDiskCleanup())
+            String clusterPath = "." + NodeFileSystemProvider.PREFIX + "/" + nodeId.getClusterId();
+            if (!LocalHostLauncher.skipDiskCleanup() && !deleteRemotely(clusterPath))
             {
-                try (SFTPClient sftpClient = sshClient.newStatefulSFTPClient())
+                // The remote delete command failed, walk the tree over SFTP instead.
+                SFTPClient sftpClient = null;
+                try
                 {
-                    deltree(sftpClient, "." + NodeFileSystemProvider.PREFIX + "/" + nodeId.getClusterId());
+                    sftpClient = pooledConnection == null ? sshClient.newStatefulSFTPClient() : pooledConnection.getSftpClient();
+                    deltree(sftpClient, clusterPath);
                 }
                 catch (Exception e)
                 {
                     if (LOG.isDebugEnabled())
                         LOG.debug("error deleting temporary files using ssh client {}", sshClient, e);
                 }
+                finally
+                {
+                    if (pooledConnection == null)
+                        IOUtil.close(sftpClient);
+                }
+            }
+            if (pooledConnection != null)
+            {
+                IOUtil.close(forwarding);
+                IOUtil.close(forwardingConnectListener);
+                if (closeCommand())
+                    connectionPool.release(pooledConnection);
+                else
+                    connectionPool.discard(pooledConnection);
+                return;
             }
             try
             {
@@ -335,6 +554,82 @@ public class SshRemoteHostLauncher implements HostLauncher, JvmDependent
             IOUtil.close(sshClient);
         }
 
+        /**
+         * Recursively delete the given folder with a single command executed on the remote host.
+         * The wait is bounded: a delete still running after the timeout is left to complete on its own.
+         * @return false if the command could not be run or failed.
+         */
+        private boolean deleteRemotely(String path)
+        {
+            // cmd has no way to escape a double quote within a quoted argument.
+            if (windows && path.indexOf('"') >= 0)
+                return false;
+            String cmdLine = windows ? "cmd /c rmdir /s /q \"" + path.replace('/', '\\') + "\"" : "rm -rf " + shellQuote(path);
+            Connection connection = sshClient.getConnection();
+            int timeoutMs = connection.getTimeoutMs();
+            connection.setTimeoutMs(REMOTE_DELETE_TIMEOUT_MS);
+            try (Session session = sshClient.startSession())
+            {
+                Session.Command cmd = session.exec(cmdLine);
+                try
+                {
+                    cmd.join(REMOTE_DELETE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                }
+                catch (ConnectionException e)
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("remote delete of {} still running after {}ms, not waiting any longer", path, REMOTE_DELETE_TIMEOUT_MS);
+                    return true;
+                }
+                Integer exitStatus = cmd.getExitStatus();
+                if (LOG.isDebugEnabled())
+                    LOG.debug("remote delete '{}' exited with status {}", cmdLine, exitStatus);
+                return exitStatus != null && exitStatus == 0;
+            }
+            catch (Exception e)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("error running remote delete '{}' using ssh client {}", cmdLine, sshClient, e);
+                return false;
+            }
+            finally
+            {
+                connection.setTimeoutMs(timeoutMs);
+            }
+        }
+
+        /**
+         * Close the remote command without disconnecting, giving up after a bounded delay
+         * so that a stuck channel gets the connection discarded instead of returned to the pool.
+         */
+        private boolean closeCommand()
+        {
+            Connection connection = sshClient.getConnection();
+            int timeoutMs = connection.getTimeoutMs();
+            connection.setTimeoutMs(POOLED_COMMAND_CLOSE_TIMEOUT_MS);
+            try
+            {
+                command.close();
+                session.close();
+                return !command.isOpen() && !session.isOpen();
+            }
+            catch (Exception e)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("error closing command of pooled ssh client {}", sshClient, e);
+                return false;
+            }
+            finally
+            {
+                connection.setTimeoutMs(timeoutMs);
+            }
+        }
+
+        private static String shellQuote(String s)
+        {
+            return "'" + s.replace("'", "'\\''") + "'";
+        }
+
         private static void deltree(SFTPClient sftpClient, String path) throws IOException
         {
             List<RemoteResourceInfo> ls = sftpClient.ls(path);
@@ -353,29 +648,52 @@ public class SshRemoteHostLauncher implements HostLauncher, JvmDependent
     {
         private final String threadNamePrefix;
         private final SocketAddress addr;
-        private Socket socket;
-        private Channel.Forwarded channel;
+        private final ForwardingSelector forwardingSelector;
+        private final Set<Channel.Forwarded> channels = ConcurrentHashMap.newKeySet();
 
-        private SocketForwardingConnectListener(String threadNamePrefix, SocketAddress addr)
+        private SocketForwardingConnectListener(String threadNamePrefix, SocketAddress addr, ForwardingSelector forwardingSelector)
         {
             this.threadNamePrefix = threadNamePrefix;
             this.addr = addr;
+            this.forwardingSelector = forwardingSelector;
         }
 
         @Override
         public void close()
         {
-            IOUtil.close(channel, socket);
+            channels.forEach(IOUtil::close);
+            channels.clear();
         }
 
         @Override
         public void gotConnect(Channel.Forwarded channel) throws IOException
         {
-            this.channel = channel;
-            socket = new Socket();
+            channels.removeIf(c -> !c.isOpen());
+            if (channel instanceof NioRemotePortForwarder.TunnelChannel)
+            {
+                SocketChannel socketChannel = SocketChannel.open();
+                try
+                {
+                    socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    socketChannel.connect(addr);
+                    ((NioRemotePortForwarder.TunnelChannel)channel).bridge(forwardingSelector, socketChannel);
+                }
+                catch (IOException e)
+                {
+                    IOUtil.close(socketChannel);
+                    throw e;
+                }
+                channels.add(channel);
+                channel.confirm();
+                return;
+            }
+
+            // Another forwarder was installed on a pooled client, fall back to copying threads.
+            Socket socket = new Socket();
             socket.setSendBufferSize(channel.getLocalMaxPacketSize());
             socket.setReceiveBufferSize(channel.getRemoteMaxPacketSize());
             socket.connect(addr);
+            channels.add(channel);
 
             channel.confirm();
 
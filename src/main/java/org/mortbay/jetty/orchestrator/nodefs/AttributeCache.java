@@ -0,0 +1,157 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.nodefs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.RemoteResourceInfo;
+
+/**
+ * Remembers the attributes of remote paths, including the ones that do not exist, and the content
+ * of remote directories for a limited time, so that checking or walking a tree does not cost a
+ * round trip per path. A listing also fills in the attributes of all the listed entries.
+ */
+class AttributeCache
+{
+    private final long ttlNanos;
+    private final Map<String, Entry<FileAttributes>> attributes = new ConcurrentHashMap<>();
+    private final Map<String, Entry<List<String>>> listings = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttlMillis how long entries are kept, 0 to disable caching.
+     */
+    AttributeCache(long ttlMillis)
+    {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    boolean isEnabled()
+    {
+        return ttlNanos > 0L;
+    }
+
+    /**
+     * @return the cached entry for the given path, whose value is null if the path does not exist,
+     * or null if nothing is known about that path.
+     */
+    Entry<FileAttributes> getAttributes(String path)
+    {
+        return get(attributes, path);
+    }
+
+    /**
+     * @param fileAttributes the attributes of the given path, or null if it does not exist.
+     */
+    void putAttributes(String path, FileAttributes fileAttributes)
+    {
+        if (isEnabled())
+            attributes.put(path, new Entry<>(fileAttributes, System.nanoTime() + ttlNanos));
+    }
+
+    /**
+     * @return the cached names of the entries of the given directory, or null if it is not cached.
+     */
+    List<String> getListing(String dir)
+    {
+        Entry<List<String>> entry = get(listings, dir);
+        return entry == null ? null : entry.getValue();
+    }
+
+    void putListing(String dir, List<RemoteResourceInfo> content)
+    {
+        if (!isEnabled())
+            return;
+        long expiry = System.nanoTime() + ttlNanos;
+        List<String> names = new ArrayList<>(content.size());
+        for (RemoteResourceInfo remoteResourceInfo : content)
+        {
+            names.add(remoteResourceInfo.getName());
+            attributes.put(child(dir, remoteResourceInfo.getName()), new Entry<>(remoteResourceInfo.getAttributes(), expiry));
+        }
+        listings.put(dir, new Entry<>(Collections.unmodifiableList(names), expiry));
+    }
+
+    /**
+     * Cache the names of the entries of a directory whose attributes got cached separately.
+     */
+    void putNames(String dir, List<String> names)
+    {
+        if (isEnabled())
+            listings.put(dir, new Entry<>(Collections.unmodifiableList(new ArrayList<>(names)), System.nanoTime() + ttlNanos));
+    }
+
+    /**
+     * Forget about the given path and everything under it.
+     */
+    void invalidate(String path)
+    {
+        String prefix = path.endsWith(NodeFileSystem.PATH_SEPARATOR) ? path : path + NodeFileSystem.PATH_SEPARATOR;
+        attributes.keySet().removeIf(key -> key.equals(path) || key.startsWith(prefix));
+        listings.keySet().removeIf(key -> key.equals(path) || key.startsWith(prefix));
+    }
+
+    void invalidateListing(String dir)
+    {
+        listings.remove(dir);
+    }
+
+    void invalidateAll()
+    {
+        attributes.clear();
+        listings.clear();
+    }
+
+    static String child(String dir, String name)
+    {
+        return dir.endsWith(NodeFileSystem.PATH_SEPARATOR) ? dir + name : dir + NodeFileSystem.PATH_SEPARATOR + name;
+    }
+
+    private static <T> Entry<T> get(Map<String, Entry<T>> map, String key)
+    {
+        if (!map.isEmpty())
+        {
+            Entry<T> entry = map.get(key);
+            if (entry != null)
+            {
+                if (System.nanoTime() - entry.expiry < 0L)
+                    return entry;
+                map.remove(key, entry);
+            }
+        }
+        return null;
+    }
+
+    static class Entry<T>
+    {
+        private final T value;
+        private final long expiry;
+
+        private Entry(T value, long expiry)
+        {
+            this.value = value;
+            this.expiry = expiry;
+        }
+
+        T getValue()
+        {
+            return value;
+        }
+    }
+}
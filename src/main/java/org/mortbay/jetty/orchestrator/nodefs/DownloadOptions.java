@@ -0,0 +1,169 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.nodefs;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How {@link NodeFiles#download(java.nio.file.Path, java.nio.file.Path, DownloadOptions)} transfers files.
+ */
+public class DownloadOptions
+{
+    private int parallelism = 8;
+    private boolean archiveSmallFiles;
+    private long smallFileThreshold = 64 * 1024;
+    private boolean compress;
+    private List<String> includes = Collections.emptyList();
+    private List<PathMatcher> includeMatchers = Collections.emptyList();
+
+    public DownloadOptions()
+    {
+    }
+
+    public DownloadOptions(DownloadOptions other)
+    {
+        this.parallelism = other.parallelism;
+        this.archiveSmallFiles = other.archiveSmallFiles;
+        this.smallFileThreshold = other.smallFileThreshold;
+        this.compress = other.compress;
+        this.includes = other.includes;
+        this.includeMatchers = other.includeMatchers;
+    }
+
+    /**
+     * @param parallelism how many files are transferred at the same time.
+     */
+    public DownloadOptions parallelism(int parallelism)
+    {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * @param archiveSmallFiles true to transfer the small files of the tree as a single tar stream
+     * produced on the remote host, instead of one SFTP transfer per file.
+     */
+    public DownloadOptions archiveSmallFiles(boolean archiveSmallFiles)
+    {
+        this.archiveSmallFiles = archiveSmallFiles;
+        return this;
+    }
+
+    public boolean isArchiveSmallFiles()
+    {
+        return archiveSmallFiles;
+    }
+
+    /**
+     * @param smallFileThreshold the size in bytes up to which a file is considered small.
+     */
+    public DownloadOptions smallFileThreshold(long smallFileThreshold)
+    {
+        if (smallFileThreshold < 0)
+            throw new IllegalArgumentException("smallFileThreshold must not be negative");
+        this.smallFileThreshold = smallFileThreshold;
+        return this;
+    }
+
+    public long getSmallFileThreshold()
+    {
+        return smallFileThreshold;
+    }
+
+    /**
+     * @param compress true to have the archive of the small files gzip-compressed by the remote host.
+     */
+    public DownloadOptions compress(boolean compress)
+    {
+        this.compress = compress;
+        return this;
+    }
+
+    public boolean isCompress()
+    {
+        return compress;
+    }
+
+    /**
+     * @param globs only download the files whose path relative to the downloaded directory matches one of
+     * these glob patterns, e.g. {@code "*.log"} or {@code "reports/*.hlog"}. No pattern downloads everything,
+     * including the empty directories.
+     * @see java.nio.file.FileSystem#getPathMatcher(String)
+     */
+    public DownloadOptions include(String... globs)
+    {
+        List<String> includes = Arrays.asList(globs.clone());
+        List<PathMatcher> includeMatchers = new ArrayList<>();
+        for (String glob : includes)
+            includeMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        this.includes = includes;
+        this.includeMatchers = includeMatchers;
+        return this;
+    }
+
+    public List<String> getIncludes()
+    {
+        return includes;
+    }
+
+    /**
+     * @return true if some include patterns were set.
+     */
+    boolean isFiltered()
+    {
+        return !includeMatchers.isEmpty();
+    }
+
+    /**
+     * @param relativePath a path relative to the downloaded directory, separated by {@code /}.
+     */
+    boolean isIncluded(String relativePath)
+    {
+        if (includeMatchers.isEmpty())
+            return true;
+        Path path = Paths.get(relativePath);
+        for (PathMatcher matcher : includeMatchers)
+        {
+            if (matcher.matches(path))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DownloadOptions{" +
+            "parallelism=" + parallelism +
+            ", archiveSmallFiles=" + archiveSmallFiles +
+            ", smallFileThreshold=" + smallFileThreshold +
+            ", compress=" + compress +
+            ", includes=" + includes +
+            '}';
+    }
+}
@@ -0,0 +1,205 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.nodefs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import org.mortbay.jetty.orchestrator.util.IOUtil;
+
+/**
+ * A stream over a growing file, like {@code tail -f}: once the end of the file is reached, reads block
+ * until more bytes get appended, and only those get fetched. The file size is polled with a delay that
+ * doubles while nothing changes, up to a max, and drops back to the min as soon as new bytes show up.
+ * A file that shrinks, e.g. because it got truncated or rotated, is followed again from its start.
+ * Reads return -1 once the stream got closed, which can be done from another thread.
+ */
+class FollowingInputStream extends InputStream
+{
+    static final long MIN_POLL_MILLIS = 10L;
+    static final long MAX_POLL_MILLIS = 1000L;
+
+    private final Object lock = new Object();
+    private final Source source;
+    private final byte[] single = new byte[1];
+    private InputStream current;
+    private long offset;
+    private long pollMillis = MIN_POLL_MILLIS;
+    private volatile boolean closed;
+
+    /**
+     * @param offset where to start following, or a negative value to start at the current end of the file.
+     */
+    FollowingInputStream(Source source, long offset) throws IOException
+    {
+        this.source = source;
+        this.offset = offset >= 0L ? offset : Math.max(0L, source.size());
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int read = read(single, 0, 1);
+        return read < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0)
+            return 0;
+        try
+        {
+            return doRead(b, off, len);
+        }
+        catch (IOException e)
+        {
+            // Closing from another thread makes a pending read fail.
+            if (closed)
+                return -1;
+            throw e;
+        }
+    }
+
+    private int doRead(byte[] b, int off, int len) throws IOException
+    {
+        while (!closed)
+        {
+            if (current == null)
+            {
+                long size = source.size();
+                if (size < offset)
+                    offset = 0L;
+                if (size > offset)
+                {
+                    current = source.open(offset, size - offset);
+                    pollMillis = MIN_POLL_MILLIS;
+                }
+                else
+                {
+                    sleep();
+                    continue;
+                }
+            }
+            int read = current.read(b, off, len);
+            if (read > 0)
+            {
+                offset += read;
+                return read;
+            }
+            IOUtil.close(current);
+            current = null;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the offset in the file of the next byte to be read.
+     */
+    long getOffset()
+    {
+        return offset;
+    }
+
+    private void sleep() throws IOException
+    {
+        synchronized (lock)
+        {
+            try
+            {
+                if (!closed)
+                    lock.wait(pollMillis);
+            }
+            catch (InterruptedException e)
+            {
+                throw new InterruptedIOException();
+            }
+        }
+        pollMillis = Math.min(pollMillis * 2, MAX_POLL_MILLIS);
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized (lock)
+        {
+            if (closed)
+                return;
+            closed = true;
+            lock.notifyAll();
+        }
+        // The reading thread may still be using the current stream, which then fails or returns -1.
+        IOUtil.close(current, source);
+    }
+
+    interface Source extends Closeable
+    {
+        /**
+         * @return the current size of the file, or -1 if it does not exist at the moment.
+         */
+        long size() throws IOException;
+
+        /**
+         * @param length how many bytes are known to be available from the offset.
+         * @return a stream reading the file from the given offset.
+         */
+        InputStream open(long offset, long length) throws IOException;
+    }
+
+    /**
+     * Follows a file of the local file system.
+     */
+    static class LocalSource implements Source
+    {
+        private final Path path;
+
+        LocalSource(Path path)
+        {
+            this.path = path;
+        }
+
+        @Override
+        public long size() throws IOException
+        {
+            try
+            {
+                return Files.size(path);
+            }
+            catch (NoSuchFileException e)
+            {
+                return -1L;
+            }
+        }
+
+        @Override
+        public InputStream open(long offset, long length) throws IOException
+        {
+            SeekableByteChannel channel = Files.newByteChannel(path);
+            channel.position(offset);
+            return Channels.newInputStream(channel);
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,112 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.nodefs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only channel over a memory-mapped local file, so reading it neither copies it on the heap
+ * nor costs a system call per read.
+ */
+class MappedFileChannel implements SeekableByteChannel
+{
+    private final MappedByteBuffer buffer;
+    private long position;
+    private boolean open = true;
+
+    MappedFileChannel(Path file) throws IOException
+    {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            // The mapping stays valid once the file channel is closed.
+            this.buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0L, fileChannel.size());
+        }
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException
+    {
+        ensureOpen();
+        if (position >= buffer.limit())
+            return -1;
+        int length = (int)Math.min(dst.remaining(), buffer.limit() - position);
+        ByteBuffer slice = buffer.duplicate();
+        slice.position((int)position).limit((int)position + length);
+        dst.put(slice);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public int write(ByteBuffer src)
+    {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException
+    {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException
+    {
+        ensureOpen();
+        if (newPosition < 0L)
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException
+    {
+        ensureOpen();
+        return buffer.limit();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size)
+    {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen()
+    {
+        return open;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        open = false;
+    }
+
+    private void ensureOpen() throws ClosedChannelException
+    {
+        if (!open)
+            throw new ClosedChannelException();
+    }
+}
@@ -0,0 +1,328 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.nodefs;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.RemoteFile;
+import org.mortbay.jetty.orchestrator.util.IOUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies a remote directory tree to the local disk, transferring several files at once with
+ * pipelined SFTP reads, and optionally the small files as a single tar stream.
+ * Data is written to the local files as it arrives, no file is ever held in memory.
+ */
+class NodeDownloader
+{
+    private static final Logger LOG = LoggerFactory.getLogger(NodeDownloader.class);
+    private static final AtomicInteger ID_GENERATOR = new AtomicInteger();
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final int TAR_BLOCK_SIZE = 512;
+
+    private final SftpClientPool sftpClientPool;
+    private final SSHClient sshClient;
+    private final int readAheadRequests;
+
+    NodeDownloader(SftpClientPool sftpClientPool, SSHClient sshClient, int readAheadRequests)
+    {
+        this.sftpClientPool = sftpClientPool;
+        this.sshClient = sshClient;
+        this.readAheadRequests = readAheadRequests;
+    }
+
+    /**
+     * @param paths the paths of the tree, as returned by {@link NodeFileSystem#walk(NodePath, int)}.
+     * @param sftpDir the path of the root of the tree as understood by the SFTP server and the remote shell.
+     */
+    void download(NodePath dir, List<Path> paths, String sftpDir, Path localDir, DownloadOptions options) throws IOException
+    {
+        Map<String, Long> smallFiles = new HashMap<>();
+        List<String> files = new ArrayList<>();
+        Files.createDirectories(localDir);
+        for (Path path : paths)
+        {
+            String relativePath = dir.relativize(path).toString();
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            Path localPath = relativePath.isEmpty() ? localDir : localDir.resolve(relativePath);
+            if (attributes.isDirectory())
+            {
+                // Only create the directories that contain included files when filtering.
+                if (!options.isFiltered())
+                    Files.createDirectories(localPath);
+                continue;
+            }
+            if (!attributes.isRegularFile() || !options.isIncluded(relativePath))
+                continue;
+            if (options.isFiltered())
+                Files.createDirectories(localPath.getParent());
+            if (options.isArchiveSmallFiles() && sshClient != null && attributes.size() <= options.getSmallFileThreshold())
+                smallFiles.put(relativePath, attributes.size());
+            else
+                files.add(relativePath);
+        }
+
+        if (!smallFiles.isEmpty())
+        {
+            try
+            {
+                if (!downloadArchive(sftpDir, smallFiles, localDir, options.isCompress()))
+                    files.addAll(smallFiles.keySet());
+            }
+            catch (IOException e)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Error downloading {} as an archive, falling back to sftp", sftpDir, e);
+                files.addAll(smallFiles.keySet());
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(options.getParallelism(), Math.max(1, files.size())), r ->
+        {
+            Thread thread = new Thread(r, "node-download-" + ID_GENERATOR.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String relativePath : files)
+            {
+                futures.add(executor.submit(() ->
+                {
+                    downloadFile(sftpDir + NodeFileSystem.PATH_SEPARATOR + relativePath, localDir.resolve(relativePath));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures)
+            {
+                try
+                {
+                    future.get();
+                }
+                catch (ExecutionException e)
+                {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException)cause;
+                    throw new IOException("Error downloading " + sftpDir, cause);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while downloading " + sftpDir, e);
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private void downloadFile(String sftpPath, Path localPath) throws IOException
+    {
+        try (SftpClientPool.Lease lease = sftpClientPool.acquire();
+             RemoteFile remoteFile = lease.getSftpClient().open(sftpPath, EnumSet.of(OpenMode.READ));
+             InputStream inputStream = remoteFile.new ReadAheadRemoteFileInputStream(readAheadRequests);
+             FileChannel fileChannel = FileChannel.open(localPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0)
+            {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                while (byteBuffer.hasRemaining())
+                    fileChannel.write(byteBuffer);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new IOException("Error downloading " + sftpPath, e);
+        }
+    }
+
+    /**
+     * Have the remote host tar the given files to its standard output and unpack the stream on the fly.
+     * @return false if the remote tar command failed.
+     */
+    private boolean downloadArchive(String sftpDir, Map<String, Long> files, Path localDir, boolean compress) throws IOException
+    {
+        String cmdLine = "tar -C '" + sftpDir.replace("'", "'\\''") + "' --null -T - -c" + (compress ? "z" : "") + "f -";
+        int extracted = 0;
+        try (Session session = sshClient.startSession())
+        {
+            Session.Command cmd = session.exec(cmdLine);
+            try (OutputStream outputStream = cmd.getOutputStream())
+            {
+                for (String relativePath : files.keySet())
+                {
+                    outputStream.write(relativePath.getBytes(StandardCharsets.UTF_8));
+                    outputStream.write(0);
+                }
+            }
+            InputStream channelInputStream = cmd.getInputStream();
+            InputStream inputStream = compress ? new GZIPInputStream(channelInputStream, BUFFER_SIZE) : new BufferedInputStream(channelInputStream, BUFFER_SIZE);
+            try
+            {
+                byte[] header = new byte[TAR_BLOCK_SIZE];
+                byte[] buffer = new byte[BUFFER_SIZE];
+                String longName = null;
+                while (readFully(inputStream, header))
+                {
+                    if (header[0] == 0)
+                        break; // end of archive
+                    String name = longName != null ? longName : tarName(header);
+                    longName = null;
+                    long size = Long.parseLong(tarString(header, 124, 12).trim(), 8);
+                    char type = (char)header[156];
+                    long padded = (size + TAR_BLOCK_SIZE - 1) / TAR_BLOCK_SIZE * TAR_BLOCK_SIZE;
+                    if (type == 'L')
+                    {
+                        // GNU long name: the name of the next entry is the content of this one.
+                        byte[] nameBytes = new byte[(int)padded];
+                        if (!readFully(inputStream, nameBytes))
+                            throw new IOException("Truncated tar stream");
+                        longName = tarString(nameBytes, 0, (int)size);
+                        continue;
+                    }
+                    if ((type != '0' && type != 0) || !files.containsKey(name))
+                    {
+                        skip(inputStream, padded);
+                        continue;
+                    }
+                    try (FileChannel fileChannel = FileChannel.open(localDir.resolve(name), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+                    {
+                        long remaining = size;
+                        while (remaining > 0)
+                        {
+                            int read = inputStream.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                            if (read < 0)
+                                throw new IOException("Truncated tar stream");
+                            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                            while (byteBuffer.hasRemaining())
+                                fileChannel.write(byteBuffer);
+                            remaining -= read;
+                        }
+                    }
+                    skip(inputStream, padded - size);
+                    extracted++;
+                }
+            }
+            finally
+            {
+                // Closing the channel stream while data still arrives tears down the whole connection,
+                // so consume whatever follows, like the padding after the end of the archive.
+                drain(inputStream);
+                drain(channelInputStream);
+                IOUtil.close(inputStream);
+            }
+            cmd.join();
+            Integer exitStatus = cmd.getExitStatus();
+            if (LOG.isDebugEnabled())
+                LOG.debug("remote archive '{}' of {} file(s) exited with status {}, {} file(s) extracted", cmdLine, files.size(), exitStatus, extracted);
+            return exitStatus != null && exitStatus == 0 && extracted == files.size();
+        }
+    }
+
+    private static String tarName(byte[] header)
+    {
+        String name = tarString(header, 0, 100);
+        // ustar splits long names into a prefix and a name.
+        if ("ustar".equals(tarString(header, 257, 6).trim()))
+        {
+            String prefix = tarString(header, 345, 155);
+            if (!prefix.isEmpty())
+                name = prefix + "/" + name;
+        }
+        return name;
+    }
+
+    private static String tarString(byte[] bytes, int offset, int length)
+    {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0)
+            end++;
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static boolean readFully(InputStream inputStream, byte[] bytes) throws IOException
+    {
+        int read = 0;
+        while (read < bytes.length)
+        {
+            int r = inputStream.read(bytes, read, bytes.length - read);
+            if (r < 0)
+                return false;
+            read += r;
+        }
+        return true;
+    }
+
+    private static void drain(InputStream inputStream)
+    {
+        try
+        {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (inputStream.read(buffer) >= 0)
+            {
+            }
+        }
+        catch (IOException e)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Error draining remote archive stream", e);
+        }
+    }
+
+    private static void skip(InputStream inputStream, long count) throws IOException
+    {
+        while (count > 0)
+        {
+            long skipped = inputStream.skip(count);
+            if (skipped <= 0)
+            {
+                if (inputStream.read() < 0)
+                    throw new IOException("Truncated tar stream");
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
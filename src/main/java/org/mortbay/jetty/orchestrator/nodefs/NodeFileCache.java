@@ -0,0 +1,250 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.nodefs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A size-bounded local disk cache of files read from node file systems, which can be shared between the
+ * {@link org.mortbay.jetty.orchestrator.configuration.SshRemoteHostLauncher}s of successive clusters.
+ * A file is cached under its host, path, size and modification time, so a remote file that changed
+ * gets downloaded again, unless it kept the same size within the same second.
+ * Cached files are served from memory-mapped local copies; the least recently used ones are deleted
+ * once the cache grows over its max size. The content of the cache directory is picked up again
+ * when a new cache is created on it.
+ */
+public class NodeFileCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger(NodeFileCache.class);
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    public NodeFileCache(Path directory, long maxBytes) throws IOException
+    {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("maxBytes must be positive");
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+
+        // Least recently used files first.
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory))
+        {
+            for (Path file : stream)
+            {
+                if (file.getFileName().toString().endsWith(TEMP_SUFFIX))
+                    Files.deleteIfExists(file);
+                else if (Files.isRegularFile(file))
+                    files.add(file);
+            }
+        }
+        files.sort(Comparator.comparing(NodeFileCache::lastModifiedTime));
+        synchronized (this)
+        {
+            for (Path file : files)
+            {
+                long size = Files.size(file);
+                entries.put(file.getFileName().toString(), size);
+                totalBytes += size;
+            }
+            evict(null);
+        }
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * @return how many bytes the cached files take.
+     */
+    public synchronized long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    /**
+     * Delete all the cached files.
+     */
+    public void clear()
+    {
+        List<String> names;
+        synchronized (this)
+        {
+            names = new ArrayList<>(entries.keySet());
+            entries.clear();
+            totalBytes = 0L;
+        }
+        names.forEach(this::delete);
+    }
+
+    /**
+     * @return the local copy of the described remote file, downloaded with the given loader if it is not cached,
+     * or null if the downloaded file did not have the expected size, i.e. it got modified meanwhile.
+     */
+    Path get(String hostId, String path, long size, long mtime, Loader loader) throws IOException
+    {
+        String name = hash(hostId + "!" + path + "!" + size + "!" + mtime);
+        Path file = directory.resolve(name);
+        boolean cached;
+        synchronized (this)
+        {
+            cached = entries.get(name) != null;
+        }
+        if (cached && Files.isRegularFile(file))
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Local cache hit for {} of {}", path, hostId);
+            touch(file);
+            return file;
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Local cache miss for {} of {}", path, hostId);
+        // Concurrent misses of the same file each download to their own temp file, the last move wins.
+        Path tempFile = Files.createTempFile(directory, name, TEMP_SUFFIX);
+        try
+        {
+            loader.load(tempFile);
+            if (Files.size(tempFile) != size)
+                return null;
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(tempFile);
+        }
+        synchronized (this)
+        {
+            Long previous = entries.put(name, size);
+            if (previous != null)
+                totalBytes -= previous;
+            totalBytes += size;
+            evict(name);
+        }
+        return file;
+    }
+
+    private void evict(String keep)
+    {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext())
+        {
+            Map.Entry<String, Long> entry = it.next();
+            if (entry.getKey().equals(keep))
+                continue;
+            it.remove();
+            totalBytes -= entry.getValue();
+            delete(entry.getKey());
+        }
+    }
+
+    private void delete(String name)
+    {
+        try
+        {
+            // Readers that mapped the file keep their mapping.
+            Files.deleteIfExists(directory.resolve(name));
+        }
+        catch (IOException e)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Error deleting cached file {}", name, e);
+        }
+    }
+
+    private static void touch(Path file)
+    {
+        try
+        {
+            // Record the use so that the eviction order survives a restart.
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch (IOException e)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Error touching cached file {}", file, e);
+        }
+    }
+
+    private static FileTime lastModifiedTime(Path file)
+    {
+        try
+        {
+            return Files.getLastModifiedTime(file);
+        }
+        catch (IOException e)
+        {
+            return FileTime.fromMillis(0L);
+        }
+    }
+
+    private static String hash(String key)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest)
+                sb.append(String.format("%02x", b & 0xFF));
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "NodeFileCache{" +
+            "directory=" + directory +
+            ", maxBytes=" + maxBytes +
+            '}';
+    }
+
+    @FunctionalInterface
+    interface Loader
+    {
+        void load(Path target) throws IOException;
+    }
+}
@@ -13,33 +13,65 @@
 
 package org.mortbay.jetty.orchestrator.nodefs;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
+import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
 import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.FileMode;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.RemoteFile;
 import net.schmizz.sshj.sftp.RemoteResourceInfo;
+import net.schmizz.sshj.sftp.Response;
 import net.schmizz.sshj.sftp.SFTPClient;
+import net.schmizz.sshj.sftp.SFTPException;
 import org.mortbay.jetty.orchestrator.util.IOUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,22 +82,32 @@ class NodeFileSystem extends FileSystem
     static final String PATH_SEPARATOR = "/";
 
     private final NodeFileSystemProvider provider;
-    private final SFTPClient sftpClient;
+    private final SftpClientPool sftpClientPool;
+    private final SSHClient sshClient;
     private final String hostId;
     private final boolean windows;
+    private final int readAheadRequests;
+    private final int unconfirmedWrites;
+    private final AttributeCache attributeCache;
+    private final NodeFileCache fileCache;
     private final NodePath homePath;
     private final NodePath cwdPath;
     private volatile boolean closed;
 
-    NodeFileSystem(NodeFileSystemProvider provider, SFTPClient sftpClient, String hostId, List<String> cwd, boolean windows)
+    NodeFileSystem(NodeFileSystemProvider provider, SFTPClient sftpClient, SSHClient sshClient, String hostId, List<String> cwd, boolean windows, int readAheadRequests, int unconfirmedWrites, long attributeCacheTtlMillis, int sftpChannels, NodeFileCache fileCache)
     {
         this.provider = provider;
-        this.sftpClient = sftpClient;
+        this.sftpClientPool = new SftpClientPool(sftpClient, sshClient, sftpChannels);
+        this.sshClient = sshClient;
         this.hostId = hostId;
         this.windows = windows;
+        this.readAheadRequests = readAheadRequests;
+        this.unconfirmedWrites = unconfirmedWrites;
+        this.attributeCache = new AttributeCache(attributeCacheTtlMillis);
+        this.fileCache = fileCache;
         try
         {
-            this.homePath = new NodePath(this, null, NodePath.toSegments(sftpClient.canonicalize(".")));
+            this.homePath = new NodePath(this, null, NodePath.toSegments(sftpClientPool.call(c -> c.canonicalize("."))));
             this.cwdPath = new NodePath(this, homePath, cwd);
         }
         catch (IOException e)
@@ -98,91 +140,70 @@ class NodeFileSystem extends FileSystem
 
     SeekableByteChannel newByteChannel(NodePath path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException
     {
-        byte[] data;
-        try
+        if (attrs.length > 0)
+            throw new UnsupportedOperationException("File attributes cannot be set when opening a file");
+        if (options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND))
         {
-            InMemoryFile inMemoryFile = new InMemoryFile();
-            sftpClient.get(relativeFromHomeOrAbsolute(path).toString(), inMemoryFile);
-            data = inMemoryFile.getOutputStream().toByteArray();
-        }
-        catch (IOException e)
-        {
-            throw new IOException("Unable to open byte channel for path: " + path, e);
+            if (options.contains(StandardOpenOption.READ))
+                throw new UnsupportedOperationException("Files cannot be opened for both reading and writing");
+            return openForWriting(path, options);
         }
-
-        return new SeekableByteChannel()
+        Path cachedCopy = cachedCopy(path);
+        if (cachedCopy != null)
+            return new MappedFileChannel(cachedCopy);
+        try
         {
-            private long position;
-
-            @Override
-            public void close()
-            {
-            }
-
-            @Override
-            public boolean isOpen()
-            {
-                return true;
-            }
-
-            @Override
-            public long position()
-            {
-                return position;
-            }
-
-            @Override
-            public SeekableByteChannel position(long newPosition)
-            {
-                position = newPosition;
-                return this;
-            }
-
-            @Override
-            public int read(ByteBuffer dst)
+            SftpClientPool.Lease lease = sftpClientPool.acquire();
+            try
             {
-                int l = (int)Math.min(dst.remaining(), size() - position);
-                dst.put(data, (int)position, l);
-                position += l;
-                return l;
-            }
-
-            @Override
-            public long size()
-            {
-                return data.length;
-            }
-
-            @Override
-            public SeekableByteChannel truncate(long size)
-            {
-                throw new UnsupportedOperationException();
+                RemoteFile remoteFile = lease.getSftpClient().open(relativeFromHomeOrAbsolute(path).toString(), EnumSet.of(OpenMode.READ));
+                try
+                {
+                    return new RemoteFileChannel(remoteFile, lease);
+                }
+                catch (IOException e)
+                {
+                    IOUtil.close(remoteFile);
+                    throw e;
+                }
             }
-
-            @Override
-            public int write(ByteBuffer src)
+            catch (IOException e)
             {
-                throw new UnsupportedOperationException();
+                lease.close();
+                throw e;
             }
-        };
+        }
+        catch (IOException e)
+        {
+            throw new IOException("Unable to open byte channel for path: " + path, e);
+        }
     }
 
     DirectoryStream<Path> newDirectoryStream(NodePath dir, DirectoryStream.Filter<? super Path> filter) throws IOException
     {
         List<Path> filteredPaths = new ArrayList<>();
-        try
+        String key = dir.toAbsolutePath().toString();
+        List<String> names = attributeCache.getListing(key);
+        if (names == null)
         {
-            List<RemoteResourceInfo> content = sftpClient.ls(relativeFromHomeOrAbsolute(dir).toString());
-            for (RemoteResourceInfo remoteResourceInfo : content)
+            try
+            {
+                List<RemoteResourceInfo> content = sftpClientPool.call(c -> c.ls(relativeFromHomeOrAbsolute(dir).toString()));
+                attributeCache.putListing(key, content);
+                names = new ArrayList<>(content.size());
+                for (RemoteResourceInfo remoteResourceInfo : content)
+                    names.add(remoteResourceInfo.getName());
+            }
+            catch (IOException e)
             {
-                Path resolved = dir.resolve(remoteResourceInfo.getName());
-                if (filter.accept(resolved))
-                    filteredPaths.add(resolved);
+                throw new IOException("Unable to open directory stream for path: " + dir, e);
             }
         }
-        catch (IOException e)
+        for (String name : names)
         {
-            throw new IOException("Unable to open directory stream for path: " + dir, e);
+            Path resolved = dir.resolve(name);
+            if (filter.accept(resolved))
+                filteredPaths.add(resolved);
         }
 
         return new DirectoryStream<Path>()
@@ -222,49 +243,413 @@ class NodeFileSystem extends FileSystem
 
     InputStream newInputStream(NodePath path, OpenOption... options) throws IOException
     {
-        String sftpPath = relativeFromHomeOrAbsolute(path).toString();
-        long fileSize;
+        Path cachedCopy = cachedCopy(path);
+        if (cachedCopy != null)
+            return Channels.newInputStream(new MappedFileChannel(cachedCopy));
+        return newRemoteInputStream(path);
+    }
+
+    private InputStream newRemoteInputStream(NodePath path) throws IOException
+    {
+        SftpClientPool.Lease lease;
+        RemoteFile remoteFile;
         try
         {
-            fileSize = sftpClient.lstat(sftpPath).getSize();
+            lease = sftpClientPool.acquire();
         }
         catch (IOException e)
         {
             throw new IOException("Unable to open input stream for path: " + path, e);
         }
-        if (fileSize > 1024 * 1024)
+        try
         {
-            // use piping if file to download is > 1MB
-            PipingFile pipingFile = new PipingFile();
-            Thread t = new Thread(() ->
+            remoteFile = lease.getSftpClient().open(relativeFromHomeOrAbsolute(path).toString(), EnumSet.of(OpenMode.READ));
+        }
+        catch (IOException e)
+        {
+            lease.close();
+            throw new IOException("Unable to open input stream for path: " + path, e);
+        }
+        // Keep a window of read requests in flight so that the transfer is not bound by the round trip time.
+        return new FilterInputStream(remoteFile.new ReadAheadRemoteFileInputStream(readAheadRequests))
+        {
+            @Override
+            public void close() throws IOException
             {
                 try
                 {
-                    sftpClient.get(sftpPath, pipingFile);
+                    super.close();
                 }
-                catch (IOException e)
+                finally
                 {
-                    if (LOG.isDebugEnabled())
-                        LOG.debug("Error copying " + sftpPath + " over sftp", e);
+                    IOUtil.close(remoteFile, lease);
                 }
-                finally
+            }
+        };
+    }
+
+    /**
+     * @param offset where to start following the file, or a negative value to start at its current end.
+     * @see FollowingInputStream
+     */
+    InputStream follow(NodePath path, long offset) throws IOException
+    {
+        String sftpPath = relativeFromHomeOrAbsolute(path).toString();
+        SftpClientPool.Lease lease = sftpClientPool.acquire();
+        FollowingInputStream.Source source = new FollowingInputStream.Source()
+        {
+            private RemoteFile remoteFile;
+            private long lastSize;
+
+            @Override
+            public long size() throws IOException
+            {
+                long size;
+                try
+                {
+                    // Stat the path rather than the handle to notice a file replaced by a new one.
+                    size = lease.getSftpClient().stat(sftpPath).getSize();
+                }
+                catch (SFTPException e)
                 {
-                    IOUtil.close(pipingFile.getOutputStream());
+                    if (e.getStatusCode() != Response.StatusCode.NO_SUCH_FILE)
+                        throw e;
+                    size = -1L;
                 }
+                if (size < lastSize)
+                {
+                    IOUtil.close(remoteFile);
+                    remoteFile = null;
+                }
+                lastSize = size;
+                return size;
+            }
+
+            @Override
+            public InputStream open(long offset, long length) throws IOException
+            {
+                if (remoteFile == null)
+                    remoteFile = lease.getSftpClient().open(sftpPath, EnumSet.of(OpenMode.READ));
+                // Only read ahead the bytes known to exist.
+                return remoteFile.new ReadAheadRemoteFileInputStream(readAheadRequests, offset, length);
+            }
+
+            @Override
+            public void close()
+            {
+                IOUtil.close(remoteFile, lease);
+            }
+        };
+        try
+        {
+            return new FollowingInputStream(source, offset);
+        }
+        catch (IOException e)
+        {
+            IOUtil.close(source);
+            throw new IOException("Unable to follow path: " + path, e);
+        }
+    }
+
+    /**
+     * @return the local copy of the given file if the local file cache is enabled and the file can be cached, null otherwise.
+     */
+    private Path cachedCopy(NodePath path) throws IOException
+    {
+        if (fileCache == null)
+            return null;
+        // The size and mtime identify the cached copy, so they must not come from the attribute cache which may be stale.
+        String sftpPath = relativeFromHomeOrAbsolute(path).toString();
+        FileAttributes attributes;
+        try
+        {
+            attributes = sftpClientPool.call(c -> c.lstat(sftpPath));
+        }
+        catch (IOException e)
+        {
+            throw toIOException(e, path, "Error reading attributes of path: ");
+        }
+        // Files over 2GB cannot be mapped at once.
+        if (attributes.getType() != FileMode.Type.REGULAR || attributes.getSize() > Math.min(fileCache.getMaxBytes(), Integer.MAX_VALUE))
+            return null;
+        return fileCache.get(hostId, path.toAbsolutePath().toString(), attributes.getSize(), attributes.getMtime(), target ->
+        {
+            try (InputStream inputStream = newRemoteInputStream(path))
+            {
+                Files.copy(inputStream, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        });
+    }
+
+    OutputStream newOutputStream(NodePath path, OpenOption... options) throws IOException
+    {
+        Set<OpenOption> openOptions = new HashSet<>(Arrays.asList(options));
+        if (openOptions.contains(StandardOpenOption.READ))
+            throw new IllegalArgumentException("READ not allowed");
+        if (openOptions.isEmpty())
+        {
+            openOptions.add(StandardOpenOption.CREATE);
+            openOptions.add(StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        openOptions.add(StandardOpenOption.WRITE);
+        return openForWriting(path, openOptions).toOutputStream();
+    }
+
+    private RemoteFileWriteChannel openForWriting(NodePath path, Set<? extends OpenOption> options) throws IOException
+    {
+        boolean append = options.contains(StandardOpenOption.APPEND);
+        if (append && options.contains(StandardOpenOption.TRUNCATE_EXISTING))
+            throw new IllegalArgumentException("APPEND + TRUNCATE_EXISTING not allowed");
+        boolean createNew = options.contains(StandardOpenOption.CREATE_NEW);
+        Set<OpenMode> openModes = EnumSet.of(OpenMode.WRITE);
+        if (createNew)
+        {
+            openModes.add(OpenMode.CREAT);
+            openModes.add(OpenMode.EXCL);
+        }
+        else if (options.contains(StandardOpenOption.CREATE))
+        {
+            openModes.add(OpenMode.CREAT);
+        }
+        if (options.contains(StandardOpenOption.TRUNCATE_EXISTING))
+            openModes.add(OpenMode.TRUNC);
+
+        String sftpPath = relativeFromHomeOrAbsolute(path).toString();
+        changed(path);
+        SftpClientPool.Lease lease = sftpClientPool.acquire();
+        try
+        {
+            RemoteFile remoteFile = lease.getSftpClient().open(sftpPath, openModes);
+            try
+            {
+                int chunkSize = lease.getSftpClient().getSFTPEngine().getSubsystem().getRemoteMaxPacketSize() - remoteFile.getOutgoingPacketOverhead();
+                long position = append ? remoteFile.length() : 0L;
+                // The size and listing may have been cached while writing, forget them once done.
+                AutoCloseable onClose = () -> IOUtil.close(lease, () -> changed(path));
+                return new RemoteFileWriteChannel(remoteFile, onClose, chunkSize, unconfirmedWrites, position);
+            }
+            catch (IOException e)
+            {
+                IOUtil.close(remoteFile);
+                throw e;
+            }
+        }
+        catch (IOException e)
+        {
+            lease.close();
+            // SFTP v3 servers report a generic failure when an exclusive creation finds an existing file.
+            if (createNew && isFailure(e) && exists(sftpPath))
+                throw withCause(new FileAlreadyExistsException(path.toString()), e);
+            throw toIOException(e, path, "Unable to open path for writing: ");
+        }
+    }
+
+    void createDirectory(NodePath dir, FileAttribute<?>... attrs) throws IOException
+    {
+        if (attrs.length > 0)
+            throw new UnsupportedOperationException("File attributes cannot be set when creating a directory");
+        String sftpPath = relativeFromHomeOrAbsolute(dir).toString();
+        changed(dir);
+        try
+        {
+            sftpClientPool.call(c ->
+            {
+                c.mkdir(sftpPath);
+                return null;
             });
-            t.setDaemon(true);
-            t.start();
-            return pipingFile.getInputStream();
         }
-        else
+        catch (IOException e)
         {
-            InMemoryFile inMemoryFile = new InMemoryFile();
-            sftpClient.get(sftpPath, inMemoryFile);
-            byte[] data = inMemoryFile.getOutputStream().toByteArray();
-            return new ByteArrayInputStream(data);
+            if (isFailure(e) && exists(sftpPath))
+                throw withCause(new FileAlreadyExistsException(dir.toString()), e);
+            throw toIOException(e, dir, "Unable to create directory: ");
         }
     }
 
+    void delete(NodePath path) throws IOException
+    {
+        String sftpPath = relativeFromHomeOrAbsolute(path).toString();
+        changed(path);
+        boolean directory = false;
+        try
+        {
+            directory = sftpClientPool.call(c -> c.lstat(sftpPath)).getType() == FileMode.Type.DIRECTORY;
+            if (directory)
+            {
+                sftpClientPool.call(c ->
+                {
+                    c.rmdir(sftpPath);
+                    return null;
+                });
+            }
+            else
+            {
+                sftpClientPool.call(c ->
+                {
+                    c.rm(sftpPath);
+                    return null;
+                });
+            }
+        }
+        catch (IOException e)
+        {
+            if (directory && isFailure(e) && !sftpClientPool.call(c -> c.ls(sftpPath)).isEmpty())
+                throw withCause(new DirectoryNotEmptyException(path.toString()), e);
+            throw toIOException(e, path, "Unable to delete path: ");
+        }
+    }
+
+    /**
+     * Rename a path of this file system. Replacing an existing target is done by deleting it first,
+     * so it is not atomic and {@link StandardCopyOption#ATOMIC_MOVE} is not supported.
+     */
+    void move(NodePath source, NodePath target, CopyOption... options) throws IOException
+    {
+        if (Arrays.asList(options).contains(StandardCopyOption.ATOMIC_MOVE))
+            throw new AtomicMoveNotSupportedException(source.toString(), target.toString(), "SFTP renames are not atomic");
+        String sftpSource = relativeFromHomeOrAbsolute(source).toString();
+        String sftpTarget = relativeFromHomeOrAbsolute(target).toString();
+        // Make sure there is something to move before touching the target.
+        try
+        {
+            sftpClientPool.call(c -> c.lstat(sftpSource));
+        }
+        catch (IOException e)
+        {
+            throw toIOException(e, source, "Unable to move path: ");
+        }
+        if (sftpSource.equals(sftpTarget))
+            return;
+        if (Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING))
+        {
+            try
+            {
+                delete(target);
+            }
+            catch (NoSuchFileException e)
+            {
+                // nothing to replace
+            }
+        }
+        else if (exists(sftpTarget))
+        {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        try
+        {
+            sftpClientPool.call(c ->
+            {
+                c.rename(sftpSource, sftpTarget);
+                return null;
+            });
+        }
+        catch (IOException e)
+        {
+            throw toIOException(e, source, "Unable to move path: ");
+        }
+        finally
+        {
+            // Invalidate once renamed, so that no concurrent read can cache the state from before.
+            changed(source);
+            changed(target);
+        }
+    }
+
+    void setTimes(NodePath path, FileTime lastModifiedTime, FileTime lastAccessTime) throws IOException
+    {
+        if (lastModifiedTime == null && lastAccessTime == null)
+            return;
+        String sftpPath = relativeFromHomeOrAbsolute(path).toString();
+        changed(path);
+        try
+        {
+            long mtime;
+            long atime;
+            if (lastModifiedTime == null || lastAccessTime == null)
+            {
+                // SFTP sets both times at once.
+                FileAttributes current = sftpClientPool.call(c -> c.stat(sftpPath));
+                mtime = lastModifiedTime == null ? current.getMtime() : lastModifiedTime.to(TimeUnit.SECONDS);
+                atime = lastAccessTime == null ? current.getAtime() : lastAccessTime.to(TimeUnit.SECONDS);
+            }
+            else
+            {
+                mtime = lastModifiedTime.to(TimeUnit.SECONDS);
+                atime = lastAccessTime.to(TimeUnit.SECONDS);
+            }
+            FileAttributes fileAttributes = new FileAttributes.Builder().withAtimeMtime(atime, mtime).build();
+            sftpClientPool.call(c ->
+            {
+                c.setattr(sftpPath, fileAttributes);
+                return null;
+            });
+        }
+        catch (IOException e)
+        {
+            throw toIOException(e, path, "Unable to set times of path: ");
+        }
+    }
+
+    private boolean exists(String sftpPath) throws IOException
+    {
+        try
+        {
+            sftpClientPool.call(c -> c.lstat(sftpPath));
+            return true;
+        }
+        catch (SFTPException e)
+        {
+            if (e.getStatusCode() == Response.StatusCode.NO_SUCH_FILE)
+                return false;
+            throw e;
+        }
+    }
+
+    /**
+     * Forget the cached attributes of a path that is about to be modified, and the listing of its parent.
+     */
+    private void changed(NodePath path)
+    {
+        NodePath absolutePath = (NodePath)path.toAbsolutePath();
+        attributeCache.invalidate(absolutePath.toString());
+        Path parent = absolutePath.getParent();
+        if (parent != null)
+            attributeCache.invalidateListing(parent.toString());
+    }
+
+    private static boolean isFailure(IOException e)
+    {
+        return e instanceof SFTPException && ((SFTPException)e).getStatusCode() == Response.StatusCode.FAILURE;
+    }
+
+    private static IOException toIOException(IOException e, NodePath path, String message)
+    {
+        if (e instanceof SFTPException)
+        {
+            switch (((SFTPException)e).getStatusCode())
+            {
+                case NO_SUCH_FILE:
+                case NO_SUCH_PATH:
+                    return withCause(new NoSuchFileException(path.toString()), e);
+                case FILE_ALREADY_EXISTS:
+                    return withCause(new FileAlreadyExistsException(path.toString()), e);
+                case DIR_NOT_EMPTY:
+                    return withCause(new DirectoryNotEmptyException(path.toString()), e);
+                case PERMISSION_DENIED:
+                    return withCause(new AccessDeniedException(path.toString()), e);
+                default:
+                    break;
+            }
+        }
+        return new IOException(message + path, e);
+    }
+
+    private static <E extends IOException> E withCause(E e, Throwable cause)
+    {
+        e.initCause(cause);
+        return e;
+    }
+
     @SuppressWarnings("unchecked")
     <A extends BasicFileAttributes> A readAttributes(NodePath path, Class<A> type, LinkOption... options) throws IOException
     {
@@ -272,19 +657,267 @@ class NodeFileSystem extends FileSystem
         if (!type.equals(BasicFileAttributes.class) && !type.equals(NodeFileAttributes.class))
             throw new UnsupportedOperationException();
 
+        String key = path.toAbsolutePath().toString();
+        AttributeCache.Entry<FileAttributes> cached = attributeCache.getAttributes(key);
+        if (cached != null)
+        {
+            if (cached.getValue() == null)
+                throw new NoSuchFileException(path.toString());
+            return (A)new NodeFileAttributes(cached.getValue());
+        }
+
         String sftpPath = relativeFromHomeOrAbsolute(path).toString();
         try
         {
-            FileAttributes lstat = sftpClient.lstat(sftpPath);
+            FileAttributes lstat = sftpClientPool.call(c -> c.lstat(sftpPath));
+            attributeCache.putAttributes(key, lstat);
             NodeFileAttributes nodeFileAttributes = new NodeFileAttributes(lstat);
             return (A)nodeFileAttributes;
         }
+        catch (SFTPException e)
+        {
+            if (e.getStatusCode() != Response.StatusCode.NO_SUCH_FILE)
+                throw new IOException("Error reading attributes of path: " + path, e);
+            attributeCache.putAttributes(key, null);
+            NoSuchFileException noSuchFileException = new NoSuchFileException(path.toString());
+            noSuchFileException.initCause(e);
+            throw noSuchFileException;
+        }
         catch (IOException e)
         {
             throw new IOException("Error reading attributes of path: " + path, e);
         }
     }
 
+    /**
+     * List the given tree like {@link Files#walk(Path, int, java.nio.file.FileVisitOption...)} does, but with
+     * a single {@code find} command run over SSH, and cache the attributes and listings it returns.
+     * Falls back to listing the directories one at a time when no SSH session is available or the command fails.
+     */
+    List<Path> walk(NodePath start, int maxDepth) throws IOException
+    {
+        if (sshClient != null && !windows)
+        {
+            try
+            {
+                List<Path> paths = findRemotely(start, maxDepth);
+                if (paths != null)
+                    return paths;
+            }
+            catch (IOException e)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Error listing {} remotely, falling back to sftp", start, e);
+            }
+        }
+        try (Stream<Path> stream = Files.walk(start, maxDepth))
+        {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * @return the listed paths, or null if the remote command failed.
+     */
+    List<Path> findRemotely(NodePath start, int maxDepth) throws IOException
+    {
+        String sftpPath = relativeFromHomeOrAbsolute(start).toString();
+        // NUL-terminated records of: type, size, atime, mtime, octal permissions and path relative to the start.
+        String cmdLine = "find " + shellQuote(sftpPath) +
+            (maxDepth == Integer.MAX_VALUE ? "" : " -maxdepth " + maxDepth) +
+            " -printf '%y %s %A@ %T@ %m %P\\0'";
+
+        String startKey = start.toAbsolutePath().toString();
+        List<Path> paths = new ArrayList<>();
+        Map<String, List<String>> listings = new HashMap<>();
+        try (Session session = sshClient.startSession())
+        {
+            Session.Command cmd = session.exec(cmdLine);
+            try (InputStream inputStream = new BufferedInputStream(cmd.getInputStream()))
+            {
+                ByteArrayOutputStream record = new ByteArrayOutputStream();
+                int b;
+                while ((b = inputStream.read()) >= 0)
+                {
+                    if (b != 0)
+                    {
+                        record.write(b);
+                        continue;
+                    }
+                    String[] fields = record.toString(StandardCharsets.UTF_8).split(" ", 6);
+                    record.reset();
+                    if (fields.length < 6)
+                        continue;
+                    String relativePath = fields[5];
+                    String key = relativePath.isEmpty() ? startKey : AttributeCache.child(startKey, relativePath);
+                    attributeCache.putAttributes(key, toFileAttributes(fields));
+                    if (relativePath.isEmpty())
+                    {
+                        paths.add(start);
+                    }
+                    else
+                    {
+                        Path path = start;
+                        for (String segment : relativePath.split("/"))
+                            path = path.resolve(segment);
+                        paths.add(path);
+                        int idx = relativePath.lastIndexOf('/');
+                        String parentKey = idx < 0 ? startKey : AttributeCache.child(startKey, relativePath.substring(0, idx));
+                        List<String> names = listings.get(parentKey);
+                        if (names != null)
+                            names.add(relativePath.substring(idx + 1));
+                    }
+                    int depth = relativePath.isEmpty() ? 0 : relativePath.split("/").length;
+                    // The content of the directories at the max depth is not listed.
+                    if (fields[0].equals("d") && depth < maxDepth)
+                        listings.put(key, new ArrayList<>());
+                }
+            }
+            cmd.join();
+            Integer exitStatus = cmd.getExitStatus();
+            if (exitStatus == null || exitStatus != 0)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("remote listing '{}' exited with status {}", cmdLine, exitStatus);
+                return null;
+            }
+        }
+        listings.forEach(attributeCache::putNames);
+        return paths;
+    }
+
+    /**
+     * Stream the lines of the given file that contain a match of the given regex, with a single {@code grep -P}
+     * command run over SSH so that only the matching lines get transferred; Perl-compatible regexes are close
+     * enough to {@link Pattern}'s syntax for the usual filters.
+     * Falls back to filtering the streamed content of the file when no SSH session is available or grep fails,
+     * e.g. because it does not support {@code -P} or the regex.
+     * @param maxMatches how many lines to return at most, or a negative value for no limit.
+     * @return the matching lines, read as the stream gets consumed; it must be closed to release the SSH session or the file.
+     */
+    Stream<String> grep(NodePath path, String regex, int maxMatches) throws IOException
+    {
+        Pattern pattern = Pattern.compile(regex);
+        if (maxMatches == 0)
+            return Stream.empty();
+        if (sshClient != null && !windows)
+        {
+            try
+            {
+                Stream<String> lines = grepRemotely(path, regex, maxMatches);
+                if (lines != null)
+                    return lines;
+            }
+            catch (IOException e)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Error filtering {} remotely, falling back to sftp", path, e);
+            }
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(newInputStream(path), StandardCharsets.UTF_8));
+        Stream<String> lines = reader.lines()
+            .filter(line -> pattern.matcher(line).find())
+            .onClose(() -> IOUtil.close(reader));
+        return maxMatches < 0 ? lines : lines.limit(maxMatches);
+    }
+
+    /**
+     * grep rejects an unsupported option or regex before printing anything, so its exit status is only
+     * looked at when it did not print any line.
+     * @return the matching lines, read from the SSH session as the stream gets consumed, or null if the remote command failed.
+     */
+    Stream<String> grepRemotely(NodePath path, String regex, int maxMatches) throws IOException
+    {
+        String cmdLine = "grep -a -P" +
+            (maxMatches < 0 ? "" : " -m " + maxMatches) +
+            " -e " + shellQuote(regex) + " -- " + shellQuote(relativeFromHomeOrAbsolute(path).toString());
+        Session session = sshClient.startSession();
+        boolean streaming = false;
+        try
+        {
+            Session.Command cmd = session.exec(cmdLine);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(cmd.getInputStream(), StandardCharsets.UTF_8));
+            String firstLine = reader.readLine();
+            if (firstLine != null)
+            {
+                streaming = true;
+                return Stream.concat(Stream.of(firstLine), reader.lines()).onClose(() -> IOUtil.close(session));
+            }
+            cmd.join();
+            Integer exitStatus = cmd.getExitStatus();
+            // 1 means that no line matched.
+            if (exitStatus == null || exitStatus > 1)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("remote filtering '{}' exited with status {}", cmdLine, exitStatus);
+                return null;
+            }
+            return Stream.empty();
+        }
+        finally
+        {
+            if (!streaming)
+                IOUtil.close(session);
+        }
+    }
+
+    private static String shellQuote(String s)
+    {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    private static FileAttributes toFileAttributes(String[] fields)
+    {
+        int type;
+        switch (fields[0])
+        {
+            case "d":
+                type = FileMode.Type.DIRECTORY.toMask();
+                break;
+            case "l":
+                type = FileMode.Type.SYMLINK.toMask();
+                break;
+            case "p":
+                type = FileMode.Type.FIFO_SPECIAL.toMask();
+                break;
+            case "s":
+                type = FileMode.Type.SOCKET_SPECIAL.toMask();
+                break;
+            case "c":
+                type = FileMode.Type.CHAR_SPECIAL.toMask();
+                break;
+            case "b":
+                type = FileMode.Type.BLOCK_SPECIAL.toMask();
+                break;
+            default:
+                type = FileMode.Type.REGULAR.toMask();
+                break;
+        }
+        return new FileAttributes.Builder()
+            .withSize(Long.parseLong(fields[1]))
+            .withAtimeMtime(seconds(fields[2]), seconds(fields[3]))
+            .withPermissions(type | Integer.parseInt(fields[4], 8))
+            .build();
+    }
+
+    private static long seconds(String time)
+    {
+        int idx = time.indexOf('.');
+        return Long.parseLong(idx < 0 ? time : time.substring(0, idx));
+    }
+
+    void download(NodePath dir, Path localDir, DownloadOptions options) throws IOException
+    {
+        List<Path> paths = walk(dir, Integer.MAX_VALUE);
+        NodeDownloader downloader = new NodeDownloader(sftpClientPool, windows ? null : sshClient, readAheadRequests);
+        downloader.download(dir, paths, relativeFromHomeOrAbsolute(dir).toString(), localDir, options);
+    }
+
+    void invalidateCache(NodePath path)
+    {
+        attributeCache.invalidate(path.toAbsolutePath().toString());
+    }
+
     @Override
     public FileSystemProvider provider()
     {
@@ -296,7 +929,8 @@ class NodeFileSystem extends FileSystem
     {
         try
         {
-            sftpClient.close();
+            attributeCache.invalidateAll();
+            sftpClientPool.close();
         }
         finally
         {
@@ -314,7 +948,7 @@ class NodeFileSystem extends FileSystem
     @Override
     public boolean isReadOnly()
     {
-        return true;
+        return false;
     }
 
     @Override
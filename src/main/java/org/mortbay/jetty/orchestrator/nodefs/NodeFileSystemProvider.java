@@ -15,10 +15,13 @@ package org.mortbay.jetty.orchestrator.nodefs;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessMode;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.CopyOption;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
@@ -28,13 +31,15 @@ import java.nio.file.LinkOption;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.ProviderMismatchException;
-import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.attribute.FileTime;
 import java.nio.file.spi.FileSystemProvider;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
@@ -42,6 +47,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.sftp.SFTPClient;
 import net.schmizz.sshj.xfer.FilePermission;
 
@@ -53,6 +59,14 @@ public class NodeFileSystemProvider extends FileSystemProvider
 {
     public static final String PREFIX = "jco";
     public static final String IS_WINDOWS_ENV_PROPERTY = "windows";
+    public static final String READ_AHEAD_REQUESTS_ENV_PROPERTY = "readAheadRequests";
+    public static final int DEFAULT_READ_AHEAD_REQUESTS = 16;
+    public static final String UNCONFIRMED_WRITES_ENV_PROPERTY = "unconfirmedWrites";
+    public static final int DEFAULT_UNCONFIRMED_WRITES = 16;
+    public static final String ATTRIBUTE_CACHE_TTL_ENV_PROPERTY = "attributeCacheTtlMillis";
+    public static final long DEFAULT_ATTRIBUTE_CACHE_TTL_MILLIS = 0L;
+    public static final String SFTP_CHANNELS_ENV_PROPERTY = "sftpChannels";
+    public static final int DEFAULT_SFTP_CHANNELS = 4;
     private static final Map<AccessMode, Integer> ACCESS_MODES_MASKS = new EnumMap<>(AccessMode.class);
     static
     {
@@ -67,22 +81,49 @@ public class NodeFileSystemProvider extends FileSystemProvider
     {
     }
 
+    /**
+     * Copy between node file systems, possibly of different hosts, by streaming the content through this JVM.
+     */
     @Override
-    public void copy(Path source, Path target, CopyOption... options)
+    public void copy(Path source, Path target, CopyOption... options) throws IOException
     {
-        throw new ReadOnlyFileSystemException();
+        if (!(source instanceof NodePath) || !(target instanceof NodePath))
+            throw new ProviderMismatchException();
+        if (isSameFile(source, target))
+            return;
+        BasicFileAttributes sourceAttributes = readAttributes(source, BasicFileAttributes.class);
+        if (Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING))
+            deleteIfExists(target);
+        if (sourceAttributes.isDirectory())
+        {
+            createDirectory(target);
+        }
+        else
+        {
+            try (InputStream inputStream = newInputStream(source);
+                 OutputStream outputStream = newOutputStream(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+            {
+                inputStream.transferTo(outputStream);
+            }
+        }
+        if (Arrays.asList(options).contains(StandardCopyOption.COPY_ATTRIBUTES))
+            ((NodeFileSystem)target.getFileSystem()).setTimes((NodePath)target, sourceAttributes.lastModifiedTime(), sourceAttributes.lastAccessTime());
     }
 
     @Override
-    public void createDirectory(Path dir, FileAttribute<?>... attrs)
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException
     {
-        throw new ReadOnlyFileSystemException();
+        if (!(dir instanceof NodePath))
+            throw new ProviderMismatchException();
+        ((NodeFileSystem)dir.getFileSystem()).createDirectory((NodePath)dir, attrs);
     }
 
     @Override
-    public void delete(Path path)
+    public void delete(Path path) throws IOException
     {
-        throw new ReadOnlyFileSystemException();
+        if (!(path instanceof NodePath))
+            throw new ProviderMismatchException();
+        ((NodeFileSystem)path.getFileSystem()).delete((NodePath)path);
     }
 
     @Override
@@ -105,9 +146,10 @@ public class NodeFileSystemProvider extends FileSystemProvider
                 }
 
                 @Override
-                public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime)
+                public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) throws IOException
                 {
-                    throw new UnsupportedOperationException();
+                    // SFTP cannot set the creation time, so it is ignored.
+                    ((NodeFileSystem)path.getFileSystem()).setTimes((NodePath)path, lastModifiedTime, lastAccessTime);
                 }
             };
             @SuppressWarnings("unchecked")
@@ -130,11 +172,20 @@ public class NodeFileSystemProvider extends FileSystemProvider
         {
             boolean windows = (Boolean)env.get(IS_WINDOWS_ENV_PROPERTY);
             SFTPClient sftpClient = (SFTPClient)env.get(SFTPClient.class.getName());
+            SSHClient sshClient = (SSHClient)env.get(SSHClient.class.getName());
+            Integer readAheadRequests = (Integer)env.get(READ_AHEAD_REQUESTS_ENV_PROPERTY);
+            Integer unconfirmedWrites = (Integer)env.get(UNCONFIRMED_WRITES_ENV_PROPERTY);
+            Long attributeCacheTtlMillis = (Long)env.get(ATTRIBUTE_CACHE_TTL_ENV_PROPERTY);
+            Integer sftpChannels = (Integer)env.get(SFTP_CHANNELS_ENV_PROPERTY);
+            NodeFileCache fileCache = (NodeFileCache)env.get(NodeFileCache.class.getName());
             String hostId = extractHostId(uri);
             if (fileSystems.containsKey(hostId))
                 throw new FileSystemAlreadyExistsException("FileSystem already exists: " + hostId);
 
-            NodeFileSystem fileSystem = new NodeFileSystem(this, sftpClient, hostId, extractPath(uri), windows);
+            NodeFileSystem fileSystem = new NodeFileSystem(this, sftpClient, sshClient, hostId, extractPath(uri), windows, readAheadRequests == null ? DEFAULT_READ_AHEAD_REQUESTS : readAheadRequests,
+                unconfirmedWrites == null ? DEFAULT_UNCONFIRMED_WRITES : unconfirmedWrites,
+                attributeCacheTtlMillis == null ? DEFAULT_ATTRIBUTE_CACHE_TTL_MILLIS : attributeCacheTtlMillis,
+                sftpChannels == null ? DEFAULT_SFTP_CHANNELS : sftpChannels, fileCache);
             fileSystems.put(hostId, fileSystem);
             return fileSystem;
         }
@@ -210,10 +261,39 @@ public class NodeFileSystemProvider extends FileSystemProvider
         return path.toAbsolutePath().equals(path2.toAbsolutePath());
     }
 
+    /**
+     * Rename within a node file system, or copy then delete across node file systems.
+     */
     @Override
-    public void move(Path source, Path target, CopyOption... options)
+    public void move(Path source, Path target, CopyOption... options) throws IOException
     {
-        throw new ReadOnlyFileSystemException();
+        if (!(source instanceof NodePath) || !(target instanceof NodePath))
+            throw new ProviderMismatchException();
+        if (source.getFileSystem() == target.getFileSystem())
+        {
+            ((NodeFileSystem)source.getFileSystem()).move((NodePath)source, (NodePath)target, options);
+            return;
+        }
+        if (Arrays.asList(options).contains(StandardCopyOption.ATOMIC_MOVE))
+            throw new AtomicMoveNotSupportedException(source.toString(), target.toString(), "Paths are on different hosts");
+        if (readAttributes(source, BasicFileAttributes.class).isDirectory())
+        {
+            try (DirectoryStream<Path> stream = newDirectoryStream(source, p -> true))
+            {
+                if (stream.iterator().hasNext())
+                    throw new DirectoryNotEmptyException(source.toString());
+            }
+        }
+        copy(source, target, options);
+        delete(source);
+    }
+
+    @Override
+    public OutputStream newOutputStream(Path path, OpenOption... options) throws IOException
+    {
+        if (!(path instanceof NodePath))
+            throw new ProviderMismatchException();
+        return ((NodeFileSystem)path.getFileSystem()).newOutputStream((NodePath)path, options);
     }
 
     @Override
@@ -255,7 +335,7 @@ public class NodeFileSystemProvider extends FileSystemProvider
     @Override
     public void setAttribute(Path path, String attribute, Object value, LinkOption... options)
     {
-        throw new ReadOnlyFileSystemException();
+        throw new UnsupportedOperationException();
     }
 
     @Override
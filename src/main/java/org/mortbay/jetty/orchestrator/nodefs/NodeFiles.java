@@ -0,0 +1,156 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.nodefs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Helpers for the paths of the file systems of remote nodes, as returned by
+ * {@link org.mortbay.jetty.orchestrator.NodeArray#rootPathOf(String)}.
+ * They do nothing or fall back to the regular {@link java.nio.file.Files} behavior for other paths.
+ */
+public final class NodeFiles
+{
+    private NodeFiles()
+    {
+    }
+
+    /**
+     * Drop the cached attributes and directory listings of the given path and of everything under it,
+     * e.g. after a node wrote new files there.
+     */
+    public static void invalidateCache(Path path)
+    {
+        if (path instanceof NodePath)
+            ((NodeFileSystem)path.getFileSystem()).invalidateCache((NodePath)path);
+    }
+
+    /**
+     * @see #walk(Path, int)
+     */
+    public static List<Path> walk(Path start) throws IOException
+    {
+        return walk(start, Integer.MAX_VALUE);
+    }
+
+    /**
+     * List the same paths as {@link Files#walk(Path, int, java.nio.file.FileVisitOption...)}, in the same order.
+     * A remote tree is listed with a single command run on its host, which also caches the attributes of
+     * all the listed paths so that reading them afterwards does not cost any round trip.
+     */
+    public static List<Path> walk(Path start, int maxDepth) throws IOException
+    {
+        if (maxDepth < 0)
+            throw new IllegalArgumentException("maxDepth must not be negative");
+        if (start instanceof NodePath)
+            return ((NodeFileSystem)start.getFileSystem()).walk((NodePath)start, maxDepth);
+        try (Stream<Path> stream = Files.walk(start, maxDepth))
+        {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * @see #follow(Path, long)
+     */
+    public static InputStream follow(Path file) throws IOException
+    {
+        return follow(file, -1L);
+    }
+
+    /**
+     * Open a stream that follows the given file like {@code tail -f} does: reads block until bytes get
+     * appended to the file, and only the appended bytes get transferred. The file size is polled with
+     * an adaptive delay between 10ms and 1s, and a file that shrinks is followed again from its start.
+     * Reads return -1 once the stream got closed, which can be done from another thread to stop following.
+     * @param offset where to start reading, or a negative value to start at the current end of the file.
+     */
+    public static InputStream follow(Path file, long offset) throws IOException
+    {
+        if (file instanceof NodePath)
+            return ((NodeFileSystem)file.getFileSystem()).follow((NodePath)file, offset);
+        return new FollowingInputStream(new FollowingInputStream.LocalSource(file), offset);
+    }
+
+    /**
+     * @see #grep(Path, String, int)
+     */
+    public static Stream<String> grep(Path file, String regex) throws IOException
+    {
+        return grep(file, regex, -1);
+    }
+
+    /**
+     * Stream the lines of the given file that contain a match of the given {@link Pattern} regex.
+     * The lines of a remote file are filtered on its host by {@code grep -P} so that only the matching lines
+     * get transferred; when the host's grep does not support Perl-compatible regexes or rejects the regex,
+     * e.g. because it uses a Java-only construct, the whole file gets streamed and filtered locally instead.
+     * Like {@link Files#lines(Path)}, the lines are read as the stream gets consumed, and the stream must be
+     * closed, e.g. with a try-with-resources statement, to release the SSH session or the file it reads from.
+     * @param maxMatches how many lines to return at most, or a negative value for no limit.
+     */
+    public static Stream<String> grep(Path file, String regex, int maxMatches) throws IOException
+    {
+        if (file instanceof NodePath)
+            return ((NodeFileSystem)file.getFileSystem()).grep((NodePath)file, regex, maxMatches);
+        Pattern pattern = Pattern.compile(regex);
+        Stream<String> lines = Files.lines(file).filter(line -> pattern.matcher(line).find());
+        return maxMatches < 0 ? lines : lines.limit(maxMatches);
+    }
+
+    /**
+     * @see #download(Path, Path, DownloadOptions)
+     */
+    public static void download(Path dir, Path localDir) throws IOException
+    {
+        download(dir, localDir, new DownloadOptions());
+    }
+
+    /**
+     * Copy the given directory tree, or the files of it that the options include, to the given local directory,
+     * which is created if needed. Files of a remote tree are transferred concurrently and written to disk as they arrive.
+     */
+    public static void download(Path dir, Path localDir, DownloadOptions options) throws IOException
+    {
+        if (dir instanceof NodePath)
+        {
+            ((NodeFileSystem)dir.getFileSystem()).download((NodePath)dir, localDir, options);
+            return;
+        }
+        Files.createDirectories(localDir);
+        for (Path path : walk(dir))
+        {
+            String relativePath = dir.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+            Path localPath = localDir.resolve(relativePath);
+            if (Files.isDirectory(path))
+            {
+                if (!options.isFiltered())
+                    Files.createDirectories(localPath);
+            }
+            else if (options.isIncluded(relativePath))
+            {
+                Files.createDirectories(localPath.getParent());
+                Files.copy(path, localPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+}
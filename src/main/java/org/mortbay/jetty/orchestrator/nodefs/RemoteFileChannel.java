@@ -0,0 +1,194 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.nodefs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.schmizz.sshj.sftp.RemoteFile;
+import org.mortbay.jetty.orchestrator.util.IOUtil;
+
+/**
+ * A read-only channel over a remote file that only fetches the blocks it is asked for.
+ * Recently read blocks are kept in a small LRU cache, and while the file is read sequentially
+ * the following blocks are requested ahead of time, so memory use does not depend on the file size.
+ */
+class RemoteFileChannel implements SeekableByteChannel
+{
+    static final int BLOCK_SIZE = 64 * 1024;
+    private static final int MAX_CACHED_BLOCKS = 16;
+    private static final int MAX_READ_AHEAD_REQUESTS = 16;
+
+    private final RemoteFile remoteFile;
+    private final AutoCloseable onClose;
+    private final long size;
+    private final Map<Long, byte[]> blocks = new LinkedHashMap<>(MAX_CACHED_BLOCKS, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest)
+        {
+            return size() > MAX_CACHED_BLOCKS;
+        }
+    };
+    private InputStream readAheadStream;
+    private long lastFetchedBlock = -1L;
+    private long position;
+    private boolean open = true;
+
+    /**
+     * @param onClose closed along with the remote file.
+     */
+    RemoteFileChannel(RemoteFile remoteFile, AutoCloseable onClose) throws IOException
+    {
+        this.remoteFile = remoteFile;
+        this.onClose = onClose;
+        this.size = remoteFile.length();
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException
+    {
+        ensureOpen();
+        if (position >= size)
+            return -1;
+        int total = 0;
+        while (dst.hasRemaining() && position < size)
+        {
+            long index = position / BLOCK_SIZE;
+            byte[] block = block(index);
+            int offset = (int)(position - index * BLOCK_SIZE);
+            int length = Math.min(dst.remaining(), block.length - offset);
+            if (length <= 0)
+                break; // the file got truncated after it was opened
+            dst.put(block, offset, length);
+            position += length;
+            total += length;
+        }
+        return total == 0 ? -1 : total;
+    }
+
+    private byte[] block(long index) throws IOException
+    {
+        byte[] block = blocks.get(index);
+        if (block != null)
+            return block;
+
+        int blockLength = (int)Math.min(BLOCK_SIZE, size - index * BLOCK_SIZE);
+        if (index == lastFetchedBlock + 1)
+        {
+            // Sequential access: keep a pipeline of outstanding requests flowing.
+            if (readAheadStream == null)
+                readAheadStream = remoteFile.new ReadAheadRemoteFileInputStream(MAX_READ_AHEAD_REQUESTS, index * BLOCK_SIZE);
+            block = readFully(readAheadStream, blockLength);
+        }
+        else
+        {
+            // Random access: drop the outstanding requests and only fetch the needed block.
+            readAheadStream = null;
+            block = new byte[blockLength];
+            int read = 0;
+            while (read < blockLength)
+            {
+                int r = remoteFile.read(index * BLOCK_SIZE + read, block, read, blockLength - read);
+                if (r < 0)
+                    break;
+                read += r;
+            }
+            if (read < blockLength)
+                block = Arrays.copyOf(block, read);
+        }
+        lastFetchedBlock = index;
+        blocks.put(index, block);
+        return block;
+    }
+
+    private byte[] readFully(InputStream inputStream, int length) throws IOException
+    {
+        byte[] block = new byte[length];
+        int read = 0;
+        while (read < length)
+        {
+            int r = inputStream.read(block, read, length - read);
+            if (r < 0)
+                break;
+            read += r;
+        }
+        return read < length ? Arrays.copyOf(block, read) : block;
+    }
+
+    @Override
+    public synchronized long position() throws IOException
+    {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException
+    {
+        ensureOpen();
+        if (newPosition < 0)
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException
+    {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int write(ByteBuffer src)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public synchronized boolean isOpen()
+    {
+        return open;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (!open)
+            return;
+        open = false;
+        readAheadStream = null;
+        blocks.clear();
+        IOUtil.close(remoteFile, onClose);
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if (!isOpen())
+            throw new ClosedChannelException();
+    }
+}
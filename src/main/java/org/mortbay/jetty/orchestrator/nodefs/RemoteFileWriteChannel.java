@@ -0,0 +1,205 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.nodefs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+import net.schmizz.sshj.sftp.RemoteFile;
+import org.mortbay.jetty.orchestrator.util.IOUtil;
+
+/**
+ * A write-only channel over a remote file. Written bytes are gathered into chunks as large as
+ * a SFTP packet allows, and up to a configured number of chunks are sent without waiting for
+ * their acknowledgement so that the transfer is not bound by the round trip time.
+ * Errors reported by the server for unacknowledged writes surface on a later write, on {@link #flush()}
+ * or on {@link #close()}.
+ */
+class RemoteFileWriteChannel implements SeekableByteChannel
+{
+    private final RemoteFile remoteFile;
+    private final AutoCloseable onClose;
+    private final int maxUnconfirmedWrites;
+    private final byte[] buffer;
+    private int bufferLength;
+    // Sends the chunks ending at the current position, minus what is buffered.
+    private OutputStream outputStream;
+    private long position;
+    private boolean open = true;
+
+    /**
+     * @param onClose closed along with the remote file.
+     * @param chunkSize the max amount of bytes sent per write request.
+     * @param position where the first write goes.
+     */
+    RemoteFileWriteChannel(RemoteFile remoteFile, AutoCloseable onClose, int chunkSize, int maxUnconfirmedWrites, long position)
+    {
+        this.remoteFile = remoteFile;
+        this.onClose = onClose;
+        this.maxUnconfirmedWrites = maxUnconfirmedWrites;
+        this.buffer = new byte[chunkSize];
+        this.position = position;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException
+    {
+        ensureOpen();
+        int total = 0;
+        while (src.hasRemaining())
+        {
+            int length = Math.min(src.remaining(), buffer.length - bufferLength);
+            src.get(buffer, bufferLength, length);
+            bufferLength += length;
+            position += length;
+            total += length;
+            if (bufferLength == buffer.length)
+                sendBuffer();
+        }
+        return total;
+    }
+
+    private void sendBuffer() throws IOException
+    {
+        if (bufferLength == 0)
+            return;
+        if (outputStream == null)
+            outputStream = remoteFile.new RemoteFileOutputStream(position - bufferLength, maxUnconfirmedWrites);
+        outputStream.write(buffer, 0, bufferLength);
+        bufferLength = 0;
+    }
+
+    /**
+     * Send the buffered bytes and wait until the server acknowledged all the writes.
+     */
+    synchronized void flush() throws IOException
+    {
+        ensureOpen();
+        sendBuffer();
+        if (outputStream != null)
+            outputStream.flush();
+    }
+
+    @Override
+    public int read(ByteBuffer dst)
+    {
+        throw new NonReadableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException
+    {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException
+    {
+        if (newPosition < 0L)
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        if (newPosition != position)
+        {
+            flush();
+            // The next write starts a new run of pipelined requests at the new offset.
+            outputStream = null;
+            position = newPosition;
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException
+    {
+        flush();
+        return remoteFile.length();
+    }
+
+    @Override
+    public synchronized SeekableByteChannel truncate(long size) throws IOException
+    {
+        if (size < 0L)
+            throw new IllegalArgumentException("Negative size: " + size);
+        if (size < size())
+            remoteFile.setLength(size);
+        if (position > size)
+            position(size);
+        return this;
+    }
+
+    @Override
+    public synchronized boolean isOpen()
+    {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (!open)
+            return;
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            open = false;
+            IOUtil.close(remoteFile, onClose);
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException
+    {
+        if (!open)
+            throw new ClosedChannelException();
+    }
+
+    /**
+     * @return a stream writing to this channel, which closes the channel when it gets closed.
+     */
+    OutputStream toOutputStream()
+    {
+        return new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                write(new byte[]{(byte)b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                RemoteFileWriteChannel.this.write(ByteBuffer.wrap(b, off, len));
+            }
+
+            @Override
+            public void flush() throws IOException
+            {
+                RemoteFileWriteChannel.this.flush();
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                RemoteFileWriteChannel.this.close();
+            }
+        };
+    }
+}
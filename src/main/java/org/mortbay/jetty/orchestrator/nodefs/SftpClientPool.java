@@ -0,0 +1,185 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.nodefs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.sftp.SFTPClient;
+import org.mortbay.jetty.orchestrator.util.IOUtil;
+
+/**
+ * A bounded set of SFTP subsystems opened on the same SSH connection, so that concurrent
+ * operations do not queue behind each other on a single channel.
+ * A lease goes to an idle channel if there is one, else to a new channel while the bound
+ * is not reached, else to the channel with the fewest leases as SFTP channels can be shared.
+ */
+class SftpClientPool implements AutoCloseable
+{
+    private final SSHClient sshClient;
+    private final int maxChannels;
+    private final List<Channel> channels = new ArrayList<>();
+    private int opening;
+    private boolean closed;
+
+    /**
+     * @param sftpClient the first channel of the pool.
+     * @param sshClient the connection to open more channels on, or null to only use the first one.
+     */
+    SftpClientPool(SFTPClient sftpClient, SSHClient sshClient, int maxChannels)
+    {
+        this.sshClient = sshClient;
+        this.maxChannels = maxChannels;
+        this.channels.add(new Channel(sftpClient));
+    }
+
+    /**
+     * Lease a channel, which must be given back by closing the returned lease.
+     */
+    Lease acquire() throws IOException
+    {
+        Channel channel = null;
+        boolean open = false;
+        synchronized (this)
+        {
+            if (closed)
+                throw new IOException("SFTP channel pool is closed");
+            channels.removeIf(c -> c.leases == 0 && !c.isOpen());
+            for (Channel c : channels)
+            {
+                if (channel == null || c.leases < channel.leases)
+                    channel = c;
+            }
+            if ((channel == null || channel.leases > 0) && sshClient != null && channels.size() + opening < maxChannels)
+            {
+                opening++;
+                open = true;
+            }
+            else if (channel == null)
+                throw new IOException("No SFTP channel available");
+            else
+                channel.leases++;
+        }
+        if (open)
+        {
+            // Open the subsystem outside of the lock as it is a network round trip.
+            Channel newChannel;
+            try
+            {
+                newChannel = new Channel(sshClient.newStatefulSFTPClient());
+            }
+            finally
+            {
+                synchronized (this)
+                {
+                    opening--;
+                }
+            }
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    IOUtil.close(newChannel.sftpClient);
+                    throw new IOException("SFTP channel pool is closed");
+                }
+                newChannel.leases++;
+                channels.add(newChannel);
+            }
+            channel = newChannel;
+        }
+        return new Lease(channel);
+    }
+
+    /**
+     * Run the given operation with a leased channel.
+     */
+    <T> T call(SftpOperation<T> operation) throws IOException
+    {
+        try (Lease lease = acquire())
+        {
+            return operation.apply(lease.getSftpClient());
+        }
+    }
+
+    private synchronized void release(Channel channel)
+    {
+        channel.leases--;
+    }
+
+    @Override
+    public void close()
+    {
+        List<Channel> toClose;
+        synchronized (this)
+        {
+            closed = true;
+            toClose = new ArrayList<>(channels);
+            channels.clear();
+        }
+        for (Channel channel : toClose)
+            IOUtil.close(channel.sftpClient);
+    }
+
+    @FunctionalInterface
+    interface SftpOperation<T>
+    {
+        T apply(SFTPClient sftpClient) throws IOException;
+    }
+
+    class Lease implements AutoCloseable
+    {
+        private final Channel channel;
+        private boolean released;
+
+        private Lease(Channel channel)
+        {
+            this.channel = channel;
+        }
+
+        SFTPClient getSftpClient()
+        {
+            return channel.sftpClient;
+        }
+
+        @Override
+        public void close()
+        {
+            synchronized (this)
+            {
+                if (released)
+                    return;
+                released = true;
+            }
+            release(channel);
+        }
+    }
+
+    private static class Channel
+    {
+        private final SFTPClient sftpClient;
+        private int leases;
+
+        private Channel(SFTPClient sftpClient)
+        {
+            this.sftpClient = sftpClient;
+        }
+
+        private boolean isOpen()
+        {
+            return sftpClient.getSFTPEngine().getSubsystem().isOpen();
+        }
+    }
+}
@@ -0,0 +1,415 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.rpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+
+import org.mortbay.jetty.orchestrator.nodefs.NodeFileSystemProvider;
+import org.mortbay.jetty.orchestrator.util.IOUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A host-local AppCDS archive shared by all the nodes spawned with the same JVM and classpath.
+ * The first node to be spawned dumps the archive when it exits, the following ones map it.
+ * Only the most recently used archives are kept.
+ */
+class AppCdsArchive implements Serializable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AppCdsArchive.class);
+    private static final long STALE_LOCK_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_ARCHIVES = 8;
+
+    private final File archiveFile;
+    private final File lockFile;
+    private final File dumpFile;
+    private final List<String> checkCommandLine;
+
+    private AppCdsArchive(File archiveFile, File lockFile, File dumpFile, List<String> checkCommandLine)
+    {
+        this.archiveFile = archiveFile;
+        this.lockFile = lockFile;
+        this.dumpFile = dumpFile;
+        this.checkCommandLine = checkCommandLine;
+    }
+
+    static AppCdsArchive of(String executable, List<String> opts, List<File> classPath, String nodeId) throws IOException
+    {
+        File archivesFolder = new File(System.getProperty("user.home") + "/." + NodeFileSystemProvider.PREFIX + "/.appcds");
+        archivesFolder.mkdirs();
+        String key = computeKey(executable, opts, classPath);
+        File archiveFile = new File(archivesFolder, key + ".jsa");
+        File lockFile = new File(archivesFolder, key + ".lock");
+        if (archiveFile.isFile())
+        {
+            // The modification time tells which archives were used last.
+            archiveFile.setLastModified(System.currentTimeMillis());
+            return new AppCdsArchive(archiveFile, lockFile, null, null);
+        }
+
+        if (lockFile.isFile() && isStale(lockFile))
+        {
+            // Whatever its dumper left behind cannot be trusted.
+            deleteFiles(archivesFolder, key + ".", ".tmp");
+            Files.deleteIfExists(lockFile.toPath());
+        }
+        if (!lockFile.createNewFile())
+            return new AppCdsArchive(archiveFile, lockFile, null, null); // another node is already dumping the archive
+        Files.write(lockFile.toPath(), Long.toString(ProcessHandle.current().pid()).getBytes(StandardCharsets.UTF_8));
+        evict(archivesFolder);
+
+        File dumpFile = new File(archivesFolder, key + "." + nodeId.replace('/', '_') + ".tmp");
+        List<String> checkCommandLine = new ArrayList<>();
+        checkCommandLine.add(executable);
+        checkCommandLine.addAll(opts);
+        checkCommandLine.add("-Xshare:on");
+        checkCommandLine.add("-Xlog:disable");
+        checkCommandLine.add("-XX:-CreateCoredumpOnCrash");
+        checkCommandLine.add("-XX:ErrorFile=" + new File(archivesFolder, key + ".hs_err.log").getAbsolutePath());
+        checkCommandLine.add("-XX:SharedArchiveFile=" + dumpFile.getAbsolutePath());
+        checkCommandLine.add("-classpath");
+        checkCommandLine.add(classPath.stream().map(File::getPath).collect(Collectors.joining(File.pathSeparator)));
+        checkCommandLine.add("-version");
+        return new AppCdsArchive(archiveFile, lockFile, dumpFile, new ArrayList<>(checkCommandLine));
+    }
+
+    /**
+     * A lock is stale when the process that holds it is gone, e.g. a dumper node that crashed,
+     * or when it does not tell its holder and is old.
+     */
+    private static boolean isStale(File lockFile) throws IOException
+    {
+        try
+        {
+            long pid = Long.parseLong(new String(Files.readAllBytes(lockFile.toPath()), StandardCharsets.UTF_8).trim());
+            return !ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+        }
+        catch (NumberFormatException e)
+        {
+            return System.currentTimeMillis() - lockFile.lastModified() > STALE_LOCK_MILLIS;
+        }
+        catch (NoSuchFileException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Delete the least recently used archives, to make room for the one about to be dumped.
+     * Deleting an archive that is mapped does not bother the JVMs that mapped it, except on Windows where it fails.
+     */
+    private static void evict(File archivesFolder)
+    {
+        File[] archives = archivesFolder.listFiles((dir, name) -> name.endsWith(".jsa"));
+        if (archives == null || archives.length < MAX_ARCHIVES)
+            return;
+        Arrays.sort(archives, Comparator.comparingLong(File::lastModified).reversed());
+        for (int i = MAX_ARCHIVES - 1; i < archives.length; i++)
+        {
+            try
+            {
+                Files.deleteIfExists(archives[i].toPath());
+            }
+            catch (IOException e)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Error evicting AppCDS archive {}", archives[i], e);
+            }
+        }
+    }
+
+    private static void deleteFiles(File folder, String prefix, String suffix) throws IOException
+    {
+        File[] files = folder.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(suffix));
+        if (files == null)
+            return;
+        for (File file : files)
+            Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * CDS cannot archive classes loaded from directories and refuses to run with non-empty directories
+     * in the classpath, so the directories found in the lib path are packed into jars.
+     * The jars are built reproducibly so that the archive key stays the same across runs.
+     */
+    static synchronized List<File> classPath(File libPath, File packedDirsPath) throws IOException
+    {
+        List<File> jars = new ArrayList<>();
+        List<File> packedDirs = new ArrayList<>();
+        File[] entries = libPath.listFiles();
+        if (entries != null)
+        {
+            Arrays.sort(entries);
+            for (File entry : entries)
+            {
+                String path = entry.getPath();
+                if (entry.isDirectory())
+                    packedDirs.add(pack(entry, new File(packedDirsPath, entry.getName() + ".jar")));
+                else if (path.endsWith(".jar") || path.endsWith(".JAR"))
+                    jars.add(entry);
+            }
+        }
+        jars.addAll(packedDirs);
+        return jars;
+    }
+
+    private static File pack(File dir, File jar) throws IOException
+    {
+        if (jar.isFile())
+            return jar;
+        jar.getParentFile().mkdirs();
+        File tmp = new File(jar.getPath() + ".tmp");
+        // Directories get re-created on each run, so only the files' timestamps are reproducible.
+        long lastModified = lastModified(dir);
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(tmp)))
+        {
+            packDir(jos, dir, "", lastModified);
+        }
+        tmp.setLastModified(lastModified);
+        Files.move(tmp.toPath(), jar.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return jar;
+    }
+
+    private static long lastModified(File dir)
+    {
+        long lastModified = 0L;
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+                lastModified = Math.max(lastModified, file.isDirectory() ? lastModified(file) : file.lastModified());
+        }
+        return lastModified;
+    }
+
+    private static void packDir(JarOutputStream jos, File dir, String prefix, long lastModified) throws IOException
+    {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files);
+        for (File file : files)
+        {
+            String name = prefix + file.getName();
+            if (file.isDirectory())
+            {
+                JarEntry entry = new JarEntry(name + "/");
+                entry.setTime(lastModified);
+                jos.putNextEntry(entry);
+                jos.closeEntry();
+                packDir(jos, file, name + "/", lastModified);
+            }
+            else
+            {
+                JarEntry entry = new JarEntry(name);
+                entry.setTime(file.lastModified());
+                jos.putNextEntry(entry);
+                try (InputStream is = new FileInputStream(file))
+                {
+                    IOUtil.copy(is, jos);
+                }
+                jos.closeEntry();
+            }
+        }
+    }
+
+    private static String computeKey(String executable, List<String> opts, List<File> classPath) throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IOException(e);
+        }
+        update(digest, executable);
+        // The archive is only valid for the exact JVM build that dumped it, which can change in place.
+        update(digest, jvmFingerprint(executable));
+        for (String opt : opts)
+            update(digest, opt);
+        // CDS validates the classpath, and the size and mtime of each jar, when mapping the archive.
+        for (File entry : classPath)
+        {
+            update(digest, entry.getAbsolutePath());
+            update(digest, Long.toString(entry.length()));
+            update(digest, Long.toString(entry.lastModified()));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest())
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    /**
+     * @return the content of the JDK's release file, or the output of {@code java -version} when there is no such file.
+     */
+    private static String jvmFingerprint(String executable) throws IOException
+    {
+        File executableFile = new File(executable);
+        if (executableFile.isFile())
+        {
+            File javaHome = executableFile.toPath().toRealPath().getParent().getParent().toFile();
+            File releaseFile = new File(javaHome, "release");
+            if (releaseFile.isFile())
+                return new String(Files.readAllBytes(releaseFile.toPath()), StandardCharsets.UTF_8);
+        }
+
+        Process process = new ProcessBuilder(executable, "-version").redirectErrorStream(true).start();
+        try (InputStream is = process.getInputStream())
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            IOUtil.copy(is, baos);
+            if (!process.waitFor(30, TimeUnit.SECONDS))
+                throw new IOException("Timeout getting the version of " + executable);
+            return baos.toString(StandardCharsets.UTF_8);
+        }
+        catch (InterruptedException e)
+        {
+            throw new IOException(e);
+        }
+        finally
+        {
+            process.destroy();
+        }
+    }
+
+    private static void update(MessageDigest digest, String s)
+    {
+        digest.update(s.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+    }
+
+    List<String> jvmOptions()
+    {
+        if (dumpFile != null)
+            return Arrays.asList("-XX:+IgnoreUnrecognizedVMOptions", "-Xlog:cds*=off", "-XX:ArchiveClassesAtExit=" + dumpFile.getAbsolutePath());
+        if (archiveFile.isFile())
+            return Arrays.asList("-Xlog:cds*=off", "-XX:SharedArchiveFile=" + archiveFile.getAbsolutePath());
+        return Collections.emptyList();
+    }
+
+    /**
+     * Record the node that dumps the archive in the lock, so that the lock can be broken as soon as that node is gone.
+     */
+    void lockedBy(long pid)
+    {
+        if (dumpFile == null)
+            return;
+        try
+        {
+            Files.write(lockFile.toPath(), Long.toString(pid).getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException e)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Error recording the holder of AppCDS lock {}", lockFile, e);
+        }
+    }
+
+    /**
+     * Must be called once the node process exited, so that the dumped archive can be made available to the other nodes.
+     * @param exited whether the node process exited by itself; the archive of a node that had to be killed is dropped,
+     * as it may be truncated.
+     */
+    void publish(boolean exited)
+    {
+        if (dumpFile == null)
+            return;
+        try
+        {
+            if (exited && dumpFile.isFile() && isMappable())
+                Files.move(dumpFile.toPath(), archiveFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Error publishing AppCDS archive {}", archiveFile, e);
+        }
+        finally
+        {
+            try
+            {
+                Files.deleteIfExists(dumpFile.toPath());
+                Files.deleteIfExists(lockFile.toPath());
+            }
+            catch (IOException e)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Error cleaning up AppCDS lock {}", lockFile, e);
+            }
+        }
+    }
+
+    /**
+     * A truncated archive crashes the JVMs that map it, so make sure a JVM can start with the dumped one.
+     */
+    private boolean isMappable() throws IOException
+    {
+        Process process = new ProcessBuilder(checkCommandLine)
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        try
+        {
+            if (!process.waitFor(30, TimeUnit.SECONDS))
+                return false;
+            int exitValue = process.exitValue();
+            if (exitValue != 0 && LOG.isDebugEnabled())
+                LOG.debug("AppCDS archive {} cannot be mapped, exit value {}", dumpFile, exitValue);
+            return exitValue == 0;
+        }
+        catch (InterruptedException e)
+        {
+            throw new IOException(e);
+        }
+        finally
+        {
+            process.destroyForcibly();
+            String errorFile = checkCommandLine.stream().filter(opt -> opt.startsWith("-XX:ErrorFile=")).findFirst().orElseThrow();
+            Files.deleteIfExists(new File(errorFile.substring(errorFile.indexOf('=') + 1)).toPath());
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AppCdsArchive{" +
+            "archiveFile=" + archiveFile +
+            ", dumping=" + (dumpFile != null) +
+            '}';
+    }
+}
@@ -15,19 +15,28 @@ package org.mortbay.jetty.orchestrator.rpc;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.nio.file.FileSystem;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import org.mortbay.jetty.orchestrator.configuration.Jvm;
+import org.mortbay.jetty.orchestrator.configuration.OutputCapture;
 import org.mortbay.jetty.orchestrator.nodefs.NodeFileSystemProvider;
+import org.mortbay.jetty.orchestrator.rpc.command.GetStartupTimelineCommand;
+import org.mortbay.jetty.orchestrator.rpc.command.SpawnNodeCommand;
+import org.mortbay.jetty.orchestrator.util.CapturedOutput;
 import org.mortbay.jetty.orchestrator.util.IOUtil;
+import org.mortbay.jetty.orchestrator.util.OutputAggregator;
+import org.mortbay.jetty.orchestrator.util.OutputPump;
 import org.mortbay.jetty.orchestrator.util.ProcessHolder;
-import org.mortbay.jetty.orchestrator.util.StreamCopier;
+import org.mortbay.jetty.orchestrator.util.StartupTimeline;
 import org.mortbay.jetty.orchestrator.util.ZooKeeperClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,12 +45,20 @@ public class NodeProcess implements Serializable, AutoCloseable
 {
     private static final Logger LOG = LoggerFactory.getLogger(NodeProcess.class);
     public static final String CLASSPATH_FOLDER_NAME = ".classpath";
+    private static final String PACKED_CLASSPATH_FOLDER_NAME = ".classpath-jars";
+    private static final String TOMBSTONES_FOLDER_NAME = ".tombstones";
+    public static final String EPHEMERAL_LIVENESS_ARG = "ephemeral-liveness";
+    public static final String REMOTE_CLASS_LOADING_ARG = "remote-class-loading";
+    private static final String REMOTE_CLASSPATH_FOLDER_NAME = ".classpath-remote";
+    public static final String ZOOKEEPER_CLIENT_ENV_KEY = ZooKeeperClient.class.getName();
 
     private final ProcessHolder processHelper;
+    private final AppCdsArchive appCdsArchive;
 
-    private NodeProcess(Process process)
+    private NodeProcess(Process process, AppCdsArchive appCdsArchive)
     {
         this.processHelper = ProcessHolder.from(process);
+        this.appCdsArchive = appCdsArchive;
     }
 
     public boolean isAlive()
@@ -49,18 +66,27 @@ public class NodeProcess implements Serializable, AutoCloseable
         return processHelper.isAlive();
     }
 
+    public void onExit(Runnable action)
+    {
+        processHelper.onExit(action);
+    }
+
     @Override
     public void close()
     {
+        // A process that had to be killed, or that is still alive, may have left a truncated archive.
+        boolean exited = false;
         try
         {
-            processHelper.destroy();
+            exited = processHelper.destroy();
         }
         catch (Exception e)
         {
             if (LOG.isDebugEnabled())
                 LOG.debug("Error terminating process with PID=" + processHelper.getPid(), e);
         }
+        if (appCdsArchive != null)
+            appCdsArchive.publish(exited);
     }
 
     @Override
@@ -88,14 +114,53 @@ public class NodeProcess implements Serializable, AutoCloseable
                 LOG.warn("Invalid health check timeout {}, using default of {}ms", healthCheckTimeoutString, healthCheckTimeout);
             }
         }
+        boolean ephemeralLiveness = isEphemeralLiveness(args);
+
+        StartupTimeline startupTimeline = new StartupTimeline();
+        String entity = nodeId.substring(nodeId.indexOf('/') + 1);
+        // Only meaningful when running in a dedicated JVM, not in a thread started by spawnThread().
+        if ("main".equals(Thread.currentThread().getName()))
+        {
+            long jvmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+            startupTimeline.record(entity, "jvm-boot", jvmStartTime, TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - jvmStartTime), null);
+        }
 
         if (LOG.isDebugEnabled())
             LOG.debug("Starting node [{}] with JVM version '{}' connecting to {}", nodeId, System.getProperty("java.version"), connectString);
-        ZooKeeperClient zkClient = new ZooKeeperClient(connectString);
+        ZooKeeperClient zkClient;
+        try (StartupTimeline.Phase ignored = startupTimeline.begin(entity, "zookeeper-connect"))
+        {
+            zkClient = new ZooKeeperClient(connectString);
+        }
 
         if (LOG.isDebugEnabled())
             LOG.debug("Node [{}] connected to {}", nodeId, connectString);
-        RpcServer rpcServer = new RpcServer(zkClient, new GlobalNodeId(nodeId));
+        GlobalNodeId globalNodeId = new GlobalNodeId(nodeId);
+        RemoteClassLoader remoteClassLoader = null;
+        if (isRemoteClassLoading(args))
+        {
+            // The commands get deserialized by this thread and executed by threads it creates, which inherit the loader.
+            remoteClassLoader = new RemoteClassLoader(NodeProcess.class.getClassLoader(), new File(defaultRootPath(globalNodeId.getHostId()), REMOTE_CLASSPATH_FOLDER_NAME), zkClient, globalNodeId);
+            Thread.currentThread().setContextClassLoader(remoteClassLoader);
+        }
+        RpcServer rpcServer = new RpcServer(zkClient, globalNodeId);
+        rpcServer.getClusterTools().localEnvironment().put(GetStartupTimelineCommand.ENV_KEY, startupTimeline);
+        rpcServer.getClusterTools().localEnvironment().put(ZOOKEEPER_CLIENT_ENV_KEY, zkClient);
+
+        AtomicBoolean isShutdown = new AtomicBoolean();
+        if (ephemeralLiveness)
+        {
+            // The ZK session is the heartbeat: the cluster watches the ephemeral znode,
+            // and losing the session means the cluster is dead.
+            zkClient.onConnectionLost(() ->
+            {
+                if (isShutdown.get())
+                    return;
+                LOG.error("Node [{}] lost its ZooKeeper session, assuming the cluster is dead", nodeId);
+                System.exit(1);
+            });
+            zkClient.registerLiveness(globalNodeId);
+        }
 
         // The Cluster sends a CheckNodeCommand every 5 seconds, if we miss too many
         // we can assume the connection is dead.
@@ -124,9 +189,10 @@ public class NodeProcess implements Serializable, AutoCloseable
             }
         });
         keepalive.setDaemon(true);
-        keepalive.start();
+        if (!ephemeralLiveness)
+            keepalive.start();
 
-        AtomicBoolean isShutdown = new AtomicBoolean();
+        RemoteClassLoader finalRemoteClassLoader = remoteClassLoader;
         Thread shutdown = new Thread(() ->
         {
             if (!isShutdown.compareAndSet(false, true))
@@ -135,6 +201,8 @@ public class NodeProcess implements Serializable, AutoCloseable
                 LOG.debug("Node [{}] stopping", nodeId);
             keepalive.interrupt();
             IOUtil.close(rpcServer);
+            SpawnNodeCommand.closeOutputAggregators(rpcServer.getClusterTools());
+            IOUtil.close(finalRemoteClassLoader);
             IOUtil.close(zkClient);
             if (LOG.isDebugEnabled())
                 LOG.debug("Node [{}] stopped", nodeId);
@@ -155,24 +223,101 @@ public class NodeProcess implements Serializable, AutoCloseable
         }
     }
 
-    public static NodeProcess spawn(FileSystem fileSystem, Jvm jvm, String hostId, String nodeId, String hostname, String connectString, String... extraArgs) throws IOException
+    /**
+     * @return true if the given node arguments ask for liveness to be tracked with an ephemeral znode.
+     */
+    public static boolean isEphemeralLiveness(String... args)
+    {
+        return Arrays.asList(args).contains(EPHEMERAL_LIVENESS_ARG);
+    }
+
+    /**
+     * @return true if the given node arguments ask for the classes missing from the bootstrap classpath to be loaded from the cluster.
+     * @see RemoteClassLoader
+     */
+    public static boolean isRemoteClassLoading(String... args)
+    {
+        return Arrays.asList(args).contains(REMOTE_CLASS_LOADING_ARG);
+    }
+
+    /**
+     * @return the entries of the local classpath a launcher must copy to a host for nodes started with the given arguments.
+     */
+    public static List<String> classPathToCopy(String... args)
+    {
+        if (isRemoteClassLoading(args))
+            return RemoteClassLoader.bootstrapClassPath().stream().map(File::getPath).collect(Collectors.toList());
+        return Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator));
+    }
+
+    public static NodeProcess spawn(FileSystem fileSystem, Jvm jvm, String hostId, String nodeId, String hostname, String connectString, String linePrefix, OutputCapture outputCapture, OutputAggregator outAggregator, OutputAggregator errAggregator, String... extraArgs) throws IOException
     {
         File nodeRootPath = defaultRootPath(nodeId);
-        IOUtil.deltree(nodeRootPath);
+        IOUtil.deltreeInBackground(nodeRootPath, tombstonesPath());
         nodeRootPath.mkdirs();
 
-        List<String> cmdLine = buildCommandLine(fileSystem, jvm, defaultLibPath(hostId), nodeId, hostname, connectString, extraArgs);
+        File libPath = defaultLibPath(hostId);
+        String executable = jvm.executable(fileSystem, hostname);
+        String classPath;
+        AppCdsArchive appCdsArchive = null;
+        if (jvm.isAppCds())
+        {
+            List<File> classPathEntries = AppCdsArchive.classPath(libPath, new File(defaultRootPath(hostId), PACKED_CLASSPATH_FOLDER_NAME));
+            appCdsArchive = AppCdsArchive.of(executable, jvm.getOpts(), classPathEntries, nodeId);
+            classPath = classPathEntries.stream().map(File::getPath).collect(Collectors.joining(File.pathSeparator));
+            if (LOG.isDebugEnabled())
+                LOG.debug("Spawning node [{}] with {}", nodeId, appCdsArchive);
+        }
+        else
+        {
+            classPath = buildClassPath(libPath);
+        }
+        List<String> cmdLine = buildCommandLine(executable, jvm.getOpts(), appCdsArchive, classPath, nodeId, connectString, extraArgs);
         // Inherited IO bypasses the System.setOut/setErr mechanism, so use piping for stdout/stderr such as
         // System.setOut/setErr can redirect the output of the process.
-        Process process = new ProcessBuilder(cmdLine)
-            .directory(nodeRootPath)
-            .redirectInput(ProcessBuilder.Redirect.INHERIT)
-            .redirectError(ProcessBuilder.Redirect.PIPE)
-            .redirectOutput(ProcessBuilder.Redirect.PIPE)
-            .start();
-        new StreamCopier(process.getInputStream(), System.out, true).spawnDaemon(hostname + "-proc-stdout");
-        new StreamCopier(process.getErrorStream(), System.err, true).spawnDaemon(hostname + "-proc-stderr");
-        return new NodeProcess(process);
+        Process process;
+        try
+        {
+            process = new ProcessBuilder(cmdLine)
+                .directory(nodeRootPath)
+                .redirectInput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.PIPE)
+                .redirectOutput(ProcessBuilder.Redirect.PIPE)
+                .start();
+        }
+        catch (IOException e)
+        {
+            if (appCdsArchive != null)
+                appCdsArchive.publish(false);
+            throw e;
+        }
+        if (appCdsArchive != null)
+            appCdsArchive.lockedBy(process.pid());
+        OutputStream out = System.out;
+        OutputStream err = System.err;
+        if (outAggregator != null && errAggregator != null)
+        {
+            // The aggregator prefixes the lines it could not collapse itself, so identical lines still match.
+            OutputStream outSource = outAggregator.source(linePrefix);
+            OutputStream errSource = errAggregator.source(linePrefix);
+            process.onExit().thenRun(() -> IOUtil.close(outSource, errSource));
+            out = outSource;
+            err = errSource;
+            linePrefix = null;
+        }
+        if (outputCapture == null)
+        {
+            OutputPump.shared().pump(process.getInputStream(), out, linePrefix, process::isAlive);
+            OutputPump.shared().pump(process.getErrorStream(), err, linePrefix, process::isAlive);
+        }
+        else
+        {
+            CapturedOutput capturedOutput = new CapturedOutput(nodeRootPath, outputCapture, linePrefix);
+            OutputPump.shared().pump(process.getInputStream(), capturedOutput.stream(false, out), null, process::isAlive);
+            OutputPump.shared().pump(process.getErrorStream(), capturedOutput.stream(true, err), null, process::isAlive);
+            process.onExit().thenRun(capturedOutput::close);
+        }
+        return new NodeProcess(process, appCdsArchive);
     }
 
     public static Thread spawnThread(String nodeId, String connectString, String... extraArgs)
@@ -199,6 +344,14 @@ public class NodeProcess implements Serializable, AutoCloseable
         return t;
     }
 
+    /**
+     * @return where the folders to be deleted in the background are moved to.
+     */
+    public static File tombstonesPath()
+    {
+        return defaultRootPath(TOMBSTONES_FOLDER_NAME);
+    }
+
     private static File defaultRootPath(String hostId)
     {
         return new File(System.getProperty("user.home") + "/." + NodeFileSystemProvider.PREFIX + "/" + hostId);
@@ -210,13 +363,15 @@ public class NodeProcess implements Serializable, AutoCloseable
         return new File(rootPath, CLASSPATH_FOLDER_NAME);
     }
 
-    private static List<String> buildCommandLine(FileSystem fileSystem, Jvm jvm, File libPath, String nodeId, String hostname, String connectString, String... extraArgs)
+    private static List<String> buildCommandLine(String executable, List<String> opts, AppCdsArchive appCdsArchive, String classPath, String nodeId, String connectString, String... extraArgs)
     {
         List<String> cmdLine = new ArrayList<>();
-        cmdLine.add(jvm.executable(fileSystem, hostname));
-        cmdLine.addAll(filterOutEmptyStrings(jvm.getOpts()));
+        cmdLine.add(executable);
+        cmdLine.addAll(filterOutEmptyStrings(opts));
+        if (appCdsArchive != null)
+            cmdLine.addAll(appCdsArchive.jvmOptions());
         cmdLine.add("-classpath");
-        cmdLine.add(buildClassPath(libPath));
+        cmdLine.add(classPath);
         cmdLine.add(NodeProcess.class.getName());
         cmdLine.add(nodeId);
         cmdLine.add(connectString);
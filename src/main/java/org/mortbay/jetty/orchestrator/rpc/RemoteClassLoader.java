@@ -0,0 +1,214 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.rpc;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.mortbay.jetty.orchestrator.rpc.command.GetResourceCommand;
+import org.mortbay.jetty.orchestrator.util.IOUtil;
+import org.mortbay.jetty.orchestrator.util.ZooKeeperClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the classes and resources that are not on the node's bootstrap classpath from the cluster,
+ * over RPC. What gets fetched is written to a cache folder shared by all the processes of a host,
+ * so each class crosses the network at most once per host.
+ */
+public class RemoteClassLoader extends ClassLoader implements AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RemoteClassLoader.class);
+    /**
+     * The hostname under which the cluster serves its classpath, it cannot clash with a real one as it is not a valid hostname.
+     */
+    static final String CLASS_SERVER_HOSTNAME = "_classpath";
+    private static final long FETCH_TIMEOUT_SECONDS = 30L;
+    // The classes a node needs before it can reach the cluster, the ones that cannot be found are skipped.
+    private static final List<String> BOOTSTRAP_CLASS_NAMES = List.of(
+        "org.mortbay.jetty.orchestrator.rpc.NodeProcess",
+        "org.slf4j.LoggerFactory",
+        "ch.qos.logback.classic.Logger",
+        "ch.qos.logback.core.Appender",
+        "org.slf4j.simple.SimpleLogger",
+        "org.apache.curator.CuratorZookeeperClient",
+        "org.apache.curator.framework.CuratorFramework",
+        "org.apache.curator.framework.recipes.queue.SimpleDistributedQueue",
+        "org.apache.zookeeper.ZooKeeper",
+        "org.apache.jute.Record",
+        "io.netty.handler.ssl.SslContext", // linked by the ZooKeeper client configuration
+        "io.netty.handler.codec.ByteToMessageDecoder",
+        "io.netty.channel.Channel",
+        "io.netty.channel.unix.Socket",
+        "io.netty.resolver.AddressResolver",
+        "io.netty.buffer.ByteBuf",
+        "io.netty.util.concurrent.Future",
+        "com.google.common.base.Preconditions",
+        "com.google.common.util.concurrent.internal.InternalFutureFailureAccess",
+        "net.schmizz.sshj.SSHClient" // referenced by the NodeFileSystemProvider service
+    );
+
+    static
+    {
+        registerAsParallelCapable();
+    }
+
+    private final File cacheDir;
+    private final RpcClient rpcClient;
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+
+    public RemoteClassLoader(ClassLoader parent, File cacheDir, ZooKeeperClient zkClient, GlobalNodeId globalNodeId)
+    {
+        super(parent);
+        this.cacheDir = cacheDir;
+        // Several processes fetch concurrently, each needs its own response queue.
+        this.rpcClient = new RpcClient(zkClient, classServerId(globalNodeId.getClusterId()), "RPC/classQ-" + UUID.randomUUID());
+    }
+
+    /**
+     * @return the ID of the RPC server the cluster runs to serve its classpath.
+     */
+    public static GlobalNodeId classServerId(String clusterId)
+    {
+        return new GlobalNodeId(clusterId, CLASS_SERVER_HOSTNAME);
+    }
+
+    /**
+     * @return the entries of the local classpath that must be copied for a node to start when it loads the rest remotely.
+     */
+    public static List<File> bootstrapClassPath()
+    {
+        Set<File> entries = new LinkedHashSet<>();
+        for (String className : BOOTSTRAP_CLASS_NAMES)
+        {
+            try
+            {
+                CodeSource codeSource = Class.forName(className, false, RemoteClassLoader.class.getClassLoader()).getProtectionDomain().getCodeSource();
+                if (codeSource != null && codeSource.getLocation() != null)
+                    entries.add(new File(codeSource.getLocation().toURI()));
+            }
+            catch (ClassNotFoundException | URISyntaxException e)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Skipping bootstrap class {}", className, e);
+            }
+        }
+        return new ArrayList<>(entries);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException
+    {
+        File file = fetch(name.replace('.', '/') + ".class");
+        if (file == null)
+            throw new ClassNotFoundException(name);
+        try
+        {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+        catch (IOException e)
+        {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+
+    @Override
+    protected URL findResource(String name)
+    {
+        File file = fetch(name);
+        if (file == null)
+            return null;
+        try
+        {
+            return file.toURI().toURL();
+        }
+        catch (MalformedURLException e)
+        {
+            return null;
+        }
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name)
+    {
+        URL url = findResource(name);
+        return url == null ? Collections.emptyEnumeration() : Collections.enumeration(List.of(url));
+    }
+
+    private File fetch(String name)
+    {
+        if (name.startsWith("/") || name.contains(".."))
+            return null;
+        File file = new File(cacheDir, name);
+        if (file.isFile())
+            return file;
+        if (missing.contains(name))
+            return null;
+        try
+        {
+            byte[] bytes = (byte[])rpcClient.call(new GetResourceCommand(name), FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (bytes == null)
+            {
+                missing.add(name);
+                return null;
+            }
+            // Other processes of the host may fetch the same resource concurrently, only publish complete files.
+            Path target = file.toPath();
+            Files.createDirectories(target.getParent());
+            Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            Files.write(tmp, bytes);
+            try
+            {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (LOG.isDebugEnabled())
+                LOG.debug("Fetched {} ({} bytes) from the cluster", name, bytes.length);
+            return file;
+        }
+        catch (Exception e)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Error fetching {} from the cluster", name, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        IOUtil.close(rpcClient);
+    }
+}
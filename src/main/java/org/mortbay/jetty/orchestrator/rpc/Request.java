@@ -21,11 +21,21 @@ public class Request implements Serializable
 {
     private final long id;
     private final Command command;
+    private final String replyTo;
 
     public Request(long id, Command command)
+    {
+        this(id, command, null);
+    }
+
+    /**
+     * @param replyTo the name of the queue the response must be sent to, or null for the default response queue.
+     */
+    public Request(long id, Command command, String replyTo)
     {
         this.id = id;
         this.command = command;
+        this.replyTo = replyTo;
     }
 
     public long getId()
@@ -38,12 +48,18 @@ public class Request implements Serializable
         return command;
     }
 
+    public String getReplyTo()
+    {
+        return replyTo;
+    }
+
     @Override
     public String toString()
     {
         return "Request{" +
             "id=" + id +
             ", command=" + command +
+            (replyTo == null ? "" : ", replyTo=" + replyTo) +
             '}';
     }
 }
@@ -40,12 +40,36 @@ public class RpcClient implements AutoCloseable
     private final ConcurrentMap<Long, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
     private final AtomicLong requestIdGenerator = new AtomicLong();
     private final GlobalNodeId globalNodeId;
+    private final String replyTo;
 
     public RpcClient(ZooKeeperClient zkClient, GlobalNodeId globalNodeId)
+    {
+        this(zkClient, globalNodeId, null);
+    }
+
+    /**
+     * Create a client that gets its responses on a queue of its own instead of the node's default response queue,
+     * so that it can call a node that another client is already talking to.
+     * @param replyTo the name of the response queue, or null for the default one.
+     */
+    public RpcClient(ZooKeeperClient zkClient, GlobalNodeId globalNodeId, String replyTo)
     {
         this.globalNodeId = globalNodeId;
+        this.replyTo = replyTo;
         commandQueue = zkClient.createDistributedQueue(globalNodeId, RpcServer.COMMAND_QUEUE_NAME);
-        responseQueue = zkClient.createDistributedQueue(globalNodeId, RpcServer.RESPONSE_QUEUE_NAME);
+        responseQueue = zkClient.createDistributedQueue(globalNodeId, replyTo == null ? RpcServer.RESPONSE_QUEUE_NAME : replyTo);
+        if (replyTo != null)
+        {
+            // Responses to a queue of its own are dropped if the queue does not exist.
+            try
+            {
+                zkClient.ensureDistributedQueue(globalNodeId, replyTo);
+            }
+            catch (Exception e)
+            {
+                throw new IllegalStateException("Error creating response queue " + replyTo + " of node " + globalNodeId.getNodeId(), e);
+            }
+        }
         executorService = Executors.newSingleThreadExecutor(r ->
         {
             Thread t = new Thread(r);
@@ -75,7 +99,7 @@ public class RpcClient implements AutoCloseable
         long requestId = requestIdGenerator.getAndIncrement();
         CompletableFuture<Object> completableFuture = new CompletableFuture<>();
         calls.put(requestId, completableFuture);
-        Request request = new Request(requestId, command);
+        Request request = new Request(requestId, command, replyTo);
         if (LOG.isDebugEnabled())
             LOG.debug("{} sending request {}", globalNodeId.getNodeId(), request);
         commandQueue.offer(request);
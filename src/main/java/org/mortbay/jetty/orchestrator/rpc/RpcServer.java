@@ -30,6 +30,7 @@ public class RpcServer implements AutoCloseable
     static final String COMMAND_QUEUE_NAME = "RPC/commandQ";
     static final String RESPONSE_QUEUE_NAME = "RPC/responseQ";
 
+    private final ZooKeeperClient zkClient;
     private final GlobalNodeId globalNodeId;
     private final DistributedQueue commandQueue;
     private final DistributedQueue responseQueue;
@@ -41,6 +42,7 @@ public class RpcServer implements AutoCloseable
 
     public RpcServer(ZooKeeperClient zkClient, GlobalNodeId globalNodeId)
     {
+        this.zkClient = zkClient;
         this.globalNodeId = globalNodeId;
         commandQueue = zkClient.createDistributedQueue(globalNodeId, COMMAND_QUEUE_NAME);
         responseQueue = zkClient.createDistributedQueue(globalNodeId, RESPONSE_QUEUE_NAME);
@@ -61,6 +63,11 @@ public class RpcServer implements AutoCloseable
         return lastCommandTimestamp;
     }
 
+    ClusterTools getClusterTools()
+    {
+        return clusterTools;
+    }
+
     @Override
     public void close() throws Exception
     {
@@ -126,7 +133,17 @@ public class RpcServer implements AutoCloseable
                     try
                     {
                         Response response = new Response(requestId, result, throwable);
-                        responseQueue.offer(response);
+                        String replyTo = request.getReplyTo();
+                        if (replyTo == null)
+                        {
+                            responseQueue.offer(response);
+                        }
+                        else if (!zkClient.offerIfQueueExists(globalNodeId, replyTo, response))
+                        {
+                            // The caller gave up and deleted its queue, do not create it back.
+                            if (LOG.isDebugEnabled())
+                                LOG.debug("Dropping response to {} as its queue {} is gone", request, replyTo);
+                        }
                     }
                     catch (Exception e)
                     {
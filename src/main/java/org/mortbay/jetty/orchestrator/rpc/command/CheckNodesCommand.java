@@ -0,0 +1,46 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.rpc.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mortbay.jetty.orchestrator.ClusterTools;
+import org.mortbay.jetty.orchestrator.rpc.NodeProcess;
+
+/**
+ * Checks all the processes spawned by a host in a single round trip.
+ * The result is the list of the processes that died.
+ */
+public class CheckNodesCommand implements Command
+{
+    private final List<NodeProcess> processes;
+
+    public CheckNodesCommand(List<NodeProcess> processes)
+    {
+        this.processes = new ArrayList<>(processes);
+    }
+
+    @Override
+    public Object execute(ClusterTools clusterTools) throws Exception
+    {
+        List<NodeProcess> dead = new ArrayList<>();
+        for (NodeProcess process : processes)
+        {
+            if (!process.isAlive())
+                dead.add(process);
+        }
+        return dead;
+    }
+}
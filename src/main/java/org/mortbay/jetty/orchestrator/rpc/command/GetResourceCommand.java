@@ -0,0 +1,49 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.rpc.command;
+
+import java.io.InputStream;
+
+import org.mortbay.jetty.orchestrator.ClusterTools;
+
+/**
+ * Executed by the cluster on behalf of a node that loads its classes remotely.
+ * The result is the content of the requested resource, or null if the cluster's classpath does not have it.
+ */
+public class GetResourceCommand implements Command
+{
+    private final String name;
+
+    public GetResourceCommand(String name)
+    {
+        this.name = name;
+    }
+
+    @Override
+    public byte[] execute(ClusterTools clusterTools) throws Exception
+    {
+        try (InputStream is = ClassLoader.getSystemClassLoader().getResourceAsStream(name))
+        {
+            return is == null ? null : is.readAllBytes();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "GetResourceCommand{" +
+            "name='" + name + '\'' +
+            '}';
+    }
+}
@@ -0,0 +1,34 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.rpc.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mortbay.jetty.orchestrator.ClusterTools;
+import org.mortbay.jetty.orchestrator.util.StartupTimeline;
+
+public class GetStartupTimelineCommand implements Command
+{
+    public static final String ENV_KEY = StartupTimeline.class.getName();
+
+    @Override
+    public List<StartupTimeline.Entry> execute(ClusterTools clusterTools)
+    {
+        StartupTimeline startupTimeline = (StartupTimeline)clusterTools.localEnvironment().get(ENV_KEY);
+        if (startupTimeline == null)
+            return new ArrayList<>();
+        return startupTimeline.entries();
+    }
+}
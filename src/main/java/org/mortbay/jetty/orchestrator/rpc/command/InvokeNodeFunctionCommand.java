@@ -0,0 +1,56 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.rpc.command;
+
+import org.mortbay.jetty.orchestrator.ClusterTools;
+import org.mortbay.jetty.orchestrator.NodeFunction;
+
+/**
+ * Invokes a {@link NodeFunction} previously deployed with {@link RegisterNodeFunctionCommand},
+ * so that only its name and argument have to be sent.
+ */
+public class InvokeNodeFunctionCommand implements Command
+{
+    private final String name;
+    private final Object argument;
+
+    public InvokeNodeFunctionCommand(String name, Object argument)
+    {
+        this.name = name;
+        this.argument = argument;
+    }
+
+    @Override
+    public Object execute(ClusterTools clusterTools) throws Exception
+    {
+        return invoke(clusterTools, name, argument);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Object invoke(ClusterTools clusterTools, String name, Object argument) throws Exception
+    {
+        NodeFunction<Object, ?> nodeFunction = (NodeFunction<Object, ?>)RegisterNodeFunctionCommand.registry(clusterTools).get(name);
+        if (nodeFunction == null)
+            throw new IllegalStateException("No node function registered under name '" + name + "' on node " + clusterTools.getGlobalNodeId().getNodeId());
+        return nodeFunction.apply(clusterTools, argument);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "InvokeNodeFunctionCommand{" +
+            "name='" + name + '\'' +
+            '}';
+    }
+}
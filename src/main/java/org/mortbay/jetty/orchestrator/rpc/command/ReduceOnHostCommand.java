@@ -0,0 +1,131 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.rpc.command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.mortbay.jetty.orchestrator.ClusterTools;
+import org.mortbay.jetty.orchestrator.NodeCallable;
+import org.mortbay.jetty.orchestrator.NodeCombiner;
+import org.mortbay.jetty.orchestrator.rpc.GlobalNodeId;
+import org.mortbay.jetty.orchestrator.rpc.NodeProcess;
+import org.mortbay.jetty.orchestrator.rpc.RpcClient;
+import org.mortbay.jetty.orchestrator.util.IOUtil;
+import org.mortbay.jetty.orchestrator.util.ZooKeeperClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sent to a host to have it call a {@link NodeCallable} on the nodes it spawned and fold
+ * their results with a {@link NodeCombiner}, so that a single value per host travels back to the cluster.
+ */
+public class ReduceOnHostCommand implements Command
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ReduceOnHostCommand.class);
+
+    private final List<String> nodeIds;
+    private final NodeCallable<?> nodeCallable;
+    private final NodeCombiner<?> nodeCombiner;
+    private final long timeoutMillis;
+
+    /**
+     * @param timeoutMillis how long the host waits for the results of its nodes, or a negative value for no limit.
+     */
+    public ReduceOnHostCommand(List<String> nodeIds, NodeCallable<?> nodeCallable, NodeCombiner<?> nodeCombiner, long timeoutMillis)
+    {
+        this.nodeIds = new ArrayList<>(nodeIds);
+        this.nodeCallable = nodeCallable;
+        this.nodeCombiner = nodeCombiner;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object execute(ClusterTools clusterTools) throws Exception
+    {
+        ZooKeeperClient zkClient = (ZooKeeperClient)clusterTools.localEnvironment().get(NodeProcess.ZOOKEEPER_CLIENT_ENV_KEY);
+        // The cluster reads the default response queues of the nodes, so the replies must go elsewhere.
+        String replyTo = "RPC/reduceQ-" + UUID.randomUUID();
+        List<RpcClient> rpcClients = new ArrayList<>();
+        try
+        {
+            List<CompletableFuture<Object>> futures = new ArrayList<>();
+            for (String nodeId : nodeIds)
+            {
+                RpcClient rpcClient = new RpcClient(zkClient, new GlobalNodeId(nodeId), replyTo);
+                rpcClients.add(rpcClient);
+                futures.add(rpcClient.callAsync(new ExecuteNodeCallableCommand(nodeCallable)));
+            }
+
+            NodeCombiner<Object> combiner = (NodeCombiner<Object>)nodeCombiner;
+            Object result = null;
+            boolean combined = false;
+            Exception failure = null;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            for (int i = 0; i < futures.size(); i++)
+            {
+                Exception x = null;
+                try
+                {
+                    Object nodeResult = timeoutMillis < 0 ? futures.get(i).get() : futures.get(i).get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    result = combined ? combiner.combine(result, nodeResult) : nodeResult;
+                    combined = true;
+                }
+                catch (ExecutionException e)
+                {
+                    // The RPC client wraps the remote throwable.
+                    Throwable cause = e.getCause() instanceof ExecutionException ? e.getCause().getCause() : e.getCause();
+                    x = new Exception("Error calling node " + nodeIds.get(i), cause);
+                }
+                catch (TimeoutException e)
+                {
+                    x = new Exception("Timed out after " + timeoutMillis + "ms waiting for node " + nodeIds.get(i), e);
+                }
+                if (x != null)
+                {
+                    if (failure == null)
+                        failure = x;
+                    else
+                        failure.addSuppressed(x);
+                }
+            }
+            if (failure != null)
+                throw failure;
+            return result;
+        }
+        finally
+        {
+            rpcClients.forEach(IOUtil::close);
+            // The queue is unique to this reduction, do not leave it behind in each node.
+            for (String nodeId : nodeIds)
+            {
+                try
+                {
+                    zkClient.deleteDistributedQueue(new GlobalNodeId(nodeId), replyTo);
+                }
+                catch (Exception e)
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Error deleting reply queue {} of node {}", replyTo, nodeId, e);
+                }
+            }
+        }
+    }
+}
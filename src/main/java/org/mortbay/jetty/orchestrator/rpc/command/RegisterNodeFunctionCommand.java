@@ -0,0 +1,55 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.rpc.command;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.mortbay.jetty.orchestrator.ClusterTools;
+import org.mortbay.jetty.orchestrator.NodeFunction;
+
+/**
+ * Deploys a {@link NodeFunction} under a name, or removes it when the function is null.
+ * The deserialized function stays cached by the node until it is removed or replaced.
+ */
+public class RegisterNodeFunctionCommand implements Command
+{
+    public static final String ENV_KEY = NodeFunction.class.getName();
+
+    private final String name;
+    private final NodeFunction<?, ?> nodeFunction;
+
+    public RegisterNodeFunctionCommand(String name, NodeFunction<?, ?> nodeFunction)
+    {
+        this.name = name;
+        this.nodeFunction = nodeFunction;
+    }
+
+    @Override
+    public Object execute(ClusterTools clusterTools)
+    {
+        ConcurrentMap<String, NodeFunction<?, ?>> registry = registry(clusterTools);
+        if (nodeFunction == null)
+            registry.remove(name);
+        else
+            registry.put(name, nodeFunction);
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    static ConcurrentMap<String, NodeFunction<?, ?>> registry(ClusterTools clusterTools)
+    {
+        return (ConcurrentMap<String, NodeFunction<?, ?>>)clusterTools.localEnvironment().computeIfAbsent(ENV_KEY, k -> new ConcurrentHashMap<>());
+    }
+}
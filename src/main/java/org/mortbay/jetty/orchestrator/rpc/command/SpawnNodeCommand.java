@@ -14,26 +14,47 @@
 package org.mortbay.jetty.orchestrator.rpc.command;
 
 import java.nio.file.FileSystems;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.mortbay.jetty.orchestrator.ClusterTools;
 import org.mortbay.jetty.orchestrator.configuration.Jvm;
+import org.mortbay.jetty.orchestrator.configuration.OutputAggregation;
+import org.mortbay.jetty.orchestrator.configuration.OutputCapture;
+import org.mortbay.jetty.orchestrator.rpc.GlobalNodeId;
 import org.mortbay.jetty.orchestrator.rpc.NodeProcess;
+import org.mortbay.jetty.orchestrator.util.IOUtil;
+import org.mortbay.jetty.orchestrator.util.OutputAggregator;
+import org.mortbay.jetty.orchestrator.util.ZooKeeperClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class SpawnNodeCommand implements Command
 {
+    private static final Logger LOG = LoggerFactory.getLogger(SpawnNodeCommand.class);
+    public static final String OUTPUT_AGGREGATORS_ENV_KEY = OutputAggregator.class.getName();
+
     private final Jvm jvm;
     private final String hostname;
     private final String hostId;
     private final String nodeId;
     private final String connectString;
+    private final String linePrefix;
+    private final OutputCapture outputCapture;
+    private final OutputAggregation outputAggregation;
     private final String[] extraArgs;
 
-    public SpawnNodeCommand(Jvm jvm, String hostname, String hostId, String nodeId, String connectString, String... extraArgs)
+    public SpawnNodeCommand(Jvm jvm, String hostname, String hostId, String nodeId, String connectString, String linePrefix, OutputCapture outputCapture, OutputAggregation outputAggregation, String... extraArgs)
     {
         this.jvm = jvm;
         this.hostname = hostname;
         this.hostId = hostId;
         this.nodeId = nodeId;
         this.connectString = connectString;
+        this.linePrefix = linePrefix;
+        this.outputCapture = outputCapture;
+        this.outputAggregation = outputAggregation;
         this.extraArgs = extraArgs;
     }
 
@@ -42,11 +63,55 @@ public class SpawnNodeCommand implements Command
     {
         try
         {
-            return NodeProcess.spawn(FileSystems.getDefault(), jvm, hostId, nodeId, hostname, connectString, extraArgs);
+            OutputAggregator outAggregator = null;
+            OutputAggregator errAggregator = null;
+            if (outputAggregation != null)
+            {
+                // The nodes of an array spawned by this host share its aggregators, closed with the host.
+                ConcurrentMap<String, OutputAggregator> aggregators = outputAggregators(clusterTools);
+                String nodeArrayId = nodeId.substring(0, nodeId.lastIndexOf('/'));
+                outAggregator = aggregators.computeIfAbsent(nodeArrayId + "/out", k -> new OutputAggregator(System.out, outputAggregation));
+                errAggregator = aggregators.computeIfAbsent(nodeArrayId + "/err", k -> new OutputAggregator(System.err, outputAggregation));
+            }
+            NodeProcess nodeProcess = NodeProcess.spawn(FileSystems.getDefault(), jvm, hostId, nodeId, hostname, connectString, linePrefix, outputCapture, outAggregator, errAggregator, extraArgs);
+            if (NodeProcess.isEphemeralLiveness(extraArgs))
+            {
+                // A crashed node's session only expires after a while, so report its death right away.
+                ZooKeeperClient zkClient = (ZooKeeperClient)clusterTools.localEnvironment().get(NodeProcess.ZOOKEEPER_CLIENT_ENV_KEY);
+                nodeProcess.onExit(() ->
+                {
+                    try
+                    {
+                        zkClient.unregisterLiveness(new GlobalNodeId(nodeId));
+                    }
+                    catch (Exception e)
+                    {
+                        if (LOG.isDebugEnabled())
+                            LOG.debug("Error unregistering liveness of exited node {}", nodeId, e);
+                    }
+                });
+            }
+            return nodeProcess;
         }
         catch (Exception e)
         {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Write out the lines the aggregators of the nodes spawned by this host are still holding back, and stop them.
+     */
+    public static void closeOutputAggregators(ClusterTools clusterTools)
+    {
+        Map<?, ?> aggregators = (Map<?, ?>)clusterTools.localEnvironment().remove(OUTPUT_AGGREGATORS_ENV_KEY);
+        if (aggregators != null)
+            aggregators.values().forEach(aggregator -> IOUtil.close((OutputAggregator)aggregator));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentMap<String, OutputAggregator> outputAggregators(ClusterTools clusterTools)
+    {
+        return (ConcurrentMap<String, OutputAggregator>)clusterTools.localEnvironment().computeIfAbsent(OUTPUT_AGGREGATORS_ENV_KEY, k -> new ConcurrentHashMap<>());
+    }
 }
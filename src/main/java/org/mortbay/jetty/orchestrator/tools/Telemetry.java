@@ -0,0 +1,38 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.tools;
+
+/**
+ * Publishes a stream of numeric samples to the driver.
+ * Samples are recorded into a preallocated local buffer, which is periodically sent as a single
+ * compact batch; samples recorded while the buffer is full are dropped and counted as such.
+ */
+public interface Telemetry extends AutoCloseable
+{
+    /**
+     * Record a sample timestamped with the current time.
+     */
+    void record(long value);
+
+    /**
+     * Send the samples recorded so far without waiting for the next periodic flush.
+     */
+    void flush() throws Exception;
+
+    /**
+     * Flush the remaining samples and stop the periodic flushing.
+     */
+    @Override
+    void close() throws Exception;
+}
@@ -0,0 +1,174 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.tools;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A {@link TelemetryListener} that keeps running statistics of the received samples,
+ * per node and across all nodes, which can be read while the samples keep coming in.
+ */
+public class TelemetryAggregator implements TelemetryListener
+{
+    private final Map<String, Accumulator> perNode = new TreeMap<>();
+    private final Accumulator total = new Accumulator();
+
+    @Override
+    public synchronized void onSamples(String nodeId, long[] timestamps, long[] values, int count, long dropped)
+    {
+        Accumulator accumulator = perNode.computeIfAbsent(nodeId, k -> new Accumulator());
+        accumulator.dropped += dropped;
+        total.dropped += dropped;
+        for (int i = 0; i < count; i++)
+        {
+            accumulator.add(timestamps[i], values[i]);
+            total.add(timestamps[i], values[i]);
+        }
+    }
+
+    /**
+     * @return the statistics of the samples received from all nodes so far.
+     */
+    public synchronized Stats total()
+    {
+        return total.snapshot();
+    }
+
+    /**
+     * @return the statistics of the samples received so far, keyed by node ID.
+     */
+    public synchronized Map<String, Stats> perNode()
+    {
+        Map<String, Stats> result = new TreeMap<>();
+        perNode.forEach((nodeId, accumulator) -> result.put(nodeId, accumulator.snapshot()));
+        return result;
+    }
+
+    private static class Accumulator
+    {
+        private long count;
+        private long sum;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+        private long last;
+        private long lastTimestamp;
+        private long dropped;
+
+        private void add(long timestamp, long value)
+        {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            if (timestamp >= lastTimestamp)
+            {
+                last = value;
+                lastTimestamp = timestamp;
+            }
+        }
+
+        private Stats snapshot()
+        {
+            return new Stats(count, sum, min, max, last, lastTimestamp, dropped);
+        }
+    }
+
+    public static class Stats
+    {
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+        private final long last;
+        private final long lastTimestamp;
+        private final long dropped;
+
+        private Stats(long count, long sum, long min, long max, long last, long lastTimestamp, long dropped)
+        {
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+            this.last = last;
+            this.lastTimestamp = lastTimestamp;
+            this.dropped = dropped;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getSum()
+        {
+            return sum;
+        }
+
+        /**
+         * @return the smallest value, or {@link Long#MAX_VALUE} if no sample was received.
+         */
+        public long getMin()
+        {
+            return min;
+        }
+
+        /**
+         * @return the largest value, or {@link Long#MIN_VALUE} if no sample was received.
+         */
+        public long getMax()
+        {
+            return max;
+        }
+
+        public double getMean()
+        {
+            return count == 0 ? Double.NaN : (double)sum / count;
+        }
+
+        /**
+         * @return the value of the most recently recorded sample.
+         */
+        public long getLast()
+        {
+            return last;
+        }
+
+        public long getLastTimestamp()
+        {
+            return lastTimestamp;
+        }
+
+        /**
+         * @return how many samples the nodes dropped because their buffer was full.
+         */
+        public long getDropped()
+        {
+            return dropped;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Stats{" +
+                "count=" + count +
+                ", sum=" + sum +
+                ", min=" + min +
+                ", max=" + max +
+                ", last=" + last +
+                ", dropped=" + dropped +
+                '}';
+        }
+    }
+}
@@ -0,0 +1,32 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.tools;
+
+/**
+ * Receives the batches of samples published by the nodes' {@link Telemetry}.
+ */
+@FunctionalInterface
+public interface TelemetryListener
+{
+    /**
+     * Called once per received batch. The arrays are reused for the next batch, so they
+     * must not be kept after this method returns.
+     * @param nodeId the ID of the node that published the batch.
+     * @param timestamps the wall-clock millis at which each sample was recorded.
+     * @param values the recorded values.
+     * @param count the number of samples of the batch, starting at index 0 of the arrays.
+     * @param dropped the number of samples the node dropped since its previous batch.
+     */
+    void onSamples(String nodeId, long[] timestamps, long[] values, int count, long dropped);
+}
@@ -0,0 +1,292 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+import org.mortbay.jetty.orchestrator.configuration.OutputCapture;
+
+/**
+ * The rotating files a node's output is captured to, and the merging of the files of many nodes
+ * into a single time-ordered log. Each captured line is stored as
+ * {@code <epoch millis> <O|E> <text>}, O standing for stdout and E for stderr.
+ */
+public class CapturedOutput implements AutoCloseable
+{
+    public static final String FOLDER_NAME = ".output";
+    private static final String FILE_NAME = "output.log";
+    // Fixed width, so that the merged lines stay aligned.
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    private final File folder;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final Pattern liveFilter;
+    private final String linePrefix;
+    private OutputStream out;
+    private long size;
+
+    public CapturedOutput(File nodeRootPath, OutputCapture outputCapture, String linePrefix)
+    {
+        this.folder = new File(nodeRootPath, FOLDER_NAME);
+        this.maxFileSize = outputCapture.getMaxFileSize();
+        this.maxFiles = outputCapture.getMaxFiles();
+        this.liveFilter = outputCapture.getLiveFilter() == null ? null : Pattern.compile(outputCapture.getLiveFilter());
+        this.linePrefix = linePrefix == null ? "" : linePrefix;
+    }
+
+    /**
+     * @param stderr whether the returned stream captures stderr or stdout.
+     * @param live where the lines matching the live filter are copied to.
+     * @return a stream that captures what is written to it, line by line.
+     */
+    public OutputStream stream(boolean stderr, OutputStream live)
+    {
+        return new CapturingOutputStream(stderr ? 'E' : 'O', live);
+    }
+
+    private synchronized void capture(char tag, byte[] line, int length) throws IOException
+    {
+        byte[] header = (System.currentTimeMillis() + " " + tag + " ").getBytes(StandardCharsets.US_ASCII);
+        long recordSize = header.length + length + 1;
+        if (out == null)
+        {
+            folder.mkdirs();
+            File file = file(0);
+            size = file.length();
+            out = new BufferedOutputStream(new FileOutputStream(file, true));
+        }
+        else if (size > 0 && size + recordSize > maxFileSize)
+        {
+            rotate();
+        }
+        out.write(header);
+        out.write(line, 0, length);
+        out.write('\n');
+        size += recordSize;
+    }
+
+    private void rotate() throws IOException
+    {
+        out.close();
+        Files.deleteIfExists(file(maxFiles - 1).toPath());
+        for (int i = maxFiles - 2; i >= 0; i--)
+        {
+            File file = file(i);
+            if (file.exists())
+                Files.move(file.toPath(), file(i + 1).toPath());
+        }
+        out = new BufferedOutputStream(new FileOutputStream(file(0)));
+        size = 0;
+    }
+
+    private synchronized void flushFile() throws IOException
+    {
+        if (out != null)
+            out.flush();
+    }
+
+    private File file(int index)
+    {
+        return new File(folder, index == 0 ? FILE_NAME : FILE_NAME + "." + index);
+    }
+
+    /**
+     * Close the current file; it gets re-opened if more output is captured afterwards.
+     */
+    @Override
+    public synchronized void close()
+    {
+        IOUtil.close(out);
+        out = null;
+    }
+
+    /**
+     * Merge the captured output of the given nodes into a single log ordered by time.
+     * Each merged line starts with its UTC timestamp formatted as {@code yyyy-MM-dd'T'HH:mm:ss.SSS'Z'}.
+     * @param nodeRootPaths the root path of each node, keyed by the name the lines of that node get prefixed with.
+     * @param maxFiles the number of rotated files per node, as configured with {@link OutputCapture#maxFiles(int)}.
+     */
+    public static void merge(Map<String, Path> nodeRootPaths, int maxFiles, Writer writer) throws IOException
+    {
+        PriorityQueue<NodeLines> queue = new PriorityQueue<>(Comparator.comparingLong((NodeLines nodeLines) -> nodeLines.timestamp).thenComparingInt(nodeLines -> nodeLines.order));
+        int order = 0;
+        for (Map.Entry<String, Path> entry : nodeRootPaths.entrySet())
+        {
+            Path folder = entry.getValue().resolve(FOLDER_NAME);
+            List<Path> files = new ArrayList<>();
+            for (int i = maxFiles - 1; i >= 0; i--)
+                files.add(folder.resolve(i == 0 ? FILE_NAME : FILE_NAME + "." + i));
+            NodeLines nodeLines = new NodeLines(entry.getKey(), order++, files.iterator());
+            if (nodeLines.advance())
+                queue.add(nodeLines);
+        }
+        try
+        {
+            while (!queue.isEmpty())
+            {
+                NodeLines nodeLines = queue.poll();
+                writer.write(TIMESTAMP_FORMATTER.format(Instant.ofEpochMilli(nodeLines.timestamp)) + " [" + nodeLines.name + "] " + (nodeLines.stderr ? "(stderr) " : "") + nodeLines.text + "\n");
+                if (nodeLines.advance())
+                    queue.add(nodeLines);
+            }
+        }
+        finally
+        {
+            queue.forEach(NodeLines::close);
+        }
+        writer.flush();
+    }
+
+    private static class NodeLines
+    {
+        private final String name;
+        private final int order;
+        private final Iterator<Path> files;
+        private BufferedReader reader;
+        private long timestamp;
+        private boolean stderr;
+        private String text;
+
+        private NodeLines(String name, int order, Iterator<Path> files)
+        {
+            this.name = name;
+            this.order = order;
+            this.files = files;
+        }
+
+        /**
+         * Move to the next well-formed line, skipping the one that may be half-written at the end of the current file.
+         */
+        private boolean advance() throws IOException
+        {
+            while (true)
+            {
+                if (reader == null)
+                {
+                    if (!files.hasNext())
+                        return false;
+                    Path file = files.next();
+                    if (!Files.exists(file))
+                        continue;
+                    reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                }
+                String line = reader.readLine();
+                if (line == null)
+                {
+                    close();
+                    continue;
+                }
+                int firstSpace = line.indexOf(' ');
+                if (firstSpace < 0 || line.length() < firstSpace + 3)
+                    continue;
+                try
+                {
+                    timestamp = Long.parseLong(line.substring(0, firstSpace));
+                }
+                catch (NumberFormatException e)
+                {
+                    continue;
+                }
+                stderr = line.charAt(firstSpace + 1) == 'E';
+                text = line.substring(firstSpace + 3);
+                return true;
+            }
+        }
+
+        private void close()
+        {
+            IOUtil.close(reader);
+            reader = null;
+        }
+    }
+
+    private class CapturingOutputStream extends OutputStream
+    {
+        private final char tag;
+        private final OutputStream live;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        private CapturingOutputStream(char tag, OutputStream live)
+        {
+            this.tag = tag;
+            this.live = live;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[]{(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            for (int i = off; i < off + len; i++)
+            {
+                byte c = b[i];
+                if (c == '\n')
+                    endLine();
+                else if (c != '\r')
+                    line.write(c);
+            }
+        }
+
+        /**
+         * The output pump only flushes a partial line when it is overly long or at the end of the stream,
+         * so capture it as a line of its own.
+         */
+        @Override
+        public void flush() throws IOException
+        {
+            if (line.size() > 0)
+                endLine();
+            flushFile();
+            live.flush();
+        }
+
+        private void endLine() throws IOException
+        {
+            byte[] bytes = line.toByteArray();
+            line.reset();
+            capture(tag, bytes, bytes.length);
+            if (liveFilter != null && liveFilter.matcher(new String(bytes, StandardCharsets.UTF_8)).find())
+            {
+                live.write(linePrefix.getBytes(StandardCharsets.UTF_8));
+                live.write(bytes);
+                live.write('\n');
+            }
+        }
+    }
+}
@@ -19,6 +19,11 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,6 +31,9 @@ import org.slf4j.LoggerFactory;
 public class IOUtil
 {
     private static final Logger LOG = LoggerFactory.getLogger(IOUtil.class);
+    private static final long PID = ProcessHandle.current().pid();
+    private static final AtomicLong TOMBSTONE_COUNTER = new AtomicLong();
+    private static final Set<String> SWEPT_TOMBSTONES_FOLDERS = ConcurrentHashMap.newKeySet();
 
     public static void close(AutoCloseable closeable)
     {
@@ -82,4 +90,64 @@ public class IOUtil
         }
         return folder.delete();
     }
+
+    /**
+     * Move the folder out of the way by renaming it into {@code tombstonesFolder}, then delete it
+     * on a background daemon thread. Falls back to a synchronous delete when the folder cannot be renamed,
+     * e.g. because the tombstones folder is on another file store.
+     * The first call for a given tombstones folder also sweeps the tombstones left behind by dead JVMs.
+     * @return true if the folder does not exist anymore at its original location.
+     */
+    public static boolean deltreeInBackground(File folder, File tombstonesFolder)
+    {
+        if (!folder.exists())
+            return true;
+        tombstonesFolder.mkdirs();
+        if (SWEPT_TOMBSTONES_FOLDERS.add(tombstonesFolder.getAbsolutePath()))
+            sweepTombstones(tombstonesFolder);
+
+        File tombstone = new File(tombstonesFolder, PID + "-" + TOMBSTONE_COUNTER.incrementAndGet() + "-" + folder.getName());
+        if (!folder.renameTo(tombstone))
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Cannot rename {} to {}, deleting it synchronously", folder, tombstone);
+            return deltree(folder);
+        }
+        BackgroundDeleter.EXECUTOR.execute(() -> deltree(tombstone));
+        return true;
+    }
+
+    private static void sweepTombstones(File tombstonesFolder)
+    {
+        File[] tombstones = tombstonesFolder.listFiles();
+        if (tombstones == null)
+            return;
+        for (File tombstone : tombstones)
+        {
+            String name = tombstone.getName();
+            int idx = name.indexOf('-');
+            try
+            {
+                long pid = Long.parseLong(name.substring(0, Math.max(idx, 0)));
+                // Leave alone the tombstones that other live JVMs are still deleting.
+                if (pid != PID && ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false))
+                    continue;
+            }
+            catch (NumberFormatException e)
+            {
+                // not one of ours, but it is in the tombstones folder
+            }
+            BackgroundDeleter.EXECUTOR.execute(() -> deltree(tombstone));
+        }
+    }
+
+    private static class BackgroundDeleter
+    {
+        private static final Executor EXECUTOR = Executors.newSingleThreadExecutor(r ->
+        {
+            Thread thread = new Thread(r, "background-deltree");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 }
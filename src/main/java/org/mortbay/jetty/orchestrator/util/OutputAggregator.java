@@ -0,0 +1,239 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.mortbay.jetty.orchestrator.configuration.OutputAggregation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collapses the identical lines written by many sources within a short window into a single
+ * {@code [xN] line}, and limits the number of lines each source can write per second, before
+ * handing them over to a destination.
+ * Lines are held back for the duration of the window, then written in the order they were first seen.
+ */
+public class OutputAggregator implements AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(OutputAggregator.class);
+
+    private final OutputStream destination;
+    private final long windowNanos;
+    private final int maxLinesPerSecond;
+    private final Map<String, PendingLine> pendingLines = new LinkedHashMap<>();
+    private final List<Source> sources = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+
+    public OutputAggregator(OutputStream destination, OutputAggregation outputAggregation)
+    {
+        this.destination = destination;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(outputAggregation.getWindowMillis());
+        this.maxLinesPerSecond = outputAggregation.getMaxLinesPerSecond();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread thread = new Thread(r, "output-aggregator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1L, outputAggregation.getWindowMillis() / 2);
+        scheduler.scheduleWithFixedDelay(() -> emit(false), period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param linePrefix written in front of the lines of this source that did not get collapsed, or null.
+     * @return a stream to write the output of a single source to, to be closed once the source is exhausted.
+     */
+    public OutputStream source(String linePrefix)
+    {
+        Source source = new Source(linePrefix == null ? "" : linePrefix);
+        sources.add(source);
+        return source;
+    }
+
+    private void add(Source source, String line)
+    {
+        long now = System.nanoTime();
+        synchronized (this)
+        {
+            PendingLine pendingLine = pendingLines.computeIfAbsent(line, l -> new PendingLine(source.linePrefix, now));
+            pendingLine.count++;
+        }
+    }
+
+    private void emit(boolean all)
+    {
+        long now = System.nanoTime();
+        StringBuilder sb = new StringBuilder();
+        synchronized (this)
+        {
+            for (Iterator<Map.Entry<String, PendingLine>> it = pendingLines.entrySet().iterator(); it.hasNext(); )
+            {
+                Map.Entry<String, PendingLine> entry = it.next();
+                PendingLine pendingLine = entry.getValue();
+                // Lines are iterated in the order they were first seen, so the next ones are even younger.
+                if (!all && now - pendingLine.firstSeen < windowNanos)
+                    break;
+                if (pendingLine.count == 1)
+                    sb.append(pendingLine.linePrefix);
+                else
+                    sb.append("[x").append(pendingLine.count).append("] ");
+                sb.append(entry.getKey()).append('\n');
+                it.remove();
+            }
+        }
+        for (Source source : sources)
+        {
+            boolean closed = source.closed;
+            long suppressed = source.takeSuppressed(now, all || closed);
+            if (suppressed > 0)
+                sb.append(source.linePrefix).append("[").append(suppressed).append(" line(s) suppressed as more than ").append(maxLinesPerSecond).append(" were printed within a second]\n");
+            // Its last suppressed lines got reported, it can be forgotten.
+            if (closed)
+                sources.remove(source);
+        }
+        if (sb.length() == 0)
+            return;
+        try
+        {
+            destination.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            destination.flush();
+        }
+        catch (IOException e)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Error writing aggregated output", e);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        scheduler.shutdownNow();
+        emit(true);
+    }
+
+    private static class PendingLine
+    {
+        private final String linePrefix;
+        private final long firstSeen;
+        private int count;
+
+        private PendingLine(String linePrefix, long firstSeen)
+        {
+            this.linePrefix = linePrefix;
+            this.firstSeen = firstSeen;
+        }
+    }
+
+    private class Source extends OutputStream
+    {
+        private final String linePrefix;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private long rateWindowStart = System.nanoTime();
+        private int linesInRateWindow;
+        private long suppressed;
+        private volatile boolean closed;
+
+        private Source(String linePrefix)
+        {
+            this.linePrefix = linePrefix;
+        }
+
+        @Override
+        public void write(int b)
+        {
+            write(new byte[]{(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            for (int i = off; i < off + len; i++)
+            {
+                byte c = b[i];
+                if (c == '\n')
+                    endLine();
+                else if (c != '\r')
+                    line.write(c);
+            }
+        }
+
+        /**
+         * The output pump only flushes a partial line when it is overly long or at the end of the stream,
+         * so treat it as a line of its own.
+         */
+        @Override
+        public void flush()
+        {
+            if (line.size() > 0)
+                endLine();
+        }
+
+        @Override
+        public void close()
+        {
+            flush();
+            closed = true;
+        }
+
+        private void endLine()
+        {
+            String text = line.toString(StandardCharsets.UTF_8);
+            line.reset();
+            if (allow())
+                add(this, text);
+        }
+
+        private synchronized boolean allow()
+        {
+            long now = System.nanoTime();
+            if (now - rateWindowStart >= TimeUnit.SECONDS.toNanos(1))
+            {
+                rateWindowStart = now;
+                linesInRateWindow = 0;
+            }
+            if (linesInRateWindow >= maxLinesPerSecond)
+            {
+                suppressed++;
+                return false;
+            }
+            linesInRateWindow++;
+            return true;
+        }
+
+        /**
+         * @return the number of suppressed lines to report, once the second they were suppressed in is over.
+         */
+        private synchronized long takeSuppressed(long now, boolean all)
+        {
+            if (suppressed == 0 || (!all && now - rateWindowStart < TimeUnit.SECONDS.toNanos(1)))
+                return 0;
+            long result = suppressed;
+            suppressed = 0;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single thread copying the output of many processes, line by line, to their destinations.
+ * Sources are read in large chunks as soon as they have bytes available, and all the complete
+ * lines collected for a given destination during a pass are written to it at once, which
+ * means one lock acquisition and one flush per destination instead of one per line.
+ */
+public class OutputPump
+{
+    private static final Logger LOG = LoggerFactory.getLogger(OutputPump.class);
+    private static final OutputPump SHARED = new OutputPump("output-pump");
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_PARTIAL_LINE_SIZE = 8192;
+    private static final long IDLE_SLEEP_MILLIS = 10L;
+
+    private final String threadName;
+    private final List<Source> sources = new ArrayList<>();
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private Thread thread;
+
+    public OutputPump(String threadName)
+    {
+        this.threadName = threadName;
+    }
+
+    /**
+     * @return the pump shared by all the processes of this JVM.
+     */
+    public static OutputPump shared()
+    {
+        return SHARED;
+    }
+
+    /**
+     * Copy the given stream to the given destination until the stream is exhausted.
+     * @param is the stream to read; it must report the bytes it can deliver without blocking via {@link InputStream#available()}.
+     * @param os the destination.
+     * @param linePrefix written at the beginning of each line, or null.
+     * @param alive tells whether the source may still produce bytes; once it returns false
+     * the stream gets drained, closed and forgotten.
+     */
+    public void pump(InputStream is, OutputStream os, String linePrefix, BooleanSupplier alive)
+    {
+        Source source = new Source(is, os, linePrefix == null ? null : linePrefix.getBytes(StandardCharsets.UTF_8), alive);
+        synchronized (this)
+        {
+            sources.add(source);
+            if (thread == null)
+            {
+                thread = new Thread(this::run, threadName);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    private void run()
+    {
+        Map<OutputStream, ByteArrayOutputStream> batches = new IdentityHashMap<>();
+        while (true)
+        {
+            List<Source> snapshot;
+            synchronized (this)
+            {
+                if (sources.isEmpty())
+                {
+                    thread = null;
+                    return;
+                }
+                snapshot = new ArrayList<>(sources);
+            }
+
+            boolean progress = false;
+            for (Source source : snapshot)
+            {
+                ByteArrayOutputStream batch = batches.computeIfAbsent(source.os, os -> new ByteArrayOutputStream());
+                try
+                {
+                    // Sample liveness before reading so that no byte written before death can be missed.
+                    boolean alive = source.alive.getAsBoolean();
+                    int read = source.readAvailable(chunk, batch);
+                    if (read > 0)
+                        progress = true;
+                    else if (!alive || read < 0)
+                        remove(source, batch);
+                }
+                catch (IOException e)
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Error pumping output of {}", source.is, e);
+                    remove(source, batch);
+                }
+            }
+
+            for (Map.Entry<OutputStream, ByteArrayOutputStream> entry : batches.entrySet())
+            {
+                ByteArrayOutputStream batch = entry.getValue();
+                if (batch.size() == 0)
+                    continue;
+                OutputStream os = entry.getKey();
+                try
+                {
+                    batch.writeTo(os);
+                    os.flush();
+                }
+                catch (IOException e)
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Error writing pumped output to {}", os, e);
+                }
+                batch.reset();
+            }
+            batches.clear();
+
+            if (!progress)
+            {
+                try
+                {
+                    Thread.sleep(IDLE_SLEEP_MILLIS);
+                }
+                catch (InterruptedException e)
+                {
+                    synchronized (this)
+                    {
+                        thread = null;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private void remove(Source source, ByteArrayOutputStream batch)
+    {
+        source.flushPartialLine(batch);
+        IOUtil.close(source.is);
+        synchronized (this)
+        {
+            sources.remove(source);
+        }
+    }
+
+    private static class Source
+    {
+        private final InputStream is;
+        private final OutputStream os;
+        private final byte[] linePrefix;
+        private final BooleanSupplier alive;
+        private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+        private boolean midLine;
+        private boolean pendingCarriageReturn;
+
+        private Source(InputStream is, OutputStream os, byte[] linePrefix, BooleanSupplier alive)
+        {
+            this.is = is;
+            this.os = os;
+            this.linePrefix = linePrefix;
+            this.alive = alive;
+        }
+
+        /**
+         * Read whatever is available without blocking and append the complete lines to the batch.
+         * @return the number of bytes read, 0 if none is available or -1 at the end of the stream.
+         */
+        private int readAvailable(byte[] chunk, ByteArrayOutputStream batch) throws IOException
+        {
+            int available = is.available();
+            if (available <= 0)
+                return 0;
+            int read = is.read(chunk, 0, Math.min(available, chunk.length));
+            if (read <= 0)
+                return read;
+
+            // A '\r' that ended the previous chunk is a terminator of its own unless this chunk completes a "\r\n".
+            if (pendingCarriageReturn && chunk[0] != '\n')
+            {
+                startLine(batch);
+                midLine = false;
+            }
+            pendingCarriageReturn = false;
+
+            int lineStart = 0;
+            for (int i = 0; i < read; i++)
+            {
+                byte b = chunk[i];
+                if (b == '\r')
+                {
+                    if (i + 1 == read)
+                    {
+                        pendingCarriageReturn = true;
+                        continue;
+                    }
+                    if (chunk[i + 1] == '\n')
+                        continue;
+                }
+                if (b == '\n' || b == '\r')
+                {
+                    startLine(batch);
+                    batch.write(chunk, lineStart, i + 1 - lineStart);
+                    midLine = false;
+                    lineStart = i + 1;
+                }
+            }
+            partialLine.write(chunk, lineStart, read - lineStart);
+            // Do not hold back overly long lines forever.
+            if (partialLine.size() >= MAX_PARTIAL_LINE_SIZE)
+                flushPartialLine(batch);
+            return read;
+        }
+
+        private void startLine(ByteArrayOutputStream batch)
+        {
+            if (!midLine && linePrefix != null)
+                batch.write(linePrefix, 0, linePrefix.length);
+            midLine = true;
+            if (partialLine.size() > 0)
+            {
+                batch.write(partialLine.toByteArray(), 0, partialLine.size());
+                partialLine.reset();
+            }
+        }
+
+        private void flushPartialLine(ByteArrayOutputStream batch)
+        {
+            if (partialLine.size() > 0)
+                startLine(batch);
+        }
+    }
+}
@@ -45,7 +45,23 @@ public class ProcessHolder implements Serializable
             .orElse(false);
     }
 
-    public void destroy() throws Exception
+    /**
+     * Run the given action once the process exited, or right away if it already did.
+     */
+    public void onExit(Runnable action)
+    {
+        Optional<ProcessHandle> optional = ProcessHandle.of(pid);
+        if (optional.isPresent())
+            optional.get().onExit().thenRun(action);
+        else
+            action.run();
+    }
+
+    /**
+     * Ask the process to terminate, and kill it if it did not within 10 seconds.
+     * @return true if the process terminated by itself or was already gone, false if it had to be killed.
+     */
+    public boolean destroy() throws Exception
     {
         Optional<ProcessHandle> optional = ProcessHandle.of(pid);
         if (optional.isPresent())
@@ -61,8 +77,10 @@ public class ProcessHolder implements Serializable
             {
                 processHandle.destroyForcibly();
                 onExit.get(10, TimeUnit.SECONDS);
+                return false;
             }
         }
+        return true;
     }
 
     @Override
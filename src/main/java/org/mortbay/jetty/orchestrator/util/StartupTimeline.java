@@ -0,0 +1,207 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.util;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long each startup phase took, per entity (driver, host or node).
+ * Start times are wall-clock millis so that entries recorded by different JVMs can be merged.
+ */
+public class StartupTimeline implements Serializable
+{
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Start timing a phase; the phase gets recorded when the returned {@link Phase} is closed.
+     */
+    public Phase begin(String entity, String phase)
+    {
+        return new Phase(entity, phase);
+    }
+
+    public void record(String entity, String phase, long startEpochMillis, long durationNanos, Map<String, Object> attributes)
+    {
+        add(new Entry(entity, phase, startEpochMillis, durationNanos, attributes));
+    }
+
+    public synchronized void add(Entry entry)
+    {
+        entries.add(entry);
+    }
+
+    public synchronized void addAll(Collection<Entry> entries)
+    {
+        this.entries.addAll(entries);
+    }
+
+    /**
+     * @return a snapshot of the recorded entries, ordered by start time.
+     */
+    public synchronized List<Entry> entries()
+    {
+        List<Entry> result = new ArrayList<>(entries);
+        result.sort(Comparator.comparingLong(Entry::getStartEpochMillis));
+        return result;
+    }
+
+    public String toJson()
+    {
+        List<Entry> entries = entries();
+        long origin = entries.isEmpty() ? 0L : entries.get(0).getStartEpochMillis();
+        StringBuilder sb = new StringBuilder();
+        sb.append("[\n");
+        for (int i = 0; i < entries.size(); i++)
+        {
+            Entry entry = entries.get(i);
+            sb.append("  {\"entity\": ").append(quote(entry.getEntity()))
+                .append(", \"phase\": ").append(quote(entry.getPhase()))
+                .append(", \"startEpochMillis\": ").append(entry.getStartEpochMillis())
+                .append(", \"offsetMillis\": ").append(entry.getStartEpochMillis() - origin)
+                .append(", \"durationMillis\": ").append(String.format(Locale.ROOT, "%.3f", entry.getDurationNanos() / 1_000_000.0));
+            for (Map.Entry<String, Object> attribute : entry.getAttributes().entrySet())
+            {
+                Object value = attribute.getValue();
+                sb.append(", ").append(quote(attribute.getKey())).append(": ")
+                    .append(value instanceof Number || value instanceof Boolean ? String.valueOf(value) : quote(String.valueOf(value)));
+            }
+            sb.append(i < entries.size() - 1 ? "},\n" : "}\n");
+        }
+        sb.append("]\n");
+        return sb.toString();
+    }
+
+    public void writeJson(Path path) throws IOException
+    {
+        Files.write(path, toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String quote(String s)
+    {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int)c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : entries())
+            sb.append(entry).append('\n');
+        return sb.toString();
+    }
+
+    public class Phase implements AutoCloseable
+    {
+        private final String entity;
+        private final String phase;
+        private final long startEpochMillis = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final Map<String, Object> attributes = new LinkedHashMap<>();
+        private boolean closed;
+
+        private Phase(String entity, String phase)
+        {
+            this.entity = entity;
+            this.phase = phase;
+        }
+
+        public Phase attribute(String name, Object value)
+        {
+            attributes.put(name, value);
+            return this;
+        }
+
+        @Override
+        public void close()
+        {
+            if (closed)
+                return;
+            closed = true;
+            record(entity, phase, startEpochMillis, System.nanoTime() - startNanos, attributes);
+        }
+    }
+
+    public static class Entry implements Serializable
+    {
+        private final String entity;
+        private final String phase;
+        private final long startEpochMillis;
+        private final long durationNanos;
+        private final Map<String, Object> attributes;
+
+        public Entry(String entity, String phase, long startEpochMillis, long durationNanos, Map<String, Object> attributes)
+        {
+            this.entity = entity;
+            this.phase = phase;
+            this.startEpochMillis = startEpochMillis;
+            this.durationNanos = durationNanos;
+            this.attributes = attributes == null ? Collections.emptyMap() : Collections.unmodifiableMap(new LinkedHashMap<>(attributes));
+        }
+
+        public String getEntity()
+        {
+            return entity;
+        }
+
+        public String getPhase()
+        {
+            return phase;
+        }
+
+        public long getStartEpochMillis()
+        {
+            return startEpochMillis;
+        }
+
+        public long getDurationNanos()
+        {
+            return durationNanos;
+        }
+
+        public Map<String, Object> getAttributes()
+        {
+            return attributes;
+        }
+
+        @Override
+        public String toString()
+        {
+            return entity + " " + phase + " " + TimeUnit.NANOSECONDS.toMillis(durationNanos) + "ms" + (attributes.isEmpty() ? "" : " " + attributes);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.mortbay.jetty.orchestrator.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.mortbay.jetty.orchestrator.tools.TelemetryListener;
+
+/**
+ * The wire format of a batch of telemetry samples: a version byte, the node ID, the sample count
+ * and the dropped count, followed by the timestamp and value of each sample encoded as the zigzag
+ * varint of their difference with the previous sample's, which keeps most samples to a few bytes.
+ * An instance decodes successive batches into the same arrays.
+ */
+class TelemetryBatch
+{
+    static final int MAX_SAMPLES = 32 * 1024;
+    private static final byte VERSION = 1;
+    private static final int MAX_VARLONG_LENGTH = 10;
+
+    private long[] timestamps = new long[0];
+    private long[] values = new long[0];
+
+    static int maxEncodedLength(byte[] nodeId, int samples)
+    {
+        return 1 + MAX_VARLONG_LENGTH + nodeId.length + MAX_VARLONG_LENGTH * 2 + samples * MAX_VARLONG_LENGTH * 2;
+    }
+
+    /**
+     * @return the number of bytes written to the buffer, which must be at least {@link #maxEncodedLength(byte[], int)} long.
+     */
+    static int encode(byte[] buffer, byte[] nodeId, long[] timestamps, long[] values, int count, long dropped)
+    {
+        int pos = 0;
+        buffer[pos++] = VERSION;
+        pos = writeVarLong(buffer, pos, nodeId.length);
+        System.arraycopy(nodeId, 0, buffer, pos, nodeId.length);
+        pos += nodeId.length;
+        pos = writeVarLong(buffer, pos, count);
+        pos = writeVarLong(buffer, pos, dropped);
+        long previousTimestamp = 0L;
+        long previousValue = 0L;
+        for (int i = 0; i < count; i++)
+        {
+            pos = writeVarLong(buffer, pos, zigzag(timestamps[i] - previousTimestamp));
+            pos = writeVarLong(buffer, pos, zigzag(values[i] - previousValue));
+            previousTimestamp = timestamps[i];
+            previousValue = values[i];
+        }
+        return pos;
+    }
+
+    void decode(byte[] bytes, TelemetryListener listener) throws IOException
+    {
+        Reader reader = new Reader(bytes);
+        byte version = bytes.length == 0 ? 0 : bytes[reader.pos++];
+        if (version != VERSION)
+            throw new IOException("Unsupported telemetry batch version " + version);
+        int nodeIdLength = (int)reader.readVarLong();
+        if (nodeIdLength < 0 || nodeIdLength > bytes.length - reader.pos)
+            throw new IOException("Invalid telemetry batch");
+        String nodeId = new String(bytes, reader.pos, nodeIdLength, StandardCharsets.UTF_8);
+        reader.pos += nodeIdLength;
+        int count = (int)reader.readVarLong();
+        long dropped = reader.readVarLong();
+        if (count < 0 || count > MAX_SAMPLES)
+            throw new IOException("Invalid telemetry batch sample count " + count);
+        if (timestamps.length < count)
+        {
+            timestamps = Arrays.copyOf(timestamps, count);
+            values = Arrays.copyOf(values, count);
+        }
+        long timestamp = 0L;
+        long value = 0L;
+        for (int i = 0; i < count; i++)
+        {
+            timestamp += unzigzag(reader.readVarLong());
+            value += unzigzag(reader.readVarLong());
+            timestamps[i] = timestamp;
+            values[i] = value;
+        }
+        listener.onSamples(nodeId, timestamps, values, count, dropped);
+    }
+
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int writeVarLong(byte[] buffer, int pos, long value)
+    {
+        while ((value & ~0x7FL) != 0L)
+        {
+            buffer[pos++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte)value;
+        return pos;
+    }
+
+    private static class Reader
+    {
+        private final byte[] bytes;
+        private int pos;
+
+        private Reader(byte[] bytes)
+        {
+            this.bytes = bytes;
+        }
+
+        private long readVarLong() throws IOException
+        {
+            long result = 0L;
+            for (int shift = 0; shift < 64; shift += 7)
+            {
+                if (pos >= bytes.length)
+                    throw new IOException("Truncated telemetry batch");
+                byte b = bytes[pos++];
+                result |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return result;
+            }
+            throw new IOException("Malformed varint in telemetry batch");
+        }
+    }
+}
@@ -19,29 +19,48 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.imps.CuratorFrameworkState;
 import org.apache.curator.framework.recipes.atomic.AtomicValue;
 import org.apache.curator.framework.recipes.atomic.DistributedAtomicLong;
 import org.apache.curator.framework.recipes.atomic.PromotedToLock;
 import org.apache.curator.framework.recipes.barriers.DistributedDoubleBarrier;
+import org.apache.curator.framework.recipes.cache.CuratorCache;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
 import org.apache.curator.framework.recipes.queue.SimpleDistributedQueue;
+import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.retry.RetryNTimes;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.mortbay.jetty.orchestrator.rpc.GlobalNodeId;
 import org.mortbay.jetty.orchestrator.tools.AtomicCounter;
 import org.mortbay.jetty.orchestrator.tools.Barrier;
 import org.mortbay.jetty.orchestrator.tools.DistributedQueue;
+import org.mortbay.jetty.orchestrator.tools.Telemetry;
+import org.mortbay.jetty.orchestrator.tools.TelemetryListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ZooKeeperClient implements Closeable
 {
+    private static final Logger LOG = LoggerFactory.getLogger(ZooKeeperClient.class);
+
     private final CuratorFramework curator;
 
     public ZooKeeperClient(String connectString) throws Exception
@@ -77,6 +96,151 @@ public class ZooKeeperClient implements Closeable
         return new DistributedQueueImpl(curator, globalNodeId, name);
     }
 
+    /**
+     * Create the given queue up front, so that the items sent with {@link #offerIfQueueExists(GlobalNodeId, String, Object)}
+     * are not dropped. Unlike the container znodes that queues are implicitly created as, it is only gone once deleted.
+     */
+    public void ensureDistributedQueue(GlobalNodeId globalNodeId, String name) throws Exception
+    {
+        try
+        {
+            curator.create().creatingParentContainersIfNeeded().forPath(queuePath(globalNodeId, name));
+        }
+        catch (KeeperException.NodeExistsException e)
+        {
+            // already there
+        }
+    }
+
+    /**
+     * Add an item to the given queue, unless the queue does not exist; it does not get created then,
+     * so that nothing gets left behind in a queue that its consumer already deleted.
+     * @return whether the item got added.
+     */
+    public boolean offerIfQueueExists(GlobalNodeId globalNodeId, String name, Object o) throws Exception
+    {
+        try
+        {
+            curator.create()
+                .withMode(CreateMode.PERSISTENT_SEQUENTIAL)
+                .forPath(ZKPaths.makePath(queuePath(globalNodeId, name), DistributedQueueImpl.ITEM_PREFIX), DistributedQueueImpl.serialize(o));
+            return true;
+        }
+        catch (KeeperException.NoNodeException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Delete the given queue along with the items it still holds, once it is not used anymore.
+     */
+    public void deleteDistributedQueue(GlobalNodeId globalNodeId, String name) throws Exception
+    {
+        try
+        {
+            curator.delete().deletingChildrenIfNeeded().forPath(queuePath(globalNodeId, name));
+        }
+        catch (KeeperException.NoNodeException e)
+        {
+            // never used or already gone
+        }
+    }
+
+    private static String queuePath(GlobalNodeId globalNodeId, String name)
+    {
+        return "/" + globalNodeId.getNodeId() + "/Queue/" + name;
+    }
+
+    public Telemetry createTelemetry(GlobalNodeId globalNodeId, String name, int bufferSize)
+    {
+        return new TelemetryImpl(curator, globalNodeId, name, bufferSize);
+    }
+
+    /**
+     * Get the batches of samples published by all the {@link Telemetry} of the cluster with the given name
+     * handed to the listener, from a dedicated thread. A telemetry stream must only be watched once at a time.
+     * Close the returned object to stop watching; the batches that were published before get delivered first.
+     */
+    public AutoCloseable watchTelemetry(String clusterId, String name, TelemetryListener listener)
+    {
+        return new TelemetryWatcher(curator, clusterId, name, listener);
+    }
+
+    private static String telemetryPath(String clusterId, String name)
+    {
+        return "/" + clusterId + "/Telemetry/" + name;
+    }
+
+    /**
+     * Create the ephemeral znode advertising that the given node is alive; it vanishes
+     * as soon as this client's session is closed or expires.
+     */
+    public void registerLiveness(GlobalNodeId globalNodeId) throws Exception
+    {
+        curator.create()
+            .creatingParentsIfNeeded()
+            .withMode(CreateMode.EPHEMERAL)
+            .forPath(livenessPath(globalNodeId), globalNodeId.getNodeId().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Delete the liveness znode of the given node, on behalf of a node that died without closing its session.
+     */
+    public void unregisterLiveness(GlobalNodeId globalNodeId) throws Exception
+    {
+        try
+        {
+            curator.delete().forPath(livenessPath(globalNodeId));
+        }
+        catch (KeeperException.NoNodeException e)
+        {
+            // already gone
+        }
+    }
+
+    /**
+     * Get notified with the node ID of every liveness znode of the cluster that gets deleted.
+     * Close the returned object to stop watching.
+     */
+    public AutoCloseable watchLiveness(String clusterId, Consumer<String> onDeath)
+    {
+        String livenessRoot = livenessRoot(clusterId);
+        CuratorCache cache = CuratorCache.build(curator, livenessRoot);
+        cache.listenable().addListener(CuratorCacheListener.builder()
+            .forDeletes(childData ->
+            {
+                if (childData.getPath().startsWith(livenessRoot + "/"))
+                    onDeath.accept(new String(childData.getData(), StandardCharsets.UTF_8));
+            })
+            .build());
+        cache.start();
+        return cache::close;
+    }
+
+    /**
+     * Run the given action once the session is definitely lost, i.e.: expired after retrying to reconnect.
+     */
+    public void onConnectionLost(Runnable action)
+    {
+        curator.getConnectionStateListenable().addListener((client, newState) ->
+        {
+            if (newState == ConnectionState.LOST)
+                action.run();
+        });
+    }
+
+    private static String livenessRoot(String clusterId)
+    {
+        return "/" + clusterId + "/Liveness";
+    }
+
+    private static String livenessPath(GlobalNodeId globalNodeId)
+    {
+        String clusterId = globalNodeId.getClusterId();
+        return livenessRoot(clusterId) + "/" + globalNodeId.getNodeId().substring(clusterId.length() + 1).replace('/', '|');
+    }
+
     private static class AtomicCounterImpl implements AtomicCounter
     {
         private final DistributedAtomicLong distributedAtomicLong;
@@ -287,12 +451,14 @@ public class ZooKeeperClient implements Closeable
 
     private static class DistributedQueueImpl implements DistributedQueue
     {
+        // The prefix SimpleDistributedQueue names its items with.
+        private static final String ITEM_PREFIX = "qn-";
+
         private final SimpleDistributedQueue simpleDistributedQueue;
 
         DistributedQueueImpl(CuratorFramework curator, GlobalNodeId globalNodeId, String name)
         {
-            String queuePath = "/" + globalNodeId.getNodeId() + "/Queue/" + name;
-            simpleDistributedQueue = new SimpleDistributedQueue(curator, queuePath);
+            simpleDistributedQueue = new SimpleDistributedQueue(curator, queuePath(globalNodeId, name));
         }
 
         @Override
@@ -311,7 +477,25 @@ public class ZooKeeperClient implements Closeable
 
         private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException
         {
-            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))
+            {
+                @Override
+                protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+                {
+                    try
+                    {
+                        return super.resolveClass(desc);
+                    }
+                    catch (ClassNotFoundException e)
+                    {
+                        // Nodes that load their classes remotely install the remote class loader as context class loader.
+                        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+                        if (contextClassLoader == null)
+                            throw e;
+                        return Class.forName(desc.getName(), false, contextClassLoader);
+                    }
+                }
+            };
             return ois.readObject();
         }
 
@@ -323,4 +507,190 @@ public class ZooKeeperClient implements Closeable
             return baos.toByteArray();
         }
     }
+
+    private static class TelemetryImpl implements Telemetry
+    {
+        private static final long FLUSH_PERIOD_MILLIS = 1000L;
+        private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread thread = new Thread(r, "telemetry-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private final CuratorFramework curator;
+        private final SimpleDistributedQueue simpleDistributedQueue;
+        private final String name;
+        private final byte[] nodeId;
+        private final byte[] encodeBuffer;
+        private final Object flushLock = new Object();
+        private final ScheduledFuture<?> flushTask;
+        // Samples get recorded into one pair of arrays while the other one is being sent.
+        private long[] timestamps;
+        private long[] values;
+        private long[] sentTimestamps;
+        private long[] sentValues;
+        private int count;
+        private long dropped;
+        private boolean closed;
+
+        TelemetryImpl(CuratorFramework curator, GlobalNodeId globalNodeId, String name, int bufferSize)
+        {
+            if (bufferSize <= 0 || bufferSize > TelemetryBatch.MAX_SAMPLES)
+                throw new IllegalArgumentException("Telemetry buffer size must be between 1 and " + TelemetryBatch.MAX_SAMPLES + ": " + bufferSize);
+            String clusterId = globalNodeId.getClusterId();
+            this.curator = curator;
+            this.simpleDistributedQueue = new SimpleDistributedQueue(curator, telemetryPath(clusterId, name));
+            this.name = name;
+            this.nodeId = globalNodeId.getNodeId().substring(clusterId.length() + 1).getBytes(StandardCharsets.UTF_8);
+            this.encodeBuffer = new byte[TelemetryBatch.maxEncodedLength(nodeId, bufferSize)];
+            this.timestamps = new long[bufferSize];
+            this.values = new long[bufferSize];
+            this.sentTimestamps = new long[bufferSize];
+            this.sentValues = new long[bufferSize];
+            this.flushTask = FLUSHER.scheduleWithFixedDelay(this::periodicFlush, FLUSH_PERIOD_MILLIS, FLUSH_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void record(long value)
+        {
+            long now = System.currentTimeMillis();
+            synchronized (this)
+            {
+                if (closed)
+                    throw new IllegalStateException("Telemetry " + name + " is closed");
+                if (count == timestamps.length)
+                {
+                    dropped++;
+                    return;
+                }
+                timestamps[count] = now;
+                values[count] = value;
+                count++;
+            }
+        }
+
+        @Override
+        public void flush() throws Exception
+        {
+            synchronized (flushLock)
+            {
+                long[] batchTimestamps;
+                long[] batchValues;
+                int batchCount;
+                long batchDropped;
+                synchronized (this)
+                {
+                    if (count == 0 && dropped == 0)
+                        return;
+                    batchTimestamps = timestamps;
+                    batchValues = values;
+                    batchCount = count;
+                    batchDropped = dropped;
+                    timestamps = sentTimestamps;
+                    values = sentValues;
+                    sentTimestamps = batchTimestamps;
+                    sentValues = batchValues;
+                    count = 0;
+                    dropped = 0;
+                }
+                int length = TelemetryBatch.encode(encodeBuffer, nodeId, batchTimestamps, batchValues, batchCount, batchDropped);
+                simpleDistributedQueue.offer(Arrays.copyOf(encodeBuffer, length));
+            }
+        }
+
+        private void periodicFlush()
+        {
+            if (curator.getState() == CuratorFrameworkState.STOPPED)
+            {
+                // the owning client got closed without this telemetry being closed first
+                flushTask.cancel(false);
+                return;
+            }
+            try
+            {
+                flush();
+            }
+            catch (Exception e)
+            {
+                LOG.warn("Error flushing telemetry {}", name, e);
+            }
+        }
+
+        @Override
+        public void close() throws Exception
+        {
+            flushTask.cancel(false);
+            synchronized (this)
+            {
+                if (closed)
+                    return;
+                closed = true;
+            }
+            flush();
+        }
+    }
+
+    private static class TelemetryWatcher implements AutoCloseable
+    {
+        private static final long POLL_MILLIS = 250L;
+
+        private final SimpleDistributedQueue simpleDistributedQueue;
+        private final String name;
+        private final TelemetryListener listener;
+        private final TelemetryBatch batch = new TelemetryBatch();
+        private final Thread thread;
+        private volatile boolean closed;
+
+        TelemetryWatcher(CuratorFramework curator, String clusterId, String name, TelemetryListener listener)
+        {
+            this.simpleDistributedQueue = new SimpleDistributedQueue(curator, telemetryPath(clusterId, name));
+            this.name = name;
+            this.listener = listener;
+            this.thread = new Thread(this::run, "telemetry-" + name);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        private void run()
+        {
+            while (!closed)
+            {
+                try
+                {
+                    byte[] bytes = simpleDistributedQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (bytes != null)
+                        deliver(bytes);
+                }
+                catch (Exception e)
+                {
+                    if (!closed)
+                        LOG.warn("Error receiving telemetry {}, stopped watching", name, e);
+                    break;
+                }
+            }
+        }
+
+        private void deliver(byte[] bytes)
+        {
+            try
+            {
+                batch.decode(bytes, listener);
+            }
+            catch (Exception e)
+            {
+                LOG.warn("Error delivering telemetry {} batch", name, e);
+            }
+        }
+
+        @Override
+        public void close() throws Exception
+        {
+            closed = true;
+            thread.join();
+            byte[] bytes;
+            while ((bytes = simpleDistributedQueue.poll()) != null)
+                deliver(bytes);
+        }
+    }
 }
@@ -16,24 +16,57 @@ package org.mortbay.jetty.orchestrator;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.mortbay.jetty.orchestrator.configuration.ClusterConfiguration;
+import org.mortbay.jetty.orchestrator.configuration.Harvest;
 import org.mortbay.jetty.orchestrator.configuration.Jvm;
+import org.mortbay.jetty.orchestrator.configuration.LocalHostLauncher;
 import org.mortbay.jetty.orchestrator.configuration.Node;
+import org.mortbay.jetty.orchestrator.configuration.OutputCapture;
 import org.mortbay.jetty.orchestrator.configuration.SimpleClusterConfiguration;
 import org.mortbay.jetty.orchestrator.configuration.SimpleNodeArrayConfiguration;
+import org.mortbay.jetty.orchestrator.configuration.SshConnectionPool;
 import org.mortbay.jetty.orchestrator.configuration.SshRemoteHostLauncher;
+import org.mortbay.jetty.orchestrator.nodefs.NodeFileSystemProvider;
+import org.mortbay.jetty.orchestrator.rpc.GlobalNodeId;
+import org.mortbay.jetty.orchestrator.rpc.NodeProcess;
+import org.mortbay.jetty.orchestrator.tools.Telemetry;
+import org.mortbay.jetty.orchestrator.tools.TelemetryAggregator;
+import org.mortbay.jetty.orchestrator.util.IOUtil;
 import org.mortbay.jetty.orchestrator.util.JvmUtil;
+import org.mortbay.jetty.orchestrator.util.StartupTimeline;
 import sshd.AbstractSshTest;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class ClusterTest extends AbstractSshTest
@@ -122,6 +155,400 @@ public class ClusterTest extends AbstractSshTest
         }
     }
 
+    @Test
+    public void testAppCdsArchiveIsDumpedThenReused() throws Exception
+    {
+        // A unique option gives this test its own archive, whatever earlier runs left behind.
+        Jvm jvm = JvmUtil.currentJvm("-Dappcds.test=" + UUID.randomUUID()).appCds(true);
+        ClusterConfiguration cfg = new SimpleClusterConfiguration()
+            .jvm(jvm)
+            .nodeArray(new SimpleNodeArrayConfiguration("server-array").node(new Node("1", "localhost")))
+            ;
+
+        String dumpArg;
+        try (Cluster cluster = new Cluster(cfg))
+        {
+            List<String> jvmArgs = cluster.nodeArray("server-array").callOn("1", tools -> new ArrayList<>(ManagementFactory.getRuntimeMXBean().getInputArguments())).getResult("1");
+            dumpArg = jvmArgs.stream().filter(arg -> arg.startsWith("-XX:ArchiveClassesAtExit=")).findFirst().orElse(null);
+            assertThat(jvmArgs.toString(), dumpArg, notNullValue());
+        }
+        File dumpFile = new File(dumpArg.substring(dumpArg.indexOf('=') + 1));
+        String key = dumpFile.getName().substring(0, dumpFile.getName().indexOf('.'));
+        File archiveFile = new File(dumpFile.getParentFile(), key + ".jsa");
+        assertThat(archiveFile.isFile(), is(true));
+
+        try (Cluster cluster = new Cluster(cfg))
+        {
+            List<String> jvmArgs = cluster.nodeArray("server-array").callOn("1", tools -> new ArrayList<>(ManagementFactory.getRuntimeMXBean().getInputArguments())).getResult("1");
+            assertThat(jvmArgs, hasItems("-XX:SharedArchiveFile=" + archiveFile.getAbsolutePath()));
+        }
+        finally
+        {
+            Files.deleteIfExists(archiveFile.toPath());
+        }
+    }
+
+    @Test
+    public void testRemoteDeleteQuotesClusterId() throws Exception
+    {
+        String localHostname = InetAddress.getLocalHost().getHostName();
+        ClusterConfiguration cfg = new SimpleClusterConfiguration()
+            .jvm(JvmUtil.currentJvm())
+            .nodeArray(new SimpleNodeArrayConfiguration("server-array").node(new Node("1", localHostname)))
+            .hostLauncher(new SshRemoteHostLauncher(System.getProperty("user.name"), new char[0], sshd.getPort()))
+            ;
+
+        // Unquoted, this ID would make the remote delete remove the sentinel instead of the cluster folder.
+        String sentinelName = "ClusterTest_sentinel-" + UUID.randomUUID();
+        Path jcoPath = Paths.get(System.getProperty("user.home"), "." + NodeFileSystemProvider.PREFIX);
+        Path sentinel = Files.createDirectories(jcoPath.resolve(sentinelName));
+        String clusterId = sentinelName + "';'";
+        try
+        {
+            try (Cluster cluster = new Cluster(clusterId, cfg))
+            {
+                cluster.nodeArray("server-array").executeOnAll(tools -> {}).get(30, TimeUnit.SECONDS);
+                assertThat(Files.isDirectory(jcoPath.resolve(clusterId)), is(true));
+            }
+            assertThat(Files.exists(jcoPath.resolve(clusterId)), is(false));
+            assertThat(Files.isDirectory(sentinel), is(true));
+        }
+        finally
+        {
+            IOUtil.deltree(sentinel);
+        }
+    }
+
+    @Test
+    public void testStartupTimeline() throws Exception
+    {
+        String localHostname = InetAddress.getLocalHost().getHostName();
+        ClusterConfiguration cfg = new SimpleClusterConfiguration()
+            .jvm(JvmUtil.currentJvm())
+            .nodeArray(new SimpleNodeArrayConfiguration("server-array").node(new Node("1", localHostname)))
+            .hostLauncher(new SshRemoteHostLauncher(System.getProperty("user.name"), new char[0], sshd.getPort()))
+            ;
+
+        try (Cluster cluster = new Cluster(cfg))
+        {
+            List<String> phases = cluster.startupTimeline().entries().stream()
+                .map(entry -> entry.getEntity() + ":" + entry.getPhase())
+                .collect(Collectors.toList());
+            assertThat(phases, hasItems(
+                "driver:zookeeper-server-start",
+                localHostname + ":ssh-connect",
+                localHostname + ":classpath-upload",
+                localHostname + ":launch",
+                localHostname + ":zookeeper-connect",
+                localHostname + "/server-array/1:spawn",
+                localHostname + "/server-array/1:jvm-boot",
+                localHostname + "/server-array/1:zookeeper-connect"
+            ));
+            assertThat(cluster.startupTimeline().toJson(), containsString("\"phase\": \"classpath-upload\""));
+        }
+    }
+
+    @Test
+    public void testPooledSshConnectionsAreReused() throws Exception
+    {
+        String localHostname = InetAddress.getLocalHost().getHostName();
+        try (SshConnectionPool connectionPool = new SshConnectionPool())
+        {
+            for (int i = 0; i < 2; i++)
+            {
+                ClusterConfiguration cfg = new SimpleClusterConfiguration()
+                    .jvm(JvmUtil.currentJvm())
+                    .nodeArray(new SimpleNodeArrayConfiguration("server-array").node(new Node("1", localHostname)))
+                    .hostLauncher(new SshRemoteHostLauncher(System.getProperty("user.name"), new char[0], sshd.getPort()).connectionPool(connectionPool))
+                    ;
+
+                try (Cluster cluster = new Cluster(cfg))
+                {
+                    cluster.nodeArray("server-array").executeOnAll(tools -> System.out.println("hello from pooled connection")).get();
+
+                    List<StartupTimeline.Entry> entries = cluster.startupTimeline().entries();
+                    StartupTimeline.Entry acquire = entries.stream().filter(e -> e.getPhase().equals("ssh-acquire")).findFirst().orElseThrow();
+                    assertThat(acquire.getAttributes().get("reused"), is(i > 0));
+                    assertThat(entries.stream().anyMatch(e -> e.getPhase().equals("windows-probe")), is(i == 0));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOutputCapture() throws Exception
+    {
+        String localHostname = InetAddress.getLocalHost().getHostName();
+        ClusterConfiguration cfg = new SimpleClusterConfiguration()
+            .jvm(JvmUtil.currentJvm())
+            .nodeArray(new SimpleNodeArrayConfiguration("server-array")
+                .node(new Node("1", "localhost"))
+                .node(new Node("2", localHostname))
+                .outputCapture(new OutputCapture().maxFileSize(256).maxFiles(20))
+            )
+            .hostLauncher(new SshRemoteHostLauncher(System.getProperty("user.name"), new char[0], sshd.getPort()))
+            ;
+
+        try (Cluster cluster = new Cluster(cfg))
+        {
+            NodeArray nodeArray = cluster.nodeArray("server-array");
+            nodeArray.executeOnAll(tools ->
+            {
+                for (int i = 0; i < 10; i++)
+                {
+                    System.out.println("line " + i);
+                    System.err.println("error " + i);
+                    Thread.sleep(5);
+                }
+            }).get();
+
+            Path merged = Files.createTempFile("merged", ".log");
+            try
+            {
+                List<String> lines = List.of();
+                for (int i = 0; i < 100 && lines.size() < 40; i++)
+                {
+                    Thread.sleep(50);
+                    nodeArray.mergeCapturedOutput(merged);
+                    lines = Files.readAllLines(merged);
+                }
+                assertThat(lines.size(), is(40));
+                assertThat(lines.stream().filter(l -> l.contains("[localhost/server-array/1] (stderr) error 9")).count(), is(1L));
+                assertThat(lines.stream().filter(l -> l.contains("[" + localHostname + "/server-array/2] line 0")).count(), is(1L));
+                List<Instant> timestamps = lines.stream().map(l -> Instant.parse(l.substring(0, l.indexOf(' ')))).collect(Collectors.toList());
+                assertThat(timestamps, is(timestamps.stream().sorted().collect(Collectors.toList())));
+                assertThat(lines.stream().allMatch(l -> l.indexOf(' ') == "yyyy-MM-ddTHH:mm:ss.SSSZ".length()), is(true));
+            }
+            finally
+            {
+                Files.deleteIfExists(merged);
+            }
+        }
+    }
+
+    @Test
+    public void testHarvest() throws Exception
+    {
+        String localHostname = InetAddress.getLocalHost().getHostName();
+        Path harvestDir = Paths.get("target/testHarvest");
+        IOUtil.deltree(harvestDir);
+        ClusterConfiguration cfg = new SimpleClusterConfiguration()
+            .jvm(JvmUtil.currentJvm())
+            .nodeArray(new SimpleNodeArrayConfiguration("server-array")
+                .node(new Node("1", "localhost"))
+                .node(new Node("2", localHostname))
+            )
+            .hostLauncher(new SshRemoteHostLauncher(System.getProperty("user.name"), new char[0], sshd.getPort()))
+            .harvest(new Harvest(harvestDir.toString()).nodeArray("server-array", "*.log", "reports/*.hlog"))
+            ;
+
+        String clusterId = "ClusterTest_testHarvest";
+        try (Cluster cluster = new Cluster(clusterId, cfg))
+        {
+            cluster.nodeArray("server-array").executeOnAll(tools ->
+            {
+                Files.createDirectories(Paths.get("reports"));
+                Files.write(Paths.get("server.log"), "started".getBytes(StandardCharsets.UTF_8));
+                Files.write(Paths.get("reports", "latency.hlog"), new byte[100_000]);
+                Files.write(Paths.get("ignored.txt"), "ignored".getBytes(StandardCharsets.UTF_8));
+            }).get();
+        }
+
+        for (String nodeId : Arrays.asList("1", "2"))
+        {
+            Path nodeDir = harvestDir.resolve(clusterId).resolve("server-array").resolve(nodeId);
+            assertThat(Files.readString(nodeDir.resolve("server.log")), is("started"));
+            assertThat(Files.size(nodeDir.resolve("reports").resolve("latency.hlog")), is(100_000L));
+            assertThat(Files.exists(nodeDir.resolve("ignored.txt")), is(false));
+        }
+    }
+
+    @Test
+    public void testCallAndReduce() throws Exception
+    {
+        String localHostname = InetAddress.getLocalHost().getHostName();
+        ClusterConfiguration cfg = new SimpleClusterConfiguration()
+            .jvm(JvmUtil.currentJvm())
+            .nodeArray(new SimpleNodeArrayConfiguration("server-array")
+                .node(new Node("1", "localhost"))
+                .node(new Node("2", "localhost"))
+                .node(new Node("3", localHostname))
+                .node(new Node("4", localHostname))
+            )
+            .hostLauncher(new SshRemoteHostLauncher(System.getProperty("user.name"), new char[0], sshd.getPort()))
+            ;
+
+        try (Cluster cluster = new Cluster(cfg))
+        {
+            NodeArray serverArray = cluster.nodeArray("server-array");
+
+            NodeArrayFuture<String> future = serverArray.callOnAll(tools -> tools.getGlobalNodeId().getNodeId());
+            Map<String, String> results = future.getResults();
+            assertThat(results.keySet(), is(Set.of("1", "2", "3", "4")));
+            results.forEach((id, nodeId) -> assertThat(nodeId, endsWith("/server-array/" + id)));
+            assertThat(serverArray.callOn("3", tools -> 3 * 7).getResult("3"), is(21));
+
+            long sum = serverArray.reduce(tools ->
+            {
+                String nodeId = tools.getGlobalNodeId().getNodeId();
+                return Long.parseLong(nodeId.substring(nodeId.lastIndexOf('/') + 1));
+            }, Long::sum).get(30, TimeUnit.SECONDS);
+            assertThat(sum, is(10L));
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> serverArray.reduce(tools ->
+            {
+                throw new IllegalStateException("boom");
+            }, (NodeCombiner<Object>)(a, b) -> a).get(30, TimeUnit.SECONDS));
+            Throwable rootCause = e;
+            while (rootCause.getCause() != null)
+                rootCause = rootCause.getCause();
+            assertThat(rootCause.getMessage(), is("boom"));
+
+            ExecutionException timeout = assertThrows(ExecutionException.class, () -> serverArray.reduce(tools ->
+            {
+                Thread.sleep(10_000);
+                return 0L;
+            }, Long::sum, 1, TimeUnit.SECONDS).get(30, TimeUnit.SECONDS));
+            rootCause = timeout;
+            while (rootCause.getCause() != null)
+                rootCause = rootCause.getCause();
+            assertThat(rootCause, instanceOf(TimeoutException.class));
+        }
+    }
+
+    @Test
+    public void testTelemetry() throws Exception
+    {
+        String localHostname = InetAddress.getLocalHost().getHostName();
+        ClusterConfiguration cfg = new SimpleClusterConfiguration()
+            .jvm(JvmUtil.currentJvm())
+            .nodeArray(new SimpleNodeArrayConfiguration("server-array")
+                .node(new Node("1", "localhost"))
+                .node(new Node("2", localHostname))
+            )
+            .hostLauncher(new SshRemoteHostLauncher(System.getProperty("user.name"), new char[0], sshd.getPort()))
+            ;
+
+        try (Cluster cluster = new Cluster(cfg))
+        {
+            NodeArray serverArray = cluster.nodeArray("server-array");
+
+            TelemetryAggregator aggregator = new TelemetryAggregator();
+            try (AutoCloseable ignored = cluster.tools().subscribeTelemetry("latency", aggregator))
+            {
+                serverArray.executeOnAll(tools ->
+                {
+                    try (Telemetry telemetry = tools.telemetry("latency", 500))
+                    {
+                        // the last 100 samples do not fit in the buffer
+                        for (int i = 1; i <= 600; i++)
+                            telemetry.record(i);
+                        telemetry.flush();
+                        telemetry.record(1000);
+                    }
+                }).get(30, TimeUnit.SECONDS);
+            }
+
+            TelemetryAggregator.Stats total = aggregator.total();
+            assertThat(total.getCount(), is(1002L));
+            assertThat(total.getSum(), is(2 * (500L * 501 / 2 + 1000)));
+            assertThat(total.getMin(), is(1L));
+            assertThat(total.getMax(), is(1000L));
+            assertThat(total.getDropped(), is(200L));
+
+            Map<String, TelemetryAggregator.Stats> perNode = aggregator.perNode();
+            assertThat(perNode.keySet(), is(Set.of("localhost/server-array/1", localHostname + "/server-array/2")));
+            perNode.values().forEach(stats ->
+            {
+                assertThat(stats.getCount(), is(501L));
+                assertThat(stats.getLast(), is(1000L));
+                assertThat(stats.getDropped(), is(100L));
+            });
+        }
+    }
+
+    @Test
+    public void testRegisteredNodeFunction() throws Exception
+    {
+        String localHostname = InetAddress.getLocalHost().getHostName();
+        ClusterConfiguration cfg = new SimpleClusterConfiguration()
+            .jvm(JvmUtil.currentJvm())
+            .nodeArray(new SimpleNodeArrayConfiguration("server-array")
+                .node(new Node("1", "localhost"))
+                .node(new Node("2", localHostname))
+            )
+            .hostLauncher(new SshRemoteHostLauncher(System.getProperty("user.name"), new char[0], sshd.getPort()))
+            ;
+
+        try (Cluster cluster = new Cluster(cfg))
+        {
+            NodeArray serverArray = cluster.nodeArray("server-array");
+
+            // The captured counter is deserialized once per node, so it keeps counting across invocations.
+            AtomicInteger invocations = new AtomicInteger();
+            NodeFunctionHandle<Integer, Integer> handle = serverArray.register("multiply", (tools, factor) -> invocations.incrementAndGet() * factor);
+
+            assertThat(handle.executeOnAll(10).getResults(), is(Map.of("1", 10, "2", 10)));
+            assertThat(handle.executeOn("2", 10).getResult("2"), is(20));
+            assertThat(handle.reduce(100, Integer::sum).get(30, TimeUnit.SECONDS), is(200 + 300));
+
+            handle.unregister().get();
+            ExecutionException e = assertThrows(ExecutionException.class, () -> handle.executeOnAll(1).get());
+            assertThat(e.getCause().toString(), containsString("No node function registered under name 'multiply'"));
+        }
+    }
+
+    @Test
+    public void testRemoteClassLoading() throws Exception
+    {
+        String localHostname = InetAddress.getLocalHost().getHostName();
+        ClusterConfiguration cfg = new SimpleClusterConfiguration()
+            .jvm(JvmUtil.currentJvm())
+            .nodeArray(new SimpleNodeArrayConfiguration("server-array")
+                .node(new Node("1", "localhost"))
+                .node(new Node("2", localHostname))
+            )
+            .hostLauncher(new SshRemoteHostLauncher(System.getProperty("user.name"), new char[0], sshd.getPort()))
+            .remoteClassLoading(true)
+            ;
+
+        String clusterId = "ClusterTest_testRemoteClassLoading";
+        try (Cluster cluster = new Cluster(clusterId, cfg))
+        {
+            NodeArray serverArray = cluster.nodeArray("server-array");
+            Map<String, String> results = serverArray.callOnAll(tools ->
+            {
+                // Neither this lambda, that class nor that test resource are on the node's classpath.
+                boolean hasResource = Thread.currentThread().getContextClassLoader().getResource("logback.xml") != null;
+                return new Greeting("hello").greet(tools.getGlobalNodeId().getNodeId()) + " " + hasResource;
+            }).getResults();
+            assertThat(results.get("1"), is("hello " + clusterId + "/localhost/server-array/1 true"));
+            assertThat(results.get("2"), is("hello " + new GlobalNodeId(clusterId, localHostname).getHostId() + "/server-array/2 true"));
+
+            for (String hostname : Arrays.asList("localhost", localHostname))
+            {
+                Path hostRootPath = LocalHostLauncher.rootPathOf(new GlobalNodeId(clusterId, hostname).getHostId()).toPath();
+                assertThat(Files.exists(hostRootPath.resolve(NodeProcess.CLASSPATH_FOLDER_NAME).resolve("test-classes")), is(false));
+                assertThat(Files.exists(hostRootPath.resolve(".classpath-remote/org/mortbay/jetty/orchestrator/ClusterTest$Greeting.class")), is(true));
+            }
+        }
+    }
+
+    private static class Greeting implements Serializable
+    {
+        private final String greeting;
+
+        private Greeting(String greeting)
+        {
+            this.greeting = greeting;
+        }
+
+        private String greet(String name)
+        {
+            return greeting + " " + name;
+        }
+    }
+
     @Test
     public void testInvalidJvmExecutableInNodeArray() throws Exception
     {
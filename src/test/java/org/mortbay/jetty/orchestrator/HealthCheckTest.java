@@ -13,6 +13,9 @@
 
 package org.mortbay.jetty.orchestrator;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.mortbay.jetty.orchestrator.configuration.ClusterConfiguration;
@@ -21,6 +24,8 @@ import org.mortbay.jetty.orchestrator.configuration.SimpleClusterConfiguration;
 import org.mortbay.jetty.orchestrator.configuration.SimpleNodeArrayConfiguration;
 import org.mortbay.jetty.orchestrator.util.JvmUtil;
 
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
 public class HealthCheckTest
 {
     @Test
@@ -47,6 +52,73 @@ public class HealthCheckTest
         }
     }
 
+    @Test
+    public void testHostCheckReportsKilledNode() throws Exception
+    {
+        ClusterConfiguration cfg = new SimpleClusterConfiguration()
+            .jvm(JvmUtil.currentJvm())
+            .healthCheckDelay(500)
+            .healthCheckTimeout(30_000)
+            .nodeArray(new SimpleNodeArrayConfiguration("client-array").node(new Node("1", "localhost")).node(new Node("2", "localhost")))
+            ;
+
+        try (Cluster cluster = new Cluster(cfg))
+        {
+            NodeArray nodeArray = cluster.nodeArray("client-array");
+            NodeArrayFuture<Void> survivor = nodeArray.executeOn("2", tools -> Thread.sleep(60_000));
+            nodeArray.executeOn("1", tools -> Runtime.getRuntime().halt(1));
+
+            // The self check of the killed node only times out after 10s, so failing
+            // sooner means the host check found the process dead.
+            assertThrows(ExecutionException.class, () -> survivor.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testClusterWithEphemeralLivenessStaysAliveWithoutHealthChecks() throws Exception
+    {
+        ClusterConfiguration cfg = new SimpleClusterConfiguration()
+            .jvm(JvmUtil.currentJvm())
+            .ephemeralLiveness(true)
+            .healthCheckTimeout(1000)
+            .nodeArray(new SimpleNodeArrayConfiguration("client-array").node(new Node("1", "localhost")).node(new Node("2", "localhost")))
+            ;
+
+        try (Cluster cluster = new Cluster(cfg))
+        {
+            // No health check is ever sent, so this would fail after 1s if the timeout still applied.
+            cluster.nodeArray("client-array").executeOnAll(tools ->
+            {
+                for (int i = 0; i < 3; i++)
+                {
+                    Thread.sleep(1000);
+                    System.out.println("hello from " + tools.getGlobalNodeId().getNodeId());
+                }
+            }).get();
+        }
+    }
+
+    @Test
+    public void testEphemeralLivenessDetectsNodeDeath() throws Exception
+    {
+        ClusterConfiguration cfg = new SimpleClusterConfiguration()
+            .jvm(JvmUtil.currentJvm())
+            .ephemeralLiveness(true)
+            .nodeArray(new SimpleNodeArrayConfiguration("client-array").node(new Node("1", "localhost")).node(new Node("2", "localhost")))
+            ;
+
+        try (Cluster cluster = new Cluster(cfg))
+        {
+            NodeArray nodeArray = cluster.nodeArray("client-array");
+            NodeArrayFuture<Void> survivor = nodeArray.executeOn("2", tools -> Thread.sleep(60_000));
+            // Crash without running the shutdown hooks, so the node's session is not closed.
+            nodeArray.executeOn("1", tools -> Runtime.getRuntime().halt(1));
+
+            // The death closes the host, which terminates the call pending on the other node.
+            assertThrows(ExecutionException.class, () -> survivor.get(20, TimeUnit.SECONDS));
+        }
+    }
+
     @Test
     @Disabled("kills the JVM, no way to assert failure")
     public void testFailHealthCheck() throws Exception
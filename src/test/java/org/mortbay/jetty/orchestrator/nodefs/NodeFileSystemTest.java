@@ -13,19 +13,46 @@
 
 package org.mortbay.jetty.orchestrator.nodefs;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import net.schmizz.sshj.SSHClient;
@@ -35,12 +62,15 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mortbay.jetty.orchestrator.configuration.Jvm;
+import org.mortbay.jetty.orchestrator.util.IOUtil;
 import sshd.TestSshServer;
 import utils.Closer;
 
 import static org.hamcrest.CoreMatchers.endsWith;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.core.Is.is;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -289,6 +319,628 @@ public class NodeFileSystemTest
         }).executable(FileSystems.getDefault(), "myhost"));
     }
 
+    @Test
+    public void testByteChannelReadsRandomAndSequentialRanges() throws Exception
+    {
+        File home = new File("target/testByteChannelReadsRandomAndSequentialRanges");
+        home.mkdirs();
+        byte[] content = new byte[RemoteFileChannel.BLOCK_SIZE * 40 + 123];
+        new Random(1).nextBytes(content);
+        Files.write(home.toPath().resolve("data.bin"), content);
+
+        TestSshServer testSshServer = closer.register(new TestSshServer(home.getPath()));
+        SSHClient sshClient = closer.register(new SSHClient());
+        sshClient.addHostKeyVerifier(new PromiscuousVerifier());
+        sshClient.connect("localhost", testSshServer.getPort());
+        sshClient.authPassword("username", new char[0]);
+
+        HashMap<String, Object> env = new HashMap<>();
+        env.put(NodeFileSystemProvider.IS_WINDOWS_ENV_PROPERTY, false);
+        env.put(SFTPClient.class.getName(), sshClient.newStatefulSFTPClient());
+        FileSystem fileSystem = closer.register(FileSystems.newFileSystem(URI.create(NodeFileSystemProvider.PREFIX + ":the-test/myhost"), env));
+
+        try (SeekableByteChannel channel = Files.newByteChannel(fileSystem.getPath("data.bin")))
+        {
+            assertThat(channel.size(), is((long)content.length));
+
+            ByteBuffer buffer = ByteBuffer.allocate(1000);
+            channel.position(content.length - 500);
+            assertThat(channel.read(buffer), is(500));
+            assertThat(Arrays.copyOf(buffer.array(), 500), is(Arrays.copyOfRange(content, content.length - 500, content.length)));
+            buffer.clear();
+            assertThat(channel.read(buffer), is(-1));
+
+            // Straddle a block boundary.
+            channel.position(RemoteFileChannel.BLOCK_SIZE * 7L - 10);
+            buffer.clear();
+            assertThat(channel.read(buffer), is(1000));
+            assertThat(buffer.array(), is(Arrays.copyOfRange(content, RemoteFileChannel.BLOCK_SIZE * 7 - 10, RemoteFileChannel.BLOCK_SIZE * 7 + 990)));
+
+            channel.position(0L);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ByteBuffer chunk = ByteBuffer.allocate(10_000);
+            while (channel.read(chunk) >= 0)
+            {
+                baos.write(chunk.array(), 0, chunk.position());
+                chunk.clear();
+            }
+            assertThat(baos.toByteArray(), is(content));
+        }
+    }
+
+    @Test
+    public void testInputStreamReadsLargeFile() throws Exception
+    {
+        File home = new File("target/testInputStreamReadsLargeFile");
+        home.mkdirs();
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(2).nextBytes(content);
+        Files.write(home.toPath().resolve("data.bin"), content);
+
+        TestSshServer testSshServer = closer.register(new TestSshServer(home.getPath()));
+        SSHClient sshClient = closer.register(new SSHClient());
+        sshClient.addHostKeyVerifier(new PromiscuousVerifier());
+        sshClient.connect("localhost", testSshServer.getPort());
+        sshClient.authPassword("username", new char[0]);
+
+        HashMap<String, Object> env = new HashMap<>();
+        env.put(NodeFileSystemProvider.IS_WINDOWS_ENV_PROPERTY, false);
+        env.put(NodeFileSystemProvider.READ_AHEAD_REQUESTS_ENV_PROPERTY, 4);
+        env.put(SFTPClient.class.getName(), sshClient.newStatefulSFTPClient());
+        FileSystem fileSystem = closer.register(FileSystems.newFileSystem(URI.create(NodeFileSystemProvider.PREFIX + ":the-test/myhost"), env));
+
+        try (InputStream inputStream = Files.newInputStream(fileSystem.getPath("data.bin")))
+        {
+            assertThat(inputStream.readAllBytes(), is(content));
+        }
+        assertThrows(IOException.class, () -> Files.newInputStream(fileSystem.getPath("does-not-exist")));
+    }
+
+    @Test
+    public void testConcurrentReadsUseSeveralChannels() throws Exception
+    {
+        File home = new File("target/testConcurrentReadsUseSeveralChannels");
+        home.mkdirs();
+        byte[][] contents = new byte[8][];
+        for (int i = 0; i < contents.length; i++)
+        {
+            contents[i] = new byte[512 * 1024 + i];
+            new Random(i).nextBytes(contents[i]);
+            Files.write(home.toPath().resolve("data-" + i + ".bin"), contents[i]);
+        }
+
+        TestSshServer testSshServer = closer.register(new TestSshServer(home.getPath()));
+        SSHClient sshClient = closer.register(new SSHClient());
+        sshClient.addHostKeyVerifier(new PromiscuousVerifier());
+        sshClient.connect("localhost", testSshServer.getPort());
+        sshClient.authPassword("username", new char[0]);
+
+        HashMap<String, Object> env = new HashMap<>();
+        env.put(NodeFileSystemProvider.IS_WINDOWS_ENV_PROPERTY, false);
+        env.put(NodeFileSystemProvider.SFTP_CHANNELS_ENV_PROPERTY, 3);
+        env.put(SFTPClient.class.getName(), sshClient.newStatefulSFTPClient());
+        env.put(SSHClient.class.getName(), sshClient);
+        FileSystem fileSystem = closer.register(FileSystems.newFileSystem(URI.create(NodeFileSystemProvider.PREFIX + ":the-test/myhost"), env));
+
+        ExecutorService executor = Executors.newFixedThreadPool(contents.length);
+        try
+        {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < contents.length; i++)
+            {
+                Path path = fileSystem.getPath("data-" + i + ".bin");
+                futures.add(executor.submit(() ->
+                {
+                    try (InputStream inputStream = Files.newInputStream(path))
+                    {
+                        return inputStream.readAllBytes();
+                    }
+                }));
+            }
+            for (int i = 0; i < contents.length; i++)
+            {
+                assertThat(futures.get(i).get(30, TimeUnit.SECONDS), is(contents[i]));
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        assertThat(Files.size(fileSystem.getPath("data-0.bin")), is((long)contents[0].length));
+    }
+
+    @Test
+    public void testWriteOperations() throws Exception
+    {
+        File home = new File("target/testWriteOperations");
+        IOUtil.deltree(home);
+        home.mkdirs();
+        byte[] content = new byte[2 * 1024 * 1024 + 5];
+        new Random(3).nextBytes(content);
+        Path localFile = Files.write(new File("target/testWriteOperations.bin").toPath(), content);
+
+        TestSshServer testSshServer = closer.register(new TestSshServer(home.getPath()));
+        SSHClient sshClient = closer.register(new SSHClient());
+        sshClient.addHostKeyVerifier(new PromiscuousVerifier());
+        sshClient.connect("localhost", testSshServer.getPort());
+        sshClient.authPassword("username", new char[0]);
+
+        HashMap<String, Object> env = new HashMap<>();
+        env.put(NodeFileSystemProvider.IS_WINDOWS_ENV_PROPERTY, false);
+        env.put(SFTPClient.class.getName(), sshClient.newStatefulSFTPClient());
+        env.put(SSHClient.class.getName(), sshClient);
+        FileSystem fileSystem = closer.register(FileSystems.newFileSystem(URI.create(NodeFileSystemProvider.PREFIX + ":the-test/myhost"), env));
+
+        // Cache the absence of the paths about to be created.
+        Path dir = fileSystem.getPath("dir");
+        assertThat(Files.exists(dir), is(false));
+        assertThat(Files.exists(dir.resolve("data.bin")), is(false));
+
+        Files.createDirectory(dir);
+        assertThat(Files.isDirectory(dir), is(true));
+        assertThat(new File(home, "dir").isDirectory(), is(true));
+        assertThrows(FileAlreadyExistsException.class, () -> Files.createDirectory(dir));
+        assertThrows(NoSuchFileException.class, () -> Files.createDirectory(fileSystem.getPath("missing", "dir")));
+
+        Files.copy(localFile, dir.resolve("data.bin"));
+        assertThat(Files.size(dir.resolve("data.bin")), is((long)content.length));
+        assertThat(Files.readAllBytes(new File(home, "dir/data.bin").toPath()), is(content));
+        assertThrows(FileAlreadyExistsException.class, () -> Files.copy(localFile, dir.resolve("data.bin")));
+
+        try (OutputStream outputStream = Files.newOutputStream(dir.resolve("small.txt")))
+        {
+            for (byte b : "hello".getBytes(StandardCharsets.UTF_8))
+                outputStream.write(b);
+        }
+        Files.write(dir.resolve("small.txt"), " world".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertThat(Files.readString(dir.resolve("small.txt")), is("hello world"));
+
+        try (SeekableByteChannel channel = Files.newByteChannel(dir.resolve("small.txt"), StandardOpenOption.WRITE))
+        {
+            channel.position(6);
+            channel.write(ByteBuffer.wrap("W".getBytes(StandardCharsets.UTF_8)));
+            channel.truncate(7);
+            assertThat(channel.size(), is(7L));
+        }
+        assertThat(Files.readString(dir.resolve("small.txt")), is("hello W"));
+
+        Files.copy(dir.resolve("small.txt"), dir.resolve("copy.txt"));
+        assertThat(Files.readString(dir.resolve("copy.txt")), is("hello W"));
+
+        Files.move(dir.resolve("copy.txt"), dir.resolve("moved.txt"));
+        assertThat(Files.exists(dir.resolve("copy.txt")), is(false));
+        assertThrows(FileAlreadyExistsException.class, () -> Files.move(dir.resolve("moved.txt"), dir.resolve("small.txt")));
+        // A missing source must not cost the target.
+        assertThrows(NoSuchFileException.class, () -> Files.move(dir.resolve("missing.txt"), dir.resolve("moved.txt"), StandardCopyOption.REPLACE_EXISTING));
+        assertThat(Files.readString(dir.resolve("moved.txt")), is("hello W"));
+        assertThrows(AtomicMoveNotSupportedException.class, () -> Files.move(dir.resolve("moved.txt"), dir.resolve("atomic.txt"), StandardCopyOption.ATOMIC_MOVE));
+        Files.move(dir.resolve("moved.txt"), dir.resolve("small.txt"), StandardCopyOption.REPLACE_EXISTING);
+        try (Stream<Path> stream = Files.list(dir))
+        {
+            assertThat(stream.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList()), is(Arrays.asList("data.bin", "small.txt")));
+        }
+
+        assertThrows(DirectoryNotEmptyException.class, () -> Files.delete(dir));
+        Files.delete(dir.resolve("data.bin"));
+        Files.delete(dir.resolve("small.txt"));
+        Files.delete(dir);
+        assertThat(Files.exists(dir), is(false));
+        assertThat(new File(home, "dir").exists(), is(false));
+        assertThrows(NoSuchFileException.class, () -> Files.delete(dir));
+    }
+
+    @Test
+    public void testLocalFileCache() throws Exception
+    {
+        File home = new File("target/testLocalFileCache");
+        IOUtil.deltree(home);
+        home.mkdirs();
+        File cacheDir = new File("target/testLocalFileCache-cache");
+        IOUtil.deltree(cacheDir);
+        byte[] content1 = new byte[300 * 1024];
+        new Random(4).nextBytes(content1);
+        Path remote1 = Files.write(home.toPath().resolve("data1.bin"), content1);
+        byte[] content2 = new byte[200 * 1024];
+        new Random(5).nextBytes(content2);
+        Files.write(home.toPath().resolve("data2.bin"), content2);
+
+        TestSshServer testSshServer = closer.register(new TestSshServer(home.getPath()));
+        SSHClient sshClient = closer.register(new SSHClient());
+        sshClient.addHostKeyVerifier(new PromiscuousVerifier());
+        sshClient.connect("localhost", testSshServer.getPort());
+        sshClient.authPassword("username", new char[0]);
+
+        NodeFileCache fileCache = new NodeFileCache(cacheDir.toPath(), 400 * 1024);
+        HashMap<String, Object> env = new HashMap<>();
+        env.put(NodeFileSystemProvider.IS_WINDOWS_ENV_PROPERTY, false);
+        env.put(NodeFileSystemProvider.ATTRIBUTE_CACHE_TTL_ENV_PROPERTY, 0L);
+        env.put(SFTPClient.class.getName(), sshClient.newStatefulSFTPClient());
+        env.put(NodeFileCache.class.getName(), fileCache);
+        FileSystem fileSystem = closer.register(FileSystems.newFileSystem(URI.create(NodeFileSystemProvider.PREFIX + ":the-test/myhost"), env));
+
+        assertThat(Files.readAllBytes(fileSystem.getPath("data1.bin")), is(content1));
+        assertThat(fileCache.getTotalBytes(), is((long)content1.length));
+
+        // Same size and modification time: the cached copy is served.
+        FileTime lastModifiedTime = Files.getLastModifiedTime(remote1);
+        Files.write(remote1, new byte[content1.length]);
+        Files.setLastModifiedTime(remote1, lastModifiedTime);
+        try (InputStream inputStream = Files.newInputStream(fileSystem.getPath("data1.bin")))
+        {
+            assertThat(inputStream.readAllBytes(), is(content1));
+        }
+        try (SeekableByteChannel channel = Files.newByteChannel(fileSystem.getPath("data1.bin")))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(10);
+            channel.position(1000);
+            channel.read(buffer);
+            assertThat(buffer.array(), is(Arrays.copyOfRange(content1, 1000, 1010)));
+        }
+
+        // A different size means the file changed.
+        byte[] newContent1 = Arrays.copyOf(content1, content1.length - 1);
+        Files.write(remote1, newContent1);
+        assertThat(Files.readAllBytes(fileSystem.getPath("data1.bin")), is(newContent1));
+
+        // Reading another file evicts the least recently used one.
+        assertThat(Files.readAllBytes(fileSystem.getPath("data2.bin")), is(content2));
+        assertThat(fileCache.getTotalBytes(), is((long)content2.length));
+        try (Stream<Path> stream = Files.list(cacheDir.toPath()))
+        {
+            assertThat(stream.count(), is(1L));
+        }
+
+        // A new cache on the same directory picks up its content.
+        assertThat(new NodeFileCache(cacheDir.toPath(), 400 * 1024).getTotalBytes(), is((long)content2.length));
+    }
+
+    @Test
+    public void testLocalFileCacheIsNotFooledByAttributeCache() throws Exception
+    {
+        File home = new File("target/testLocalFileCacheIsNotFooledByAttributeCache");
+        IOUtil.deltree(home);
+        home.mkdirs();
+        File cacheDir = new File("target/testLocalFileCacheIsNotFooledByAttributeCache-cache");
+        IOUtil.deltree(cacheDir);
+        Path remote = Files.write(home.toPath().resolve("data.bin"), new byte[]{1, 2, 3});
+
+        TestSshServer testSshServer = closer.register(new TestSshServer(home.getPath()));
+        SSHClient sshClient = closer.register(new SSHClient());
+        sshClient.addHostKeyVerifier(new PromiscuousVerifier());
+        sshClient.connect("localhost", testSshServer.getPort());
+        sshClient.authPassword("username", new char[0]);
+
+        HashMap<String, Object> env = new HashMap<>();
+        env.put(NodeFileSystemProvider.IS_WINDOWS_ENV_PROPERTY, false);
+        env.put(NodeFileSystemProvider.ATTRIBUTE_CACHE_TTL_ENV_PROPERTY, 60_000L);
+        env.put(SFTPClient.class.getName(), sshClient.newStatefulSFTPClient());
+        env.put(NodeFileCache.class.getName(), new NodeFileCache(cacheDir.toPath(), 1024));
+        FileSystem fileSystem = closer.register(FileSystems.newFileSystem(URI.create(NodeFileSystemProvider.PREFIX + ":the-test/myhost"), env));
+
+        assertThat(Files.size(fileSystem.getPath("data.bin")), is(3L));
+        assertThat(Files.readAllBytes(fileSystem.getPath("data.bin")), is(new byte[]{1, 2, 3}));
+
+        // The cached attributes are stale, the local copy must not be.
+        Files.write(remote, new byte[]{4, 5, 6, 7});
+        assertThat(Files.size(fileSystem.getPath("data.bin")), is(3L));
+        assertThat(Files.readAllBytes(fileSystem.getPath("data.bin")), is(new byte[]{4, 5, 6, 7}));
+    }
+
+    @Test
+    public void testFollow() throws Exception
+    {
+        File home = new File("target/testFollow");
+        IOUtil.deltree(home);
+        home.mkdirs();
+        Path log = Files.write(home.toPath().resolve("access.log"), "line1\n".getBytes(StandardCharsets.UTF_8));
+
+        TestSshServer testSshServer = closer.register(new TestSshServer(home.getPath()));
+        SSHClient sshClient = closer.register(new SSHClient());
+        sshClient.addHostKeyVerifier(new PromiscuousVerifier());
+        sshClient.connect("localhost", testSshServer.getPort());
+        sshClient.authPassword("username", new char[0]);
+
+        HashMap<String, Object> env = new HashMap<>();
+        env.put(NodeFileSystemProvider.IS_WINDOWS_ENV_PROPERTY, false);
+        env.put(SFTPClient.class.getName(), sshClient.newStatefulSFTPClient());
+        FileSystem fileSystem = closer.register(FileSystems.newFileSystem(URI.create(NodeFileSystemProvider.PREFIX + ":the-test/myhost"), env));
+
+        InputStream fromStart = closer.register(NodeFiles.follow(fileSystem.getPath("access.log"), 0L));
+        InputStream fromEnd = closer.register(NodeFiles.follow(fileSystem.getPath("access.log")));
+        assertThat(readLine(fromStart), is("line1"));
+
+        Files.write(log, "line2\nline3\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertThat(readLine(fromStart), is("line2"));
+        assertThat(readLine(fromStart), is("line3"));
+        assertThat(readLine(fromEnd), is("line2"));
+
+        // Truncation restarts from the beginning of the file.
+        Files.write(log, "new\n".getBytes(StandardCharsets.UTF_8));
+        assertThat(readLine(fromStart), is("new"));
+
+        // Closing from another thread unblocks a pending read.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<Integer> pendingRead = executor.submit(() -> fromStart.read());
+            Thread.sleep(200);
+            fromStart.close();
+            assertThat(pendingRead.get(5, TimeUnit.SECONDS), is(-1));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String readLine(InputStream inputStream) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int b;
+        while ((b = inputStream.read()) != '\n')
+        {
+            if (b < 0)
+                break;
+            baos.write(b);
+        }
+        return baos.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testGrep() throws Exception
+    {
+        File home = new File("target/testGrep");
+        IOUtil.deltree(home);
+        home.mkdirs();
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++)
+            lines.add(i % 1000 == 7 ? "ERROR request " + i + " took long" : "INFO request " + i);
+        Files.write(home.toPath().resolve("server.log"), lines, StandardCharsets.UTF_8);
+        List<String> expected = Arrays.asList("ERROR request 7 took long", "ERROR request 1007 took long", "ERROR request 2007 took long");
+
+        TestSshServer testSshServer = closer.register(new TestSshServer(home.getPath()));
+        SSHClient sshClient = closer.register(new SSHClient());
+        sshClient.addHostKeyVerifier(new PromiscuousVerifier());
+        sshClient.connect("localhost", testSshServer.getPort());
+        sshClient.authPassword("username", new char[0]);
+
+        HashMap<String, Object> env = new HashMap<>();
+        env.put(NodeFileSystemProvider.IS_WINDOWS_ENV_PROPERTY, false);
+        env.put(SFTPClient.class.getName(), sshClient.newStatefulSFTPClient());
+        env.put(SSHClient.class.getName(), sshClient);
+        NodeFileSystem fileSystem = closer.register((NodeFileSystem)FileSystems.newFileSystem(URI.create(NodeFileSystemProvider.PREFIX + ":the-test/myhost"), env));
+        NodePath log = (NodePath)fileSystem.getPath("server.log");
+
+        assertThat(collect(fileSystem.grepRemotely(log, "ERROR.*long", 3)), is(expected));
+        assertThat(collect(NodeFiles.grep(log, "ERROR.*long", 3)), is(expected));
+        assertThat(collect(NodeFiles.grep(log, "^ERROR")).size(), is(10));
+        assertThat(collect(NodeFiles.grep(log, "WARN")), is(Collections.emptyList()));
+        assertThat(collect(fileSystem.grepRemotely(log, "request (?=7 )", -1)), is(expected.subList(0, 1)));
+        // Java-only construct, so filtered locally.
+        assertThat(fileSystem.grepRemotely(log, "^\\p{javaUpperCase}+ request 7 ", -1), is(nullValue()));
+        assertThat(collect(NodeFiles.grep(log, "^\\p{javaUpperCase}+ request 7 ")), is(expected.subList(0, 1)));
+        // The matches are read lazily, the remaining ones are never transferred.
+        try (Stream<String> matches = NodeFiles.grep(log, "request"))
+        {
+            assertThat(matches.findFirst().orElseThrow(), is("INFO request 0"));
+        }
+
+        assertThat(collect(NodeFiles.grep(home.toPath().resolve("server.log"), "ERROR.*long", 3)), is(expected));
+    }
+
+    private static List<String> collect(Stream<String> stream)
+    {
+        try (stream)
+        {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testAttributesAndListingsAreCached() throws Exception
+    {
+        File home = new File("target/testAttributesAndListingsAreCached");
+        new File(home, "dir/sub").mkdirs();
+        Files.write(home.toPath().resolve("dir/sub/a.txt"), new byte[10]);
+        Files.deleteIfExists(home.toPath().resolve("dir/sub/b.txt"));
+
+        TestSshServer testSshServer = closer.register(new TestSshServer(home.getPath()));
+        SSHClient sshClient = closer.register(new SSHClient());
+        sshClient.addHostKeyVerifier(new PromiscuousVerifier());
+        sshClient.connect("localhost", testSshServer.getPort());
+        sshClient.authPassword("username", new char[0]);
+
+        HashMap<String, Object> env = new HashMap<>();
+        env.put(NodeFileSystemProvider.IS_WINDOWS_ENV_PROPERTY, false);
+        env.put(NodeFileSystemProvider.ATTRIBUTE_CACHE_TTL_ENV_PROPERTY, 60_000L);
+        env.put(SFTPClient.class.getName(), sshClient.newStatefulSFTPClient());
+        FileSystem fileSystem = closer.register(FileSystems.newFileSystem(URI.create(NodeFileSystemProvider.PREFIX + ":the-test/myhost"), env));
+
+        Path dir = fileSystem.getPath("dir");
+        try (Stream<Path> stream = Files.walk(dir))
+        {
+            assertThat(stream.count(), is(3L));
+        }
+        assertThat(Files.size(fileSystem.getPath("dir/sub/a.txt")), is(10L));
+        assertThat(Files.exists(fileSystem.getPath("dir/sub/b.txt")), is(false));
+
+        Files.delete(home.toPath().resolve("dir/sub/a.txt"));
+        Files.write(home.toPath().resolve("dir/sub/b.txt"), new byte[20]);
+        assertThat(Files.exists(fileSystem.getPath("dir/sub/a.txt")), is(true));
+        assertThat(Files.exists(fileSystem.getPath("dir/sub/b.txt")), is(false));
+
+        NodeFiles.invalidateCache(dir);
+        assertThat(Files.exists(fileSystem.getPath("dir/sub/a.txt")), is(false));
+        assertThat(Files.size(fileSystem.getPath("dir/sub/b.txt")), is(20L));
+        try (Stream<Path> stream = Files.list(fileSystem.getPath("dir/sub")))
+        {
+            assertThat(stream.map(p -> p.getFileName().toString()).collect(Collectors.toList()), is(List.of("b.txt")));
+        }
+    }
+
+    @Test
+    public void testAttributeCacheCanBeDisabled() throws Exception
+    {
+        File home = new File("target/testAttributeCacheCanBeDisabled");
+        home.mkdirs();
+        Files.deleteIfExists(home.toPath().resolve("a.txt"));
+
+        TestSshServer testSshServer = closer.register(new TestSshServer(home.getPath()));
+        SSHClient sshClient = closer.register(new SSHClient());
+        sshClient.addHostKeyVerifier(new PromiscuousVerifier());
+        sshClient.connect("localhost", testSshServer.getPort());
+        sshClient.authPassword("username", new char[0]);
+
+        HashMap<String, Object> env = new HashMap<>();
+        env.put(NodeFileSystemProvider.IS_WINDOWS_ENV_PROPERTY, false);
+        env.put(NodeFileSystemProvider.ATTRIBUTE_CACHE_TTL_ENV_PROPERTY, 0L);
+        env.put(SFTPClient.class.getName(), sshClient.newStatefulSFTPClient());
+        FileSystem fileSystem = closer.register(FileSystems.newFileSystem(URI.create(NodeFileSystemProvider.PREFIX + ":the-test/myhost"), env));
+
+        assertThat(Files.exists(fileSystem.getPath("a.txt")), is(false));
+        Files.write(home.toPath().resolve("a.txt"), new byte[5]);
+        assertThat(Files.size(fileSystem.getPath("a.txt")), is(5L));
+    }
+
+    @Test
+    public void testAttributeCacheIsDisabledByDefault() throws Exception
+    {
+        File home = new File("target/testAttributeCacheIsDisabledByDefault");
+        new File(home, "dir").mkdirs();
+        Files.deleteIfExists(home.toPath().resolve("dir/a.txt"));
+
+        TestSshServer testSshServer = closer.register(new TestSshServer(home.getPath()));
+        SSHClient sshClient = closer.register(new SSHClient());
+        sshClient.addHostKeyVerifier(new PromiscuousVerifier());
+        sshClient.connect("localhost", testSshServer.getPort());
+        sshClient.authPassword("username", new char[0]);
+
+        HashMap<String, Object> env = new HashMap<>();
+        env.put(NodeFileSystemProvider.IS_WINDOWS_ENV_PROPERTY, false);
+        env.put(SFTPClient.class.getName(), sshClient.newStatefulSFTPClient());
+        FileSystem fileSystem = closer.register(FileSystems.newFileSystem(URI.create(NodeFileSystemProvider.PREFIX + ":the-test/myhost"), env));
+
+        // Files written by the nodes do not go through the file system, they must be seen right away.
+        assertThat(Files.exists(fileSystem.getPath("dir/a.txt")), is(false));
+        try (Stream<Path> stream = Files.list(fileSystem.getPath("dir")))
+        {
+            assertThat(stream.count(), is(0L));
+        }
+        Files.write(home.toPath().resolve("dir/a.txt"), new byte[5]);
+        assertThat(Files.size(fileSystem.getPath("dir/a.txt")), is(5L));
+        try (Stream<Path> stream = Files.list(fileSystem.getPath("dir")))
+        {
+            assertThat(stream.count(), is(1L));
+        }
+    }
+
+    @Test
+    public void testWalkListsTreeInOneCommand() throws Exception
+    {
+        File home = new File("target/testWalkListsTreeInOneCommand");
+        new File(home, "dir/sub/subsub").mkdirs();
+        new File(home, "dir/empty").mkdirs();
+        Files.write(home.toPath().resolve("dir/a.txt"), new byte[1]);
+        Files.write(home.toPath().resolve("dir/sub/b with space.txt"), new byte[2]);
+        Files.write(home.toPath().resolve("dir/sub/subsub/c.txt"), new byte[3]);
+
+        TestSshServer testSshServer = closer.register(new TestSshServer(home.getPath()));
+        SSHClient sshClient = closer.register(new SSHClient());
+        sshClient.addHostKeyVerifier(new PromiscuousVerifier());
+        sshClient.connect("localhost", testSshServer.getPort());
+        sshClient.authPassword("username", new char[0]);
+
+        HashMap<String, Object> env = new HashMap<>();
+        env.put(NodeFileSystemProvider.IS_WINDOWS_ENV_PROPERTY, false);
+        env.put(NodeFileSystemProvider.ATTRIBUTE_CACHE_TTL_ENV_PROPERTY, 60_000L);
+        env.put(SFTPClient.class.getName(), sshClient.newStatefulSFTPClient());
+        env.put(SSHClient.class.getName(), sshClient);
+        NodeFileSystem fileSystem = closer.register((NodeFileSystem)FileSystems.newFileSystem(URI.create(NodeFileSystemProvider.PREFIX + ":the-test/myhost"), env));
+
+        Path dir = fileSystem.getPath("dir");
+        List<Path> expected;
+        try (Stream<Path> stream = Files.walk(dir))
+        {
+            expected = stream.collect(Collectors.toList());
+        }
+        fileSystem.invalidateCache((NodePath)dir);
+
+        List<Path> walked = fileSystem.findRemotely((NodePath)dir, Integer.MAX_VALUE);
+        assertThat(walked, is(notNullValue()));
+        assertThat(new HashSet<>(walked), is(new HashSet<>(expected)));
+        assertThat(walked.size(), is(7));
+        assertThat(NodeFiles.walk(dir, 1).size(), is(4));
+
+        // The remote listing filled the attribute and listing caches.
+        Files.delete(home.toPath().resolve("dir/sub/subsub/c.txt"));
+        assertThat(Files.size(dir.resolve("sub").resolve("subsub").resolve("c.txt")), is(3L));
+        assertThat(Files.isDirectory(dir.resolve("empty")), is(true));
+        try (Stream<Path> stream = Files.list(dir.resolve("empty")))
+        {
+            assertThat(stream.count(), is(0L));
+        }
+
+        fileSystem.invalidateCache((NodePath)dir);
+        assertThat(NodeFiles.walk(dir).size(), is(6));
+    }
+
+    @Test
+    public void testDownload() throws Exception
+    {
+        File home = new File("target/testDownload");
+        new File(home, "dir/sub/" + "x".repeat(120)).mkdirs();
+        new File(home, "dir/empty").mkdirs();
+        Random random = new Random(3);
+        Map<String, byte[]> contents = new HashMap<>();
+        contents.put("a.txt", new byte[10]);
+        contents.put("sub/b with space.txt", new byte[0]);
+        contents.put("sub/" + "x".repeat(120) + "/c.txt", new byte[1000]);
+        contents.put("big.bin", new byte[1024 * 1024 + 1]);
+        for (Map.Entry<String, byte[]> entry : contents.entrySet())
+        {
+            random.nextBytes(entry.getValue());
+            Files.write(home.toPath().resolve("dir").resolve(entry.getKey()), entry.getValue());
+        }
+
+        TestSshServer testSshServer = closer.register(new TestSshServer(home.getPath()));
+        SSHClient sshClient = closer.register(new SSHClient());
+        sshClient.addHostKeyVerifier(new PromiscuousVerifier());
+        sshClient.connect("localhost", testSshServer.getPort());
+        sshClient.authPassword("username", new char[0]);
+
+        HashMap<String, Object> env = new HashMap<>();
+        env.put(NodeFileSystemProvider.IS_WINDOWS_ENV_PROPERTY, false);
+        env.put(SFTPClient.class.getName(), sshClient.newStatefulSFTPClient());
+        env.put(SSHClient.class.getName(), sshClient);
+        FileSystem fileSystem = closer.register(FileSystems.newFileSystem(URI.create(NodeFileSystemProvider.PREFIX + ":the-test/myhost"), env));
+
+        for (boolean archive : new boolean[]{false, true})
+        {
+            Path localDir = Paths.get("target/testDownload-local-" + archive);
+            IOUtil.deltree(localDir.toFile());
+            NodeFiles.download(fileSystem.getPath("dir"), localDir, new DownloadOptions().parallelism(2).archiveSmallFiles(archive));
+
+            for (Map.Entry<String, byte[]> entry : contents.entrySet())
+            {
+                assertThat(Files.readAllBytes(localDir.resolve(entry.getKey())), is(entry.getValue()));
+            }
+            assertThat(Files.isDirectory(localDir.resolve("empty")), is(true));
+        }
+
+        Path localDir = Paths.get("target/testDownload-local-filtered");
+        IOUtil.deltree(localDir.toFile());
+        NodeFiles.download(fileSystem.getPath("dir"), localDir, new DownloadOptions().archiveSmallFiles(true).compress(true).include("*.txt", "sub/**"));
+        for (Map.Entry<String, byte[]> entry : contents.entrySet())
+        {
+            Path localPath = localDir.resolve(entry.getKey());
+            if (entry.getKey().endsWith(".bin"))
+                assertThat(Files.exists(localPath), is(false));
+            else
+                assertThat(Files.readAllBytes(localPath), is(entry.getValue()));
+        }
+        assertThat(Files.exists(localDir.resolve("empty")), is(false));
+    }
+
     private static class NoFileException extends RuntimeException
     {
     }
@@ -19,12 +19,15 @@ import java.security.KeyPair;
 import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import org.apache.sshd.common.file.nativefs.NativeFileSystemFactory;
 import org.apache.sshd.common.keyprovider.AbstractResourceKeyPairProvider;
 import org.apache.sshd.common.session.SessionContext;
 import org.apache.sshd.common.util.GenericUtils;
+import org.apache.sshd.common.util.OsUtils;
 import org.apache.sshd.server.SshServer;
 import org.apache.sshd.server.channel.ChannelSession;
 import org.apache.sshd.server.command.Command;
@@ -104,7 +107,7 @@ public class TestSshServer implements AutoCloseable
         sshd.setSubsystemFactories(Collections.singletonList(factory));
         sshd.setFileSystemFactory(new NativeFileSystemFactory());
 
-        // execute commands from home folder
+        // execute commands from home folder, through a shell like OpenSSH does
         sshd.setCommandFactory(new ProcessShellCommandFactory()
         {
             @Override
@@ -115,7 +118,8 @@ public class TestSshServer implements AutoCloseable
                     @Override
                     protected InvertedShell createInvertedShell(ChannelSession channel)
                     {
-                        return new HomeProcessShell(homePath, resolveEffectiveCommand(channel, getCommand(), getElements()));
+                        List<String> effectiveCommand = OsUtils.isUNIX() ? Arrays.asList("/bin/sh", "-c", getCommand()) : resolveEffectiveCommand(channel, getCommand(), getElements());
+                        return new HomeProcessShell(homePath, effectiveCommand);
                     }
                 };
                 return factory.createShell(channel);
@@ -0,0 +1,64 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package utils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mortbay.jetty.orchestrator.util.IOUtil;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class IOUtilTest
+{
+    @Test
+    public void testDeltreeInBackground(@TempDir Path tmp) throws Exception
+    {
+        Path folder = Files.createDirectories(tmp.resolve("node/sub"));
+        Files.write(folder.resolve("file.txt"), "content".getBytes(StandardCharsets.UTF_8));
+        File tombstones = tmp.resolve("tombstones").toFile();
+
+        assertThat(IOUtil.deltreeInBackground(tmp.resolve("node").toFile(), tombstones), is(true));
+
+        assertThat(Files.exists(tmp.resolve("node")), is(false));
+        awaitEmpty(tombstones);
+    }
+
+    @Test
+    public void testTombstonesOfDeadJvmsAreSwept(@TempDir Path tmp) throws Exception
+    {
+        // A PID that cannot be alive.
+        Path stale = Files.createDirectories(tmp.resolve("tombstones/" + Long.MAX_VALUE + "-1-node/sub"));
+        Files.write(stale.resolve("file.txt"), "content".getBytes(StandardCharsets.UTF_8));
+        Path folder = Files.createDirectories(tmp.resolve("node"));
+        File tombstones = tmp.resolve("tombstones").toFile();
+
+        assertThat(IOUtil.deltreeInBackground(folder.toFile(), tombstones), is(true));
+
+        awaitEmpty(tombstones);
+    }
+
+    private static void awaitEmpty(File folder) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (System.nanoTime() < deadline && folder.list().length > 0)
+            Thread.sleep(10);
+        assertThat(folder.list().length, is(0));
+    }
+}
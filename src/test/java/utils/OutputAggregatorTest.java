@@ -0,0 +1,94 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.mortbay.jetty.orchestrator.configuration.OutputAggregation;
+import org.mortbay.jetty.orchestrator.util.OutputAggregator;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class OutputAggregatorTest
+{
+    @Test
+    public void testIdenticalLinesAreCollapsed() throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (OutputAggregator outputAggregator = new OutputAggregator(baos, new OutputAggregation().windowMillis(60_000L)))
+        {
+            for (int i = 0; i < 3; i++)
+            {
+                OutputStream source = outputAggregator.source("[" + i + "] ");
+                source.write("warmup done\n".getBytes(StandardCharsets.UTF_8));
+                if (i == 1)
+                    source.write("only once\r\n".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        assertThat(baos.toString(StandardCharsets.UTF_8), is("[x3] warmup done\n[1] only once\n"));
+    }
+
+    @Test
+    public void testSpammingSourceIsRateLimited() throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (OutputAggregator outputAggregator = new OutputAggregator(baos, new OutputAggregation().windowMillis(60_000L).maxLinesPerSecond(2)))
+        {
+            OutputStream spammer = outputAggregator.source("[spam] ");
+            OutputStream quiet = outputAggregator.source("[quiet] ");
+            for (int i = 0; i < 10; i++)
+                spammer.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+            quiet.write("hello".getBytes(StandardCharsets.UTF_8));
+            quiet.flush();
+        }
+
+        assertThat(baos.toString(StandardCharsets.UTF_8), is(
+            "[spam] line 0\n" +
+            "[spam] line 1\n" +
+            "[quiet] hello\n" +
+            "[spam] [8 line(s) suppressed as more than 2 were printed within a second]\n"));
+    }
+
+    @Test
+    public void testClosedSourceIsReportedAndForgotten() throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (OutputAggregator outputAggregator = new OutputAggregator(baos, new OutputAggregation().windowMillis(20L).maxLinesPerSecond(2)))
+        {
+            OutputStream closed = outputAggregator.source("[closed] ");
+            OutputStream open = outputAggregator.source("[open] ");
+            for (int i = 0; i < 10; i++)
+            {
+                closed.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+                open.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            closed.close();
+
+            // The closed source does not wait for its second to be over to report its suppressed lines.
+            String expected = "[closed] [8 line(s) suppressed";
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (System.nanoTime() < deadline && !baos.toString(StandardCharsets.UTF_8).contains(expected))
+                Thread.sleep(10);
+            assertThat(baos.toString(StandardCharsets.UTF_8), containsString(expected));
+            assertThat(baos.toString(StandardCharsets.UTF_8), not(containsString("[open] [8 line(s) suppressed")));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.mortbay.jetty.orchestrator.util.OutputPump;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class OutputPumpTest
+{
+    @Test
+    public void testLinesArePrefixedAndDrained() throws Exception
+    {
+        ByteArrayOutputStream prefixed = new ByteArrayOutputStream();
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        OutputPump outputPump = new OutputPump("test-pump");
+        outputPump.pump(new ByteArrayInputStream("one\ntwo\nthr".getBytes(StandardCharsets.UTF_8)), prefixed, "[a] ", () -> false);
+        outputPump.pump(new ByteArrayInputStream("four\n".getBytes(StandardCharsets.UTF_8)), plain, null, () -> false);
+
+        String expectedPrefixed = "[a] one\n[a] two\n[a] thr";
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (System.nanoTime() < deadline && (prefixed.size() < expectedPrefixed.length() || plain.size() < "four\n".length()))
+            Thread.sleep(10);
+
+        assertThat(prefixed.toString(StandardCharsets.UTF_8), is(expectedPrefixed));
+        assertThat(plain.toString(StandardCharsets.UTF_8), is("four\n"));
+    }
+
+    @Test
+    public void testCrLfIsOneLineTerminator() throws Exception
+    {
+        ByteArrayOutputStream prefixed = new ByteArrayOutputStream();
+        OutputPump outputPump = new OutputPump("test-pump");
+        // The second "\r\n" is split across two reads.
+        outputPump.pump(new ChunkedInputStream("one\r\ntwo\r", "\nthree\rfour\n"), prefixed, "[a] ", () -> false);
+
+        String expected = "[a] one\r\n[a] two\r\n[a] three\r[a] four\n";
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (System.nanoTime() < deadline && prefixed.size() < expected.length())
+            Thread.sleep(10);
+
+        assertThat(prefixed.toString(StandardCharsets.UTF_8), is(expected));
+    }
+
+    private static class ChunkedInputStream extends InputStream
+    {
+        private final String[] chunks;
+        private int chunkIndex;
+        private ByteArrayInputStream current;
+
+        private ChunkedInputStream(String... chunks)
+        {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int available()
+        {
+            if ((current == null || current.available() == 0) && chunkIndex < chunks.length)
+                current = new ByteArrayInputStream(chunks[chunkIndex++].getBytes(StandardCharsets.UTF_8));
+            return current.available();
+        }
+
+        @Override
+        public int read()
+        {
+            return available() == 0 ? -1 : current.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            return available() == 0 ? -1 : current.read(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package utils;
+
+import org.junit.jupiter.api.Test;
+import org.mortbay.jetty.orchestrator.rpc.GlobalNodeId;
+import org.mortbay.jetty.orchestrator.tools.DistributedQueue;
+import org.mortbay.jetty.orchestrator.util.ZooKeeperClient;
+import org.mortbay.jetty.orchestrator.util.ZooKeeperServer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ZooKeeperClientTest
+{
+    @Test
+    public void testDeletedQueueIsNotRecreatedByLateOffers() throws Exception
+    {
+        try (ZooKeeperServer zkServer = new ZooKeeperServer();
+             ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString()))
+        {
+            GlobalNodeId globalNodeId = new GlobalNodeId("the-cluster/the-host");
+            zkClient.ensureDistributedQueue(globalNodeId, "replyQ");
+            assertThat(zkClient.offerIfQueueExists(globalNodeId, "replyQ", "hello"), is(true));
+            DistributedQueue queue = zkClient.createDistributedQueue(globalNodeId, "replyQ");
+            assertThat(queue.take(), is("hello"));
+
+            zkClient.deleteDistributedQueue(globalNodeId, "replyQ");
+            assertThat(zkClient.offerIfQueueExists(globalNodeId, "replyQ", "late"), is(false));
+            assertThat(zkClient.offerIfQueueExists(globalNodeId, "replyQ", "later"), is(false));
+        }
+    }
+}